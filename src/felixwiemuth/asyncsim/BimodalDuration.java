@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2017 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.asyncsim;
+
+import java.util.Random;
+
+/**
+ * A mixture of two durations, e.g., a fast path and a slow path (cache hits
+ * and misses, retransmissions).
+ *
+ * @author Felix Wiemuth
+ */
+public class BimodalDuration extends DistributedDuration {
+
+    private static final long serialVersionUID = 1L;
+
+    private final double p;
+    private final Duration first;
+    private final Duration second;
+
+    /**
+     * @param p the probability to draw from the first duration
+     * @param first
+     * @param second
+     */
+    public BimodalDuration(double p, Duration first, Duration second) {
+        if (!(p >= 0 && p <= 1)) {
+            throw new IllegalArgumentException("Invalid probability " + p);
+        }
+        this.p = p;
+        this.first = first;
+        this.second = second;
+    }
+
+    @Override
+    public long getDuration(Random random) {
+        return random.nextDouble() < p ? first.getDuration(random) : second.getDuration(random);
+    }
+
+    @Override
+    public long getMinDuration() {
+        if (p == 1) {
+            return first.getMinDuration();
+        } else if (p == 0) {
+            return second.getMinDuration();
+        }
+        return Math.min(first.getMinDuration(), second.getMinDuration());
+    }
+}
@@ -18,34 +18,26 @@
 package felixwiemuth.asyncsim;
 
 /**
+ * Collects log entries in memory, formatted as by {@link StdOutLog}.
+ *
  * @author Felix Wiemuth
  */
-public class Event implements Comparable<Event> {
-
-    private final long time;
-    private final Runnable runnable;
+public class BufferLog implements Log {
 
-    public Event(long time, Runnable runnable) {
-        this.time = time;
-        this.runnable = runnable;
-    }
+    private final StringBuilder buffer = new StringBuilder();
 
-    //NOTE: equals and hashCode can and should stay those of Object, then compareTo is consistent with equals
     @Override
-    public int compareTo(Event o) {
-        int compare = Long.compare(time, o.time);
-        if (compare == 0) { // This makes compareTo consistent with equals
-            return hashCode() < o.hashCode() ? -1 : 1;
-        } else {
-            return compare;
-        }
+    public synchronized void log(long time, String msg) {
+        buffer.append(String.format("%5d ", time)).append(msg).append(System.lineSeparator());
     }
 
-    public void run() {
-        runnable.run();
-    }
-
-    public long getTime() {
-        return time;
+    /**
+     * Get the entries logged so far, one per line.
+     *
+     * @return
+     */
+    @Override
+    public synchronized String toString() {
+        return buffer.toString();
     }
 }
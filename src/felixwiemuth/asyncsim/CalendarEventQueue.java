@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2017 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.asyncsim;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * An {@link EventQueue} implemented as a calendar queue (R. Brown, "Calendar
+ * Queues: A Fast O(1) Priority Queue Implementation for the Simulation Event
+ * Set Problem", 1988). Events are sorted into buckets which each cover a time
+ * interval of fixed width ("days of a year"). Insertion and removal take
+ * amortized O(1) time if the bucket width fits the spread of event times.
+ * Therefore the number of buckets follows the number of pending events and
+ * whenever the queue is resized, the bucket width is recomputed from the
+ * separation of the next events to be run.
+ * <p>
+ * Each bucket is a sorted linked list. As an event is in the queue at most
+ * once, the list nodes are stored in arrays indexed by event id.
+ *
+ * @author Felix Wiemuth
+ */
+public class CalendarEventQueue implements EventQueue {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int MIN_BUCKETS = 16;
+    private static final int SAMPLE_SIZE = 25; // number of events used to estimate the bucket width
+
+    // List nodes (indexed by event id)
+    private long[] times = new long[64];
+    private long[] seqs = new long[64];
+    private int[] next = new int[64];
+
+    // Buckets (first and last event of each list, -1 if empty)
+    private int[] first;
+    private int[] last;
+    private int mask;
+    private long width;
+    private int size = 0;
+    private int lastBucket; // bucket where the search for the next event starts
+    private long bucketTop; // end of the interval currently covered by lastBucket
+
+    public CalendarEventQueue() {
+        this(MIN_BUCKETS, 1);
+    }
+
+    /**
+     * Create a calendar queue with a given initial layout. The layout is
+     * adapted when the number of events changes.
+     *
+     * @param buckets initial number of buckets (rounded up to a power of two)
+     * @param width initial time interval covered by a bucket
+     */
+    public CalendarEventQueue(int buckets, long width) {
+        if (buckets < 1 || width < 1) {
+            throw new IllegalArgumentException("buckets and width must be positive");
+        }
+        init(Math.max(MIN_BUCKETS, Integer.highestOneBit(buckets - 1) << 1), width, 0);
+    }
+
+    private void init(int nbuckets, long width, long start) {
+        first = new int[nbuckets];
+        last = new int[nbuckets];
+        Arrays.fill(first, -1);
+        Arrays.fill(last, -1);
+        mask = nbuckets - 1;
+        this.width = width;
+        lastBucket = bucket(start);
+        bucketTop = (start / width + 1) * width;
+    }
+
+    private int bucket(long time) {
+        return (int) ((time / width) & mask);
+    }
+
+    @Override
+    public void add(int event, long time, long seq) {
+        if (event >= next.length) {
+            int capacity = Math.max(2 * next.length, event + 1);
+            times = Arrays.copyOf(times, capacity);
+            seqs = Arrays.copyOf(seqs, capacity);
+            next = Arrays.copyOf(next, capacity);
+        }
+        times[event] = time;
+        seqs[event] = seq;
+        insert(event);
+        size++;
+        if (time < bucketTop - width) { // event is earlier than the current position of the search
+            lastBucket = bucket(time);
+            bucketTop = (time / width + 1) * width;
+        }
+        if (size > 2 * first.length) {
+            resize(2 * first.length);
+        }
+    }
+
+    @Override
+    public int poll() {
+        if (size == 0) {
+            return -1;
+        }
+        int event = removeFirst(locate());
+        size--;
+        if (size < first.length / 2 - 2 && first.length > MIN_BUCKETS) {
+            resize(first.length / 2);
+        }
+        return event;
+    }
+
+    /**
+     * {@inheritDoc} As the events with equal time are at the head of the same
+     * bucket, they are removed in O(1) time each.
+     */
+    @Override
+    public int pollAt(long time, int[] buffer, int offset) {
+        if (size == 0) {
+            return offset;
+        }
+        int i = locate();
+        while (offset < buffer.length && first[i] >= 0 && times[first[i]] == time) {
+            buffer[offset++] = removeFirst(i);
+            size--;
+        }
+        if (size < first.length / 2 - 2 && first.length > MIN_BUCKETS) {
+            resize(Math.max(MIN_BUCKETS, Integer.highestOneBit(Math.max(1, 2 * size))));
+        }
+        return offset;
+    }
+
+    @Override
+    public int removeIf(IntPredicate filter) {
+        int removed = 0;
+        for (int i = 0; i < first.length; i++) {
+            int prev = -1;
+            for (int event = first[i]; event >= 0; event = next[event]) {
+                if (filter.test(event)) {
+                    if (prev < 0) {
+                        first[i] = next[event];
+                    } else {
+                        next[prev] = next[event];
+                    }
+                    removed++;
+                } else {
+                    prev = event;
+                }
+            }
+            last[i] = prev;
+        }
+        size -= removed;
+        if (size < first.length / 2 - 2 && first.length > MIN_BUCKETS) {
+            resize(Math.max(MIN_BUCKETS, Integer.highestOneBit(Math.max(1, 2 * size))));
+        }
+        return removed;
+    }
+
+    @Override
+    public int peek() {
+        if (size == 0) {
+            return -1;
+        }
+        return first[locate()];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private boolean before(int e1, int e2) {
+        return times[e1] < times[e2] || (times[e1] == times[e2] && seqs[e1] < seqs[e2]);
+    }
+
+    /**
+     * Insert an event into its bucket, keeping the bucket sorted. As events are
+     * mostly added in increasing order, appending is checked first.
+     *
+     * @param event
+     */
+    private void insert(int event) {
+        int i = bucket(times[event]);
+        if (first[i] < 0) {
+            first[i] = event;
+            last[i] = event;
+            next[event] = -1;
+        } else if (before(last[i], event)) {
+            next[last[i]] = event;
+            last[i] = event;
+            next[event] = -1;
+        } else if (before(event, first[i])) {
+            next[event] = first[i];
+            first[i] = event;
+        } else {
+            int pos = first[i];
+            while (before(next[pos], event)) {
+                pos = next[pos];
+            }
+            next[event] = next[pos];
+            next[pos] = event;
+        }
+    }
+
+    private int removeFirst(int i) {
+        int event = first[i];
+        first[i] = next[event];
+        if (first[i] < 0) {
+            last[i] = -1;
+        }
+        return event;
+    }
+
+    /**
+     * Find the bucket containing the next event. Requires the queue to be
+     * non-empty. Moves the start of the search to that bucket.
+     *
+     * @return the index of the bucket whose first event is the next event
+     */
+    private int locate() {
+        int i = lastBucket;
+        long top = bucketTop;
+        for (int n = 0; n < first.length; n++) {
+            if (first[i] >= 0 && times[first[i]] < top) {
+                lastBucket = i;
+                bucketTop = top;
+                return i;
+            }
+            i = (i + 1) & mask;
+            top += width;
+        }
+        // No event within one year: search the minimum directly
+        int min = -1;
+        for (i = 0; i < first.length; i++) {
+            if (first[i] >= 0 && (min < 0 || before(first[i], first[min]))) {
+                min = i;
+            }
+        }
+        long time = times[first[min]];
+        lastBucket = min;
+        bucketTop = (time / width + 1) * width;
+        return min;
+    }
+
+    /**
+     * Rebuild the queue with a new number of buckets. The new bucket width is
+     * estimated from the next {@link #SAMPLE_SIZE} events.
+     *
+     * @param nbuckets
+     */
+    private void resize(int nbuckets) {
+        int[] all = new int[size];
+        int samples = Math.min(size, SAMPLE_SIZE);
+        for (int k = 0; k < samples; k++) {
+            all[k] = removeFirst(locate());
+        }
+        int n = samples;
+        for (int i = 0; i < first.length; i++) {
+            for (int event = first[i]; event >= 0; event = next[event]) {
+                all[n++] = event;
+            }
+        }
+        init(nbuckets, estimateWidth(all, samples), size > 0 ? times[all[0]] : bucketTop - width);
+        for (int event : all) {
+            insert(event);
+        }
+    }
+
+    /**
+     * Estimate a bucket width from the average separation of the first events,
+     * ignoring unusually large separations.
+     *
+     * @param events events where the first {@code n} are sorted
+     * @param n
+     * @return
+     */
+    private long estimateWidth(int[] events, int n) {
+        if (n < 2) {
+            return width;
+        }
+        double avg = (double) (times[events[n - 1]] - times[events[0]]) / (n - 1);
+        long sum = 0;
+        int cnt = 0;
+        for (int k = 1; k < n; k++) {
+            long separation = times[events[k]] - times[events[k - 1]];
+            if (separation <= 2 * avg) {
+                sum += separation;
+                cnt++;
+            }
+        }
+        return Math.max(1, (long) Math.ceil(3.0 * sum / cnt));
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2017 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.asyncsim;
+
+import java.util.Random;
+
+/**
+ * Base class of durations drawn from a probability distribution. The
+ * simulator passes the random stream to draw from (see
+ * {@link Duration#getDuration(Random)}); the generator given to the
+ * constructor is only used by {@link #getDuration()}, e.g., when a duration is
+ * used outside of a simulation.
+ *
+ * @author Felix Wiemuth
+ */
+public abstract class DistributedDuration implements Duration {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Random random;
+
+    /**
+     * Create a duration which is only drawn from the streams passed by the
+     * simulator.
+     */
+    protected DistributedDuration() {
+        this(null);
+    }
+
+    /**
+     * Create a duration which uses the given generator when no stream is
+     * passed.
+     *
+     * @param random the generator used by {@link #getDuration()}, can be null
+     */
+    protected DistributedDuration(Random random) {
+        this.random = random;
+    }
+
+    @Override
+    public long getDuration() {
+        if (random == null) {
+            throw new IllegalStateException("No random generator given for " + getClass().getSimpleName());
+        }
+        return getDuration(random);
+    }
+
+    @Override
+    public abstract long getDuration(Random random);
+}
@@ -17,10 +17,52 @@
 
 package felixwiemuth.asyncsim;
 
+import java.io.Serializable;
+import java.util.Random;
+
 /**
  * @author Felix Wiemuth
  */
-public interface Duration {
+public interface Duration extends Serializable {
 
     long getDuration();
+
+    /**
+     * Get a duration, drawing random numbers from the given stream. The
+     * simulator passes the stream of the task the duration is used for (see
+     * {@link Task#getRandom()}), so that random durations do not depend on the
+     * order in which tasks run.
+     *
+     * @param random
+     * @return
+     */
+    default long getDuration(Random random) {
+        return getDuration();
+    }
+
+    /**
+     * Fill {@code durations[from, to)} with durations drawn from the given
+     * stream, the same as by calling {@link #getDuration(Random)} for each of
+     * them in order. Used for the delays of multicasts over a shared link.
+     *
+     * @param random
+     * @param durations
+     * @param from
+     * @param to
+     */
+    default void getDurations(Random random, long[] durations, int from, int to) {
+        for (int i = from; i < to; i++) {
+            durations[i] = getDuration(random);
+        }
+    }
+
+    /**
+     * Get a lower bound of the durations returned by {@link #getDuration()}.
+     * Used as lookahead by {@link ParallelSimulator}.
+     *
+     * @return
+     */
+    default long getMinDuration() {
+        return 0;
+    }
 }
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2017 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.asyncsim;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A duration drawn from a histogram, e.g., of measured latencies. A bin is
+ * chosen with probability proportional to its weight in constant time (by the
+ * alias method) and the duration is drawn uniformly from the bin.
+ *
+ * @author Felix Wiemuth
+ */
+public class EmpiricalDuration extends DistributedDuration {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long[] lower;
+    private final long[] width;
+    private final double[] prob; // probability to keep a bin instead of its alias
+    private final int[] alias;
+    private final long min;
+
+    /**
+     * Create a duration from a histogram with adjacent bins.
+     *
+     * @param bounds the bounds of the bins, where bin i is
+     * {@code [bounds[i], bounds[i+1])}
+     * @param weights the weights (e.g., counts) of the bins
+     */
+    public EmpiricalDuration(long[] bounds, double[] weights) {
+        this(Arrays.copyOf(checkBounds(bounds, weights.length), weights.length), Arrays.copyOfRange(bounds, 1, weights.length + 1), weights);
+    }
+
+    private static long[] checkBounds(long[] bounds, int n) {
+        if (bounds.length != n + 1) {
+            throw new IllegalArgumentException("Expected " + (n + 1) + " bounds but got " + bounds.length);
+        }
+        return bounds;
+    }
+
+    /**
+     * Create a duration from a histogram.
+     *
+     * @param lower the lower bounds of the bins (inclusive)
+     * @param upper the upper bounds of the bins (exclusive)
+     * @param weights the weights (e.g., counts) of the bins
+     */
+    public EmpiricalDuration(long[] lower, long[] upper, double[] weights) {
+        int n = weights.length;
+        if (lower.length != n || upper.length != n || n == 0) {
+            throw new IllegalArgumentException("Expected the same positive number of bounds and weights");
+        }
+        this.lower = lower.clone();
+        width = new long[n];
+        double total = 0;
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            if (lower[i] < 0 || upper[i] <= lower[i] || !(weights[i] >= 0)) {
+                throw new IllegalArgumentException("Invalid bin [" + lower[i] + ", " + upper[i] + ") with weight " + weights[i]);
+            }
+            width[i] = upper[i] - lower[i];
+            total += weights[i];
+            if (weights[i] > 0) {
+                min = Math.min(min, lower[i]);
+            }
+        }
+        if (!(total > 0 && total < Double.POSITIVE_INFINITY)) {
+            throw new IllegalArgumentException("Invalid total weight " + total);
+        }
+        this.min = min;
+        prob = new double[n];
+        alias = new int[n];
+        // Vose's alias method: pair each bin below the average with one above
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int s = 0;
+        int l = 0;
+        for (int i = 0; i < n; i++) {
+            scaled[i] = weights[i] * n / total;
+            if (scaled[i] < 1) {
+                small[s++] = i;
+            } else {
+                large[l++] = i;
+            }
+        }
+        while (s > 0 && l > 0) {
+            int a = small[--s];
+            int b = large[--l];
+            prob[a] = scaled[a];
+            alias[a] = b;
+            scaled[b] += scaled[a] - 1;
+            if (scaled[b] < 1) {
+                small[s++] = b;
+            } else {
+                large[l++] = b;
+            }
+        }
+        // The remaining bins have an average weight (up to rounding errors)
+        while (l > 0) {
+            int b = large[--l];
+            prob[b] = 1;
+            alias[b] = b;
+        }
+        while (s > 0) {
+            int a = small[--s];
+            prob[a] = 1;
+            alias[a] = a;
+        }
+    }
+
+    /**
+     * Load a histogram from a text file. Each line contains a bin as
+     * {@code lower upper weight}, or a single value as {@code value weight},
+     * separated by whitespace or commas. Empty lines and lines starting with
+     * {@code #} are skipped.
+     *
+     * @param file
+     * @return
+     * @throws IOException if the file cannot be read or is malformed
+     */
+    public static EmpiricalDuration load(Path file) throws IOException {
+        long[] lower = new long[16];
+        long[] upper = new long[16];
+        double[] weights = new double[16];
+        int n = 0;
+        int lineNumber = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("[\\s,]+");
+                if (fields.length != 2 && fields.length != 3) {
+                    throw new IOException("Expected 2 or 3 values in line " + lineNumber + " of " + file);
+                }
+                if (n == weights.length) {
+                    lower = Arrays.copyOf(lower, 2 * n);
+                    upper = Arrays.copyOf(upper, 2 * n);
+                    weights = Arrays.copyOf(weights, 2 * n);
+                }
+                try {
+                    lower[n] = Long.parseLong(fields[0]);
+                    upper[n] = fields.length == 3 ? Long.parseLong(fields[1]) : lower[n] + 1;
+                    weights[n] = Double.parseDouble(fields[fields.length - 1]);
+                } catch (NumberFormatException ex) {
+                    throw new IOException("Invalid number in line " + lineNumber + " of " + file, ex);
+                }
+                n++;
+            }
+        }
+        try {
+            return new EmpiricalDuration(Arrays.copyOf(lower, n), Arrays.copyOf(upper, n), Arrays.copyOf(weights, n));
+        } catch (IllegalArgumentException ex) {
+            throw new IOException("Invalid histogram in " + file + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    @Override
+    public long getDuration(Random random) {
+        double u = random.nextDouble() * prob.length;
+        int i = (int) u;
+        if (u - i >= prob[i]) {
+            i = alias[i];
+        }
+        return width[i] == 1 ? lower[i] : lower[i] + (long) (random.nextDouble() * width[i]);
+    }
+
+    @Override
+    public void getDurations(Random random, long[] durations, int from, int to) {
+        long[] lower = this.lower;
+        long[] width = this.width;
+        double[] prob = this.prob;
+        int[] alias = this.alias;
+        int n = prob.length;
+        for (int k = from; k < to; k++) {
+            double u = random.nextDouble() * n;
+            int i = (int) u;
+            if (u - i >= prob[i]) {
+                i = alias[i];
+            }
+            durations[k] = width[i] == 1 ? lower[i] : lower[i] + (long) (random.nextDouble() * width[i]);
+        }
+    }
+
+    @Override
+    public long getMinDuration() {
+        return min;
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2017 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.asyncsim;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Runs many independent simulations in parallel, e.g., for Monte Carlo
+ * experiments or parameter sweeps. Each simulation is created by a
+ * {@link Scenario} from a parameter point and a seed and runs on its own
+ * thread of a fork-join pool. Each run has its own log, so that the output of
+ * different runs is not interleaved. The results are passed to a
+ * {@link Collector} as the runs finish.
+ *
+ * @author Felix Wiemuth
+ * @param <P> type of parameter points
+ * @param <R> type of results
+ */
+public class Ensemble<P, R> {
+
+    /**
+     * Creates simulations.
+     *
+     * @param <P>
+     * @param <R>
+     */
+    public interface Scenario<P, R> {
+
+        /**
+         * Create a simulation. All tasks must be created with a simulator with
+         * the given seed and log. The simulation must not share mutable state
+         * with other simulations.
+         *
+         * @param point the parameters
+         * @param seed
+         * @param log
+         * @return
+         */
+        Instance<R> create(P point, long seed, Log log);
+    }
+
+    /**
+     * A simulation created by a {@link Scenario}.
+     *
+     * @param <R>
+     */
+    public interface Instance<R> {
+
+        Simulator getSimulator();
+
+        /**
+         * Whether the simulation is complete. Checked before and after each
+         * event.
+         *
+         * @return false by default, i.e., the simulation is run until no events
+         * are left or the budget is exhausted
+         */
+        default boolean isDone() {
+            return false;
+        }
+
+        /**
+         * Get the result after the run.
+         *
+         * @return
+         */
+        R getResult();
+    }
+
+    /**
+     * Receives the runs as they finish. Calls are not concurrent.
+     *
+     * @param <P>
+     * @param <R>
+     */
+    public interface Collector<P, R> {
+
+        void collect(Run<P, R> run);
+    }
+
+    /**
+     * A finished run.
+     *
+     * @param <P>
+     * @param <R>
+     */
+    public static final class Run<P, R> {
+
+        private final P point;
+        private final long seed;
+        private final R result;
+        private final RunResult runResult;
+        private final String output;
+        private final RuntimeException error;
+
+        Run(P point, long seed, R result, RunResult runResult, String output, RuntimeException error) {
+            this.point = point;
+            this.seed = seed;
+            this.result = result;
+            this.runResult = runResult;
+            this.output = output;
+            this.error = error;
+        }
+
+        public P getPoint() {
+            return point;
+        }
+
+        public long getSeed() {
+            return seed;
+        }
+
+        /**
+         * Get the result of the simulation.
+         *
+         * @return the result or null if the run failed
+         */
+        public R getResult() {
+            return result;
+        }
+
+        /**
+         * Get the number of events run and the final time.
+         *
+         * @return null if the run failed
+         */
+        public RunResult getRunResult() {
+            return runResult;
+        }
+
+        /**
+         * Get the log of the run.
+         *
+         * @return the log or null if output is disabled
+         */
+        public String getOutput() {
+            return output;
+        }
+
+        public boolean isFailed() {
+            return error != null;
+        }
+
+        /**
+         * Get the exception which made the run fail.
+         *
+         * @return the exception or null if the run did not fail
+         */
+        public RuntimeException getError() {
+            return error;
+        }
+    }
+
+    private final Scenario<P, R> scenario;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private long timeBudget = Long.MAX_VALUE;
+    private long eventBudget = Long.MAX_VALUE;
+    private boolean output = true;
+
+    public Ensemble(Scenario<P, R> scenario) {
+        this.scenario = scenario;
+    }
+
+    /**
+     * Set the number of threads.
+     *
+     * @param parallelism the number of available processors by default
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Let each run stop after the events with due time up to {@code until}.
+     *
+     * @param until
+     */
+    public void setTimeBudget(long until) {
+        this.timeBudget = until;
+    }
+
+    /**
+     * Let each run stop after {@code maxEvents} events.
+     *
+     * @param maxEvents
+     */
+    public void setEventBudget(long maxEvents) {
+        if (maxEvents < 0) {
+            throw new IllegalArgumentException("maxEvents must not be negative");
+        }
+        this.eventBudget = maxEvents;
+    }
+
+    /**
+     * Set whether the log of each run is kept (see {@link Run#getOutput()}).
+     * Otherwise, log entries are discarded.
+     *
+     * @param output true by default
+     */
+    public void setOutput(boolean output) {
+        this.output = output;
+    }
+
+    /**
+     * Run a simulation for each combination of a parameter point and a seed in
+     * parallel. Returns when all runs have finished.
+     *
+     * @param points
+     * @param seeds
+     * @param collector
+     */
+    public void run(Iterable<P> points, long[] seeds, final Collector<P, R> collector) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<ForkJoinTask<?>> runs = new ArrayList<>();
+            for (final P point : points) {
+                for (final long seed : seeds) {
+                    runs.add(pool.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            Run<P, R> result = Ensemble.this.run(point, seed);
+                            synchronized (collector) {
+                                collector.collect(result);
+                            }
+                        }
+                    }));
+                }
+            }
+            for (ForkJoinTask<?> run : runs) {
+                run.join();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Run a single simulation on the calling thread.
+     *
+     * @param point
+     * @param seed
+     * @return
+     */
+    public Run<P, R> run(P point, long seed) {
+        BufferLog log = output ? new BufferLog() : null;
+        try {
+            final Instance<R> instance = scenario.create(point, seed, output ? log : Log.NONE);
+            RunResult runResult = instance.getSimulator().run(timeBudget, eventBudget, new BooleanSupplier() {
+                @Override
+                public boolean getAsBoolean() {
+                    return instance.isDone();
+                }
+            }, -1);
+            return new Run<>(point, seed, instance.getResult(), runResult, output ? log.toString() : null, null);
+        } catch (RuntimeException ex) {
+            return new Run<>(point, seed, null, null, output ? log.toString() : null, ex);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2017 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.asyncsim;
+
+import java.io.Serializable;
+
+/**
+ * A handle to an event added by
+ * {@link Simulator#addCancellableEvent(long, Runnable)} or a timer set by
+ * {@link Task#scheduleCancellableAction(Task.Action, Duration)}, which can be
+ * used to cancel it before it is due.
+ * <p>
+ * Cancelling is cheap: the event is only marked and skipped when it reaches the
+ * head of the queue. When cancelled events make up most of the queue, they are
+ * removed all at once.
+ *
+ * @author Felix Wiemuth
+ */
+public final class EventHandle implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    Simulator simulator;
+    int event; // the id of the event in the store of the simulator, -1 if run or cancelled
+    boolean cancelled;
+    final Object target; // the Runnable or Action
+
+    EventHandle(Simulator simulator, Object target) {
+        this.simulator = simulator;
+        this.target = target;
+        this.event = -1;
+    }
+
+    /**
+     * Cancel the event if it has not been run yet.
+     *
+     * @return whether the event was pending and has been cancelled
+     */
+    public boolean cancel() {
+        if (!isPending()) {
+            return false;
+        }
+        simulator.cancel(this);
+        return true;
+    }
+
+    /**
+     * @return whether the event has neither been run nor cancelled
+     */
+    public boolean isPending() {
+        return event >= 0 && !cancelled;
+    }
+
+    /**
+     * @return whether the event has been cancelled
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2017 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.asyncsim;
+
+import java.io.Serializable;
+import java.util.function.IntPredicate;
+
+/**
+ * The queue of pending events of a {@link Simulator}. Events are identified by
+ * non-negative int ids, where an id is in the queue at most once at a time.
+ * Events are retrieved ordered by due time, events with equal time ordered by
+ * their sequence number.
+ *
+ * @author Felix Wiemuth
+ */
+public interface EventQueue extends Serializable {
+
+    /**
+     * Add an event.
+     *
+     * @param event id of the event
+     * @param time due time
+     * @param seq sequence number (unique among the events in the queue)
+     */
+    void add(int event, long time, long seq);
+
+    /**
+     * Retrieves and removes the next event.
+     *
+     * @return the id of the next event or -1 if the queue is empty
+     */
+    int poll();
+
+    /**
+     * Retrieves, but does not remove, the next event.
+     *
+     * @return the id of the next event or -1 if the queue is empty
+     */
+    int peek();
+
+    /**
+     * Retrieves and removes the events with due time {@code time}, which must
+     * be the due time of the next event, in order. Stops when the buffer is
+     * full.
+     *
+     * @param time
+     * @param buffer where the events are stored
+     * @param offset the position in {@code buffer} to store the first event
+     * at
+     * @return the position after the last event stored
+     */
+    int pollAt(long time, int[] buffer, int offset);
+
+    /**
+     * Remove all events for which {@code filter} returns true. The filter is
+     * called once for each event.
+     *
+     * @param filter
+     * @return the number of events removed
+     */
+    int removeIf(IntPredicate filter);
+
+    int size();
+
+    boolean isEmpty();
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2017 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.asyncsim;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Stores the pending events of a {@link Simulator} in parallel primitive
+ * arrays, so that scheduling an event does not allocate an object. An event is
+ * identified by the index of its slot. Each event has a due time, a sequence
+ * number, a kind and two int operands. Objects belonging to an event (a
+ * {@link Message}, an {@link Task.Action} or a {@link Runnable}) are kept in a
+ * side table. Slots are recycled after their event has been run.
+ *
+ * @author Felix Wiemuth
+ */
+final class EventStore implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Run the {@link Runnable} in the side table.
+     */
+    static final int RUN = 0;
+    /**
+     * Deliver the {@link Message} in the side table to the task with index
+     * {@code a}.
+     */
+    static final int DELIVER = 1;
+    /**
+     * Complete the running action of the task with index {@code a}, where
+     * {@code b} is the number of the action run.
+     */
+    static final int ACTION_DONE = 2;
+    /**
+     * Add the {@link Task.Action} in the side table to the waiting actions of
+     * the task with index {@code a}.
+     */
+    static final int WAKE_UP = 3;
+    /**
+     * Deliver the messages of the {@link Multicast} in the side table to their
+     * tasks.
+     */
+    static final int MULTICAST = 4;
+    /**
+     * Deliver the first message of the {@link LinkQueue} in the side table to
+     * the task with index {@code a}.
+     */
+    static final int LINK = 5;
+    /**
+     * The event has been cancelled and is ignored.
+     */
+    static final int CANCELLED = -1;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long[] times = new long[INITIAL_CAPACITY];
+    private long[] seqs = new long[INITIAL_CAPACITY];
+    private int[] kinds = new int[INITIAL_CAPACITY];
+    private int[] as = new int[INITIAL_CAPACITY];
+    private int[] bs = new int[INITIAL_CAPACITY];
+    private Object[] refs = new Object[INITIAL_CAPACITY];
+    private int[] free = new int[INITIAL_CAPACITY]; // stack of released slots
+    private int freeCount = 0;
+    private int used = 0; // slots [0, used) have been handed out at least once
+
+    /**
+     * Allocate a slot for a new event.
+     *
+     * @param time
+     * @param seq
+     * @param kind
+     * @param a
+     * @param b
+     * @param ref
+     * @return the slot of the event
+     */
+    int allocate(long time, long seq, int kind, int a, int b, Object ref) {
+        int event;
+        if (freeCount > 0) {
+            event = free[--freeCount];
+        } else {
+            if (used == times.length) {
+                grow();
+            }
+            event = used++;
+        }
+        times[event] = time;
+        seqs[event] = seq;
+        kinds[event] = kind;
+        as[event] = a;
+        bs[event] = b;
+        refs[event] = ref;
+        return event;
+    }
+
+    /**
+     * Release the slot of an event so that it can be reused.
+     *
+     * @param event
+     */
+    void release(int event) {
+        refs[event] = null;
+        free[freeCount++] = event;
+    }
+
+    /**
+     * Mark an event as cancelled. Its slot is released when it is removed
+     * from the queue.
+     *
+     * @param event
+     */
+    void cancel(int event) {
+        kinds[event] = CANCELLED;
+        refs[event] = null;
+    }
+
+    private void grow() {
+        int capacity = 2 * times.length;
+        times = Arrays.copyOf(times, capacity);
+        seqs = Arrays.copyOf(seqs, capacity);
+        kinds = Arrays.copyOf(kinds, capacity);
+        as = Arrays.copyOf(as, capacity);
+        bs = Arrays.copyOf(bs, capacity);
+        refs = Arrays.copyOf(refs, capacity);
+        free = Arrays.copyOf(free, capacity);
+    }
+
+    long getTime(int event) {
+        return times[event];
+    }
+
+    long getSeq(int event) {
+        return seqs[event];
+    }
+
+    int getKind(int event) {
+        return kinds[event];
+    }
+
+    int getA(int event) {
+        return as[event];
+    }
+
+    int getB(int event) {
+        return bs[event];
+    }
+
+    Object getRef(int event) {
+        return refs[event];
+    }
+}
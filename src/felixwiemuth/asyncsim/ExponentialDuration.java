@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2017 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.asyncsim;
+
+import java.util.Random;
+
+/**
+ * An exponentially distributed duration, optionally shifted by a minimum
+ * (e.g., the propagation delay of a link, which then serves as lookahead for
+ * a {@link ParallelSimulator}), and truncated to a maximum so that due times
+ * cannot overflow.
+ *
+ * @author Felix Wiemuth
+ */
+public class ExponentialDuration extends DistributedDuration {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long min;
+    private final double mean;
+    private final long max;
+
+    /**
+     * @param mean the mean of the distribution
+     */
+    public ExponentialDuration(double mean) {
+        this(0, mean);
+    }
+
+    /**
+     * Create a duration truncated to {@code Long.MAX_VALUE / 2}.
+     *
+     * @param min the minimum, added to every duration
+     * @param mean the mean of the distribution before adding the minimum
+     */
+    public ExponentialDuration(long min, double mean) {
+        this(min, mean, Long.MAX_VALUE / 2);
+    }
+
+    /**
+     * @param min the minimum, added to every duration
+     * @param mean the mean of the distribution before adding the minimum
+     * @param max the maximum duration
+     */
+    public ExponentialDuration(long min, double mean, long max) {
+        if (min < 0 || !(mean >= 0) || max < min) {
+            throw new IllegalArgumentException("Invalid parameters: min " + min + ", mean " + mean + ", max " + max);
+        }
+        this.min = min;
+        this.mean = mean;
+        this.max = max;
+    }
+
+    @Override
+    public long getDuration(Random random) {
+        double duration = -mean * Math.log(1 - random.nextDouble());
+        return duration < max - min ? min + (long) duration : max;
+    }
+
+    @Override
+    public long getMinDuration() {
+        return min;
+    }
+}
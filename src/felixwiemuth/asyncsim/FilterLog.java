@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2017 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.asyncsim;
+
+import java.util.EnumSet;
+
+/**
+ * Passes the entries with at least a given level and of enabled categories to
+ * another log. Disabled entries are not formatted.
+ *
+ * @author Felix Wiemuth
+ */
+public class FilterLog implements Log {
+
+    private final Log log;
+    private volatile Level level;
+    private volatile EnumSet<Category> disabled = EnumSet.noneOf(Category.class); // replaced on change, so that it can be read without locking
+
+    /**
+     * @param log the log to pass the entries to
+     * @param level the minimum level of entries to write
+     */
+    public FilterLog(Log log, Level level) {
+        this.log = log;
+        this.level = level;
+    }
+
+    public void setLevel(Level level) {
+        this.level = level;
+    }
+
+    /**
+     * Enable or disable a category. All categories are enabled initially.
+     *
+     * @param category
+     * @param enabled
+     * @return this log
+     */
+    public synchronized FilterLog setEnabled(Category category, boolean enabled) {
+        EnumSet<Category> disabled = EnumSet.copyOf(this.disabled);
+        if (enabled) {
+            disabled.remove(category);
+        } else {
+            disabled.add(category);
+        }
+        this.disabled = disabled;
+        return this;
+    }
+
+    @Override
+    public void log(long time, String msg) {
+        log.log(time, msg);
+    }
+
+    @Override
+    public void log(long time, Level level, Category category, String msg) {
+        if (isEnabled(level, category)) {
+            log.log(time, level, category, msg);
+        }
+    }
+
+    @Override
+    public void logTask(long time, Level level, int task, String msg) {
+        if (isEnabled(level, Category.TASK)) {
+            log.logTask(time, level, task, msg);
+        }
+    }
+
+    @Override
+    public void logMsg(long time, Level level, Category category, Message msg) {
+        if (isEnabled(level, category)) {
+            log.logMsg(time, level, category, msg);
+        }
+    }
+
+    @Override
+    public boolean isEnabled(Level level, Category category) {
+        return level.compareTo(this.level) >= 0 && !disabled.contains(category) && log.isEnabled(level, category);
+    }
+}
@@ -17,11 +17,16 @@
 
 package felixwiemuth.asyncsim;
 
+import java.util.Arrays;
+import java.util.Random;
+
 /**
  * @author Felix Wiemuth
  */
 public class FixedDuration implements Duration {
 
+    private static final long serialVersionUID = 1L;
+
     private final long duration;
 
     public FixedDuration(long duration) {
@@ -32,4 +37,14 @@ public class FixedDuration implements Duration {
     public long getDuration() {
         return duration;
     }
+
+    @Override
+    public void getDurations(Random random, long[] durations, int from, int to) {
+        Arrays.fill(durations, from, to, duration);
+    }
+
+    @Override
+    public long getMinDuration() {
+        return duration;
+    }
 }
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2017 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.asyncsim;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * An {@link EventQueue} implemented as a binary heap over primitive arrays.
+ * Insertion and removal take O(log n) time. This is the default queue of a
+ * {@link Simulator}.
+ *
+ * @author Felix Wiemuth
+ */
+public class HeapEventQueue implements EventQueue {
+
+    private static final long serialVersionUID = 1L;
+
+    private long[] times = new long[64];
+    private long[] seqs = new long[64];
+    private int[] events = new int[64];
+    private int size = 0;
+
+    @Override
+    public void add(int event, long time, long seq) {
+        if (size == events.length) {
+            times = Arrays.copyOf(times, 2 * size);
+            seqs = Arrays.copyOf(seqs, 2 * size);
+            events = Arrays.copyOf(events, 2 * size);
+        }
+        // Move parents down until the position of the new event is found
+        int pos = size++;
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            if (times[parent] < time || (times[parent] == time && seqs[parent] < seq)) {
+                break;
+            }
+            set(pos, parent);
+            pos = parent;
+        }
+        times[pos] = time;
+        seqs[pos] = seq;
+        events[pos] = event;
+    }
+
+    @Override
+    public int poll() {
+        if (size == 0) {
+            return -1;
+        }
+        int result = events[0];
+        size--;
+        siftDown(0, times[size], seqs[size], events[size]);
+        return result;
+    }
+
+    /**
+     * Place an event at {@code pos} or below, moving smaller children up until
+     * its position is found.
+     */
+    private void siftDown(int pos, long time, long seq, int event) {
+        int child;
+        while ((child = 2 * pos + 1) < size) {
+            if (child + 1 < size && (times[child + 1] < times[child] || (times[child + 1] == times[child] && seqs[child + 1] < seqs[child]))) {
+                child++;
+            }
+            if (time < times[child] || (time == times[child] && seq < seqs[child])) {
+                break;
+            }
+            set(pos, child);
+            pos = child;
+        }
+        times[pos] = time;
+        seqs[pos] = seq;
+        events[pos] = event;
+    }
+
+    @Override
+    public int removeIf(IntPredicate filter) {
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            if (!filter.test(events[i])) {
+                set(n++, i);
+            }
+        }
+        int removed = size - n;
+        size = n;
+        if (removed > 0) {
+            for (int pos = (size >>> 1) - 1; pos >= 0; pos--) {
+                siftDown(pos, times[pos], seqs[pos], events[pos]);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Polls the events one by one: removing k of the n events of a heap in
+     * order takes O(k log n) time anyway, and taking out the subtree of the
+     * events with the due time at once was not faster in measurements.
+     */
+    @Override
+    public int pollAt(long time, int[] buffer, int offset) {
+        while (offset < buffer.length && size > 0 && times[0] == time) {
+            buffer[offset++] = poll();
+        }
+        return offset;
+    }
+
+    private void set(int pos, int from) {
+        times[pos] = times[from];
+        seqs[pos] = seqs[from];
+        events[pos] = events[from];
+    }
+
+    @Override
+    public int peek() {
+        return size == 0 ? -1 : events[0];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+}
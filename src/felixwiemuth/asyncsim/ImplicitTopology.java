@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2017 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.asyncsim;
+
+import java.io.Serializable;
+
+/**
+ * Links of a network which are computed when needed instead of being stored
+ * (see {@link Network#setTopology(ImplicitTopology)} and the implementations
+ * in {@link Topology}). As links may be created on every lookup, they should
+ * use {@link Link.Delivery#SEPARATE} and must not rely on their state being
+ * kept.
+ *
+ * @author Felix Wiemuth
+ */
+public interface ImplicitTopology extends Serializable {
+
+    /**
+     * Get the ids of the tasks to which a task has a link, in ascending order.
+     *
+     * @param src
+     * @return
+     */
+    IntList getNeighbors(int src);
+
+    /**
+     * Get the link from one task to another.
+     *
+     * @param src
+     * @param dest
+     * @return the link or null if there is none
+     */
+    Link getLink(int src, int dest);
+
+    /**
+     * Get a lower bound of the delay of all links (used as lookahead of
+     * parallel runs).
+     *
+     * @return
+     */
+    long getMinDelay();
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2017 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.asyncsim;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A read-only list of ints, e.g., the neighbors of a task (see
+ * {@link Network#getNeighborList(int)}), which is a view of an array or
+ * computes its values, so that they are not boxed or copied.
+ *
+ * @author Felix Wiemuth
+ */
+public abstract class IntList {
+
+    private static final IntList EMPTY = new Slice(new int[0], 0, 0);
+
+    /**
+     * Create a view of an array (which is not copied).
+     *
+     * @param values
+     * @return
+     */
+    public static IntList wrap(int... values) {
+        return new Slice(values, 0, values.length);
+    }
+
+    static IntList slice(int[] values, int from, int to) {
+        return new Slice(values, from, to);
+    }
+
+    public static IntList empty() {
+        return EMPTY;
+    }
+
+    public abstract int size();
+
+    /**
+     * Get the value at a position.
+     *
+     * @param i
+     * @return
+     * @throws IndexOutOfBoundsException if {@code i} is not in
+     * {@code [0, size())}
+     */
+    public abstract int get(int i);
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Get the position of the first occurrence of a value.
+     *
+     * @param value
+     * @return the position or -1 if the list does not contain the value
+     */
+    public int indexOf(int value) {
+        for (int i = 0; i < size(); i++) {
+            if (get(i) == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public boolean contains(int value) {
+        return indexOf(value) >= 0;
+    }
+
+    /**
+     * Pick a value uniformly at random.
+     *
+     * @param random
+     * @return
+     * @throws IllegalStateException if the list is empty
+     */
+    public int sample(Random random) {
+        if (isEmpty()) {
+            throw new IllegalStateException("Cannot sample from an empty list");
+        }
+        return get(random.nextInt(size()));
+    }
+
+    /**
+     * Pick {@code k} values at distinct positions uniformly at random, in
+     * random order (like the first {@code k} values of a shuffled copy). The
+     * result only depends on the state of {@code random}.
+     *
+     * @param k
+     * @param random
+     * @return
+     * @throws IllegalArgumentException if {@code k} is negative or larger than
+     * the size of the list
+     */
+    public int[] sample(int k, Random random) {
+        int n = size();
+        if (k < 0 || k > n) {
+            throw new IllegalArgumentException("Cannot sample " + k + " of " + n + " values");
+        }
+        int[] result = new int[k];
+        if (k <= 16 && 4 * k <= n) {
+            // Few values: draw positions until they are distinct
+            int[] positions = new int[k];
+            for (int i = 0; i < k; i++) {
+                int p;
+                do {
+                    p = random.nextInt(n);
+                } while (contains(positions, i, p));
+                positions[i] = p;
+                result[i] = get(p);
+            }
+        } else {
+            // Partial Fisher-Yates shuffle of the positions
+            int[] positions = new int[n];
+            for (int i = 0; i < n; i++) {
+                positions[i] = i;
+            }
+            for (int i = 0; i < k; i++) {
+                int j = i + random.nextInt(n - i);
+                int p = positions[j];
+                positions[j] = positions[i];
+                positions[i] = p;
+                result[i] = get(p);
+            }
+        }
+        return result;
+    }
+
+    private static boolean contains(int[] a, int length, int value) {
+        for (int i = 0; i < length; i++) {
+            if (a[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int[] toArray() {
+        int[] a = new int[size()];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = get(i);
+        }
+        return a;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+
+    /**
+     * A range of an array.
+     */
+    private static final class Slice extends IntList {
+
+        private final int[] values;
+        private final int from;
+        private final int to;
+
+        Slice(int[] values, int from, int to) {
+            this.values = values;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+
+        @Override
+        public int get(int i) {
+            if (i < 0 || i >= to - from) {
+                throw new IndexOutOfBoundsException("Index " + i + " out of bounds for size " + (to - from));
+            }
+            return values[from + i];
+        }
+
+        @Override
+        public int[] toArray() {
+            return Arrays.copyOfRange(values, from, to);
+        }
+    }
+}
@@ -17,6 +17,9 @@
 
 package felixwiemuth.asyncsim;
 
+import java.io.Serializable;
+import java.util.Random;
+
 /**
  * Represents a link in the network. Can simulate failure of delivering
  * messages, either per-message ({@link MsgFailure}) or by being set into
@@ -24,7 +27,9 @@ package felixwiemuth.asyncsim;
  *
  * @author Felix Wiemuth
  */
-public class Link {
+public class Link implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     public static enum State {
         /**
@@ -37,7 +42,61 @@ public class Link {
         DEAD
     }
 
-    public interface MsgFailure {
+    /**
+     * Determines how the messages in flight on a link are scheduled.
+     */
+    public static enum Delivery {
+        /**
+         * Each message is delivered by its own event.
+         */
+        SEPARATE,
+        /**
+         * The messages in flight are kept in a queue of the link, ordered by
+         * arrival time, and only the next one has an event in the queue of
+         * the simulator. Keeps the queue of the simulator small for links
+         * with many messages in flight and yields the same results as
+         * {@link #SEPARATE}, except that the messages of a multicast are
+         * delivered one by one. A {@link ParallelSimulator} delivers the
+         * messages by separate events.
+         */
+        QUEUED,
+        /**
+         * As {@link #QUEUED}, where a message does not arrive before a
+         * message sent over the link earlier from the same source to the
+         * same destination (also if the link is shared by several pairs of
+         * tasks or both directions). Messages of the link arriving at the
+         * same time are delivered in the order they were sent, for any
+         * {@link Simulator.TieBreak}. Not supported by a
+         * {@link ParallelSimulator}.
+         */
+        FIFO
+    }
+
+    /**
+     * The reason a message was dropped.
+     */
+    static enum DropReason {
+        LINK_DEAD("link dead"),
+        DELIVERY_FAILURE("delivery failure");
+
+        private final String description;
+
+        private DropReason(String description) {
+            this.description = description;
+        }
+
+        /**
+         * Create the log entry of a message dropped for this reason.
+         *
+         * @param msg
+         * @return
+         */
+        String logEntry(Message msg) {
+            return "Message from " + msg.getSrc() + " to " + msg.getDest() + " dropped (" + description + ").";
+        }
+    }
+
+    public interface MsgFailure extends Serializable {
 
         /**
          * Determines whether a message should be dropped. Can for example
@@ -53,6 +112,8 @@ public class Link {
     private final Duration duration;
     private State state = State.ALIVE;
     private MsgFailure failure;
+    private Delivery delivery = Delivery.SEPARATE;
+    private LinkQueue queue; // messages in flight if queued, created when first used
 
     public Link(Duration duration) {
         this.duration = duration;
@@ -85,6 +146,23 @@ public class Link {
         this.state = state;
     }
 
+    public void setDelivery(Delivery delivery) {
+        this.delivery = delivery;
+    }
+
+    public Delivery getDelivery() {
+        return delivery;
+    }
+
+    /**
+     * Get a lower bound of the time a message takes over this link.
+     *
+     * @return
+     */
+    public long getMinDelay() {
+        return duration.getMinDuration();
+    }
+
     /**
      * Send a message over this link. Puts the message into the receiver's
      * message queue or drops it if the link is in dead {@link State} or a
@@ -95,24 +173,91 @@ public class Link {
      * @return A log entry if the message was dropped or null otherwise.
      */
     public String sendMsg(Simulator simulator, Message msg, Task dest) {
-        String logEntry = null;
+        DropReason reason = sendMsg(simulator, msg, dest, simulator.getRandom());
+        return reason == null ? null : reason.logEntry(msg);
+    }
+
+    /**
+     * Send a message over this link, drawing its delay from the given random
+     * stream.
+     *
+     * @param simulator
+     * @param msg
+     * @param dest
+     * @param random
+     * @return the reason if the message was dropped or null otherwise
+     */
+    DropReason sendMsg(Simulator simulator, Message msg, Task dest, Random random) {
+        DropReason reason = checkDrop(msg);
+        if (reason == null) {
+            if (delivery == Delivery.SEPARATE) {
+                simulator.addDelivery(nextDelay(random), msg, dest);
+            } else {
+                simulator.addLinkDelivery(nextDelay(random), msg, dest, this);
+            }
+        }
+        return reason;
+    }
+
+    /**
+     * Determine whether a message sent over this link is dropped.
+     *
+     * @param msg
+     * @return the reason if the message is dropped or null otherwise
+     */
+    DropReason checkDrop(Message msg) {
         if (state == State.DEAD) {
-            logEntry = "link dead";
+            return DropReason.LINK_DEAD;
         } else if (failure != null && failure.isFailure(msg)) {
-            logEntry = "delivery failure";
-        } else {
-            simulator.addEvent(duration.getDuration(), new Runnable() {
-                @Override
-                public void run() {
-                    dest.addMsg(msg);
-                    simulator.logMsgReceived(msg);
-                }
-            });
-            return null;
+            return DropReason.DELIVERY_FAILURE;
+        }
+        return null;
+    }
+
+    /**
+     * Pick the time the next message takes over this link.
+     *
+     * @param random the stream to draw random delays from
+     * @return
+     */
+    long nextDelay(Random random) {
+        return duration.getDuration(random);
+    }
+
+    /**
+     * Draw the delays of several messages sent over this link (see
+     * {@link Duration#getDurations(Random, long[], int, int)}).
+     *
+     * @param random
+     * @param delays
+     * @param from
+     * @param to
+     */
+    void nextDelays(Random random, long[] delays, int from, int to) {
+        duration.getDurations(random, delays, from, to);
+    }
+
+    LinkQueue getQueue() {
+        if (queue == null) {
+            queue = new LinkQueue();
         }
-        if (logEntry != null) {
-            logEntry = "Message from " + msg.getSrc() + " to " + msg.getDest() + " dropped (" + logEntry + ").";
+        return queue;
+    }
+
+    /**
+     * Get the arrival time of a message sent now, which is delayed if
+     * necessary to keep the order of the messages sent before from the same
+     * source to the same destination.
+     *
+     * @param msg
+     * @param now the current time
+     * @param time the arrival time after the delay of the link
+     * @return the arrival time
+     */
+    long arrival(Message msg, long now, long time) {
+        if (delivery == Delivery.FIFO) {
+            return getQueue().fifoArrival(msg.getSrc(), msg.getDest(), now, time);
         }
-        return logEntry;
+        return time;
     }
 }
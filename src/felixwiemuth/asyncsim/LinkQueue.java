@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2017 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.asyncsim;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * The messages in flight on a queued {@link Link}, ordered by arrival time and
+ * sequence number (for a FIFO link, by arrival time and the order in which
+ * they were sent, so that the order of each pair of tasks does not depend on
+ * the tie-breaking of the simulator). Only the first message has an event in the queue of the
+ * simulator, which is added again for the next message after each delivery.
+ *
+ * @author Felix Wiemuth
+ */
+final class LinkQueue implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // Messages by slot, ordered by a heap of slots
+    private final HeapEventQueue heap = new HeapEventQueue();
+    private long[] times = new long[16];
+    private long[] seqs = new long[16];
+    private Message[] msgs = new Message[16];
+    private int[] dests = new int[16]; // task indices
+    private long[] batches = new long[16]; // number of batches of the simulator when added
+    private int[] free = new int[16]; // stack of released slots
+    private int freeCount = 0;
+    private int used = 0;
+    private int first = -1; // slot of the first message
+    private long sent = 0; // number of messages added to a FIFO link
+    int event = -1; // the pending event of the simulator (-1 if none)
+
+    // Arrival time of the message sent last from a source to a destination if FIFO (open addressing)
+    private long[] pairKeys;
+    private long[] pairArrivals;
+    private boolean[] pairUsed;
+    private int pairCount = 0;
+
+    /**
+     * Add a message.
+     *
+     * @param time arrival time
+     * @param seq sequence number of the delivery
+     * @param msg
+     * @param dest index of the receiving task
+     * @param batch the number of batches retrieved by the simulator so far
+     * @param fifo whether messages with the same arrival time are delivered
+     * in the order they were added instead of by sequence number
+     * @return whether the message is the first one now
+     */
+    boolean add(long time, long seq, Message msg, int dest, long batch, boolean fifo) {
+        int slot;
+        if (freeCount > 0) {
+            slot = free[--freeCount];
+        } else {
+            if (used == times.length) {
+                int capacity = 2 * used;
+                times = Arrays.copyOf(times, capacity);
+                seqs = Arrays.copyOf(seqs, capacity);
+                msgs = Arrays.copyOf(msgs, capacity);
+                dests = Arrays.copyOf(dests, capacity);
+                batches = Arrays.copyOf(batches, capacity);
+                free = Arrays.copyOf(free, capacity);
+            }
+            slot = used++;
+        }
+        times[slot] = time;
+        seqs[slot] = seq;
+        msgs[slot] = msg;
+        dests[slot] = dest;
+        batches[slot] = batch;
+        heap.add(slot, time, fifo ? sent++ : seq);
+        if (heap.peek() == first) {
+            return false;
+        }
+        first = slot;
+        return true;
+    }
+
+    /**
+     * Remove the first message.
+     *
+     * @return the message
+     */
+    Message poll() {
+        int slot = heap.poll();
+        Message msg = msgs[slot];
+        msgs[slot] = null;
+        free[freeCount++] = slot;
+        first = heap.peek();
+        return msg;
+    }
+
+    long peekTime() {
+        return times[first];
+    }
+
+    long peekSeq() {
+        return seqs[first];
+    }
+
+    /**
+     * @return the index of the task receiving the first message
+     */
+    int peekDest() {
+        return dests[first];
+    }
+
+    /**
+     * @return the number of batches retrieved by the simulator when the first
+     * message was added
+     */
+    long peekBatch() {
+        return batches[first];
+    }
+
+    boolean isEmpty() {
+        return first < 0;
+    }
+
+    /**
+     * Get the arrival time of a message for a FIFO link, which does not
+     * arrive before the message sent last from the same source to the same
+     * destination.
+     *
+     * @param src
+     * @param dest
+     * @param now the current time
+     * @param time the arrival time after the delay of the link
+     * @return the arrival time
+     */
+    long fifoArrival(int src, int dest, long now, long time) {
+        if (pairKeys == null || 2 * (pairCount + 1) > pairKeys.length) {
+            rehash(now);
+        }
+        long key = (long) src << 32 | (dest & 0xffffffffL);
+        int mask = pairKeys.length - 1;
+        int i = (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+        while (pairUsed[i] && pairKeys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        if (!pairUsed[i]) {
+            pairUsed[i] = true;
+            pairKeys[i] = key;
+            pairArrivals[i] = time;
+            pairCount++;
+            return time;
+        }
+        pairArrivals[i] = Math.max(time, pairArrivals[i]);
+        return pairArrivals[i];
+    }
+
+    /**
+     * Rebuild the table of arrival times, dropping the pairs whose last
+     * message arrives before {@code now}, as they cannot delay messages sent
+     * from now on.
+     *
+     * @param now
+     */
+    private void rehash(long now) {
+        long[] keys = pairKeys;
+        long[] arrivals = pairArrivals;
+        boolean[] used = pairUsed;
+        int live = 0;
+        if (keys != null) {
+            for (int i = 0; i < keys.length; i++) {
+                if (used[i] && arrivals[i] > now) {
+                    live++;
+                }
+            }
+        }
+        int capacity = 16;
+        while (capacity < 4 * (live + 1)) {
+            capacity *= 2;
+        }
+        pairKeys = new long[capacity];
+        pairArrivals = new long[capacity];
+        pairUsed = new boolean[capacity];
+        pairCount = 0;
+        if (keys != null) {
+            int mask = capacity - 1;
+            for (int i = 0; i < keys.length; i++) {
+                if (used[i] && arrivals[i] > now) {
+                    int j = (int) ((keys[i] * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+                    while (pairUsed[j]) {
+                        j = (j + 1) & mask;
+                    }
+                    pairUsed[j] = true;
+                    pairKeys[j] = keys[i];
+                    pairArrivals[j] = arrivals[i];
+                    pairCount++;
+                }
+            }
+        }
+    }
+}
@@ -18,9 +18,111 @@
 package felixwiemuth.asyncsim;
 
 /**
+ * Receives the log entries of a simulation. Every entry has a {@link Level}
+ * and a {@link Category}; a log can disable entries by
+ * {@link #isEnabled(Level, Category)}, in which case they are neither
+ * formatted nor passed to it (see {@link FilterLog}). Entries are written by
+ * one thread at a time, also when run by a {@link ParallelSimulator}, where
+ * only {@link #isEnabled(Level, Category)} may be called concurrently.
+ *
  * @author Felix Wiemuth
  */
 public interface Log {
 
+    public static enum Level {
+        DEBUG,
+        INFO,
+        WARN
+    }
+
+    public static enum Category {
+        /**
+         * Entries written by the simulator itself.
+         */
+        SIMULATOR,
+        /**
+         * Entries written by tasks.
+         */
+        TASK,
+        /**
+         * Messages dropped by links.
+         */
+        LINK,
+        /**
+         * Messages sent (see {@link Simulator#setLogMsgSent(boolean)}).
+         */
+        MSG_SENT,
+        /**
+         * Messages received (see
+         * {@link Simulator#setLogMsgReceived(boolean)}).
+         */
+        MSG_RECEIVED
+    }
+
+    /**
+     * A log which discards all entries, so that they are not even formatted.
+     */
+    public static final Log NONE = new Log() {
+        @Override
+        public void log(long time, String msg) {
+        }
+
+        @Override
+        public boolean isEnabled(Level level, Category category) {
+            return false;
+        }
+    };
+
     void log(long time, String msg);
+
+    /**
+     * Write an entry with the given level and category. Only called for
+     * entries which are enabled.
+     *
+     * @param time
+     * @param level
+     * @param category
+     * @param msg
+     */
+    default void log(long time, Level level, Category category, String msg) {
+        log(time, msg);
+    }
+
+    /**
+     * Write an entry of a task. Only called for entries which are enabled.
+     *
+     * @param time
+     * @param level
+     * @param task the id of the task
+     * @param msg the entry without the id of the task
+     */
+    default void logTask(long time, Level level, int task, String msg) {
+        log(time, level, Category.TASK, (task >= 0 && task < 10 ? " " : "") + task + ": " + msg); // as "%2d: %s" without parsing the format
+    }
+
+    /**
+     * Write an entry about a message sent or received
+     * ({@link Category#MSG_SENT} or {@link Category#MSG_RECEIVED}). Only
+     * called for entries which are enabled.
+     *
+     * @param time
+     * @param level
+     * @param category
+     * @param msg
+     */
+    default void logMsg(long time, Level level, Category category, Message msg) {
+        log(time, level, category, (category == Category.MSG_SENT ? "MSG SNT " : "MSG RCV ") + msg.format());
+    }
+
+    /**
+     * Determine whether entries with the given level and category are
+     * written. Checked before an entry is formatted.
+     *
+     * @param level
+     * @param category
+     * @return
+     */
+    default boolean isEnabled(Level level, Category category) {
+        return true;
+    }
 }
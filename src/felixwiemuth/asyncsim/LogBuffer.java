@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2017 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.asyncsim;
+
+import java.util.Arrays;
+
+/**
+ * Log entries kept back by a logical process of a {@link ParallelSimulator},
+ * to be written later (see
+ * {@link Simulator#write(long, Log.Level, Log.Category, int, Object)}).
+ *
+ * @author Felix Wiemuth
+ */
+final class LogBuffer {
+
+    private static final Log.Level[] LEVELS = Log.Level.values();
+    private static final Log.Category[] CATEGORIES = Log.Category.values();
+
+    private long[] times = new long[64];
+    private Object[] entries = new Object[64]; // messages or texts
+    private int[] tasks = new int[64]; // ids of the tasks of the entries or NO_TASK
+    private byte[] kinds = new byte[64]; // level and category of the entries
+    private int size = 0;
+
+    void add(long time, Log.Level level, Log.Category category, int task, Object entry) {
+        if (size == times.length) {
+            times = Arrays.copyOf(times, 2 * size);
+            entries = Arrays.copyOf(entries, 2 * size);
+            tasks = Arrays.copyOf(tasks, 2 * size);
+            kinds = Arrays.copyOf(kinds, 2 * size);
+        }
+        times[size] = time;
+        entries[size] = entry;
+        tasks[size] = task;
+        kinds[size] = (byte) (level.ordinal() * CATEGORIES.length + category.ordinal());
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long getTime(int i) {
+        return times[i];
+    }
+
+    /**
+     * Write an entry to the log of a simulator.
+     *
+     * @param i
+     * @param simulator
+     */
+    void write(int i, Simulator simulator) {
+        simulator.write(times[i], LEVELS[kinds[i] / CATEGORIES.length], CATEGORIES[kinds[i] % CATEGORIES.length], tasks[i], entries[i]);
+    }
+
+    /**
+     * Remove the entries from {@code n} on.
+     *
+     * @param n
+     */
+    void truncate(int n) {
+        Arrays.fill(entries, n, size, null);
+        size = n;
+    }
+
+    /**
+     * Remove the first {@code n} entries.
+     *
+     * @param n
+     */
+    void removeFirst(int n) {
+        System.arraycopy(times, n, times, 0, size - n);
+        System.arraycopy(entries, n, entries, 0, size - n);
+        System.arraycopy(tasks, n, tasks, 0, size - n);
+        System.arraycopy(kinds, n, kinds, 0, size - n);
+        Arrays.fill(entries, size - n, size, null);
+        size -= n;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2017 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.asyncsim;
+
+import java.util.Random;
+
+/**
+ * A log-normally distributed duration, optionally shifted by a minimum and
+ * truncated to a maximum so that due times cannot overflow. The logarithm of
+ * the duration (before adding the minimum) is normally distributed with the
+ * given parameters, so {@code exp(mu)} is the median.
+ *
+ * @author Felix Wiemuth
+ */
+public class LogNormalDuration extends DistributedDuration {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long min;
+    private final double mu;
+    private final double sigma;
+    private final long max;
+
+    /**
+     * @param mu the mean of the logarithm
+     * @param sigma the standard deviation of the logarithm
+     */
+    public LogNormalDuration(double mu, double sigma) {
+        this(0, mu, sigma);
+    }
+
+    /**
+     * Create a duration truncated to {@code Long.MAX_VALUE / 2}.
+     *
+     * @param min the minimum, added to every duration
+     * @param mu the mean of the logarithm
+     * @param sigma the standard deviation of the logarithm
+     */
+    public LogNormalDuration(long min, double mu, double sigma) {
+        this(min, mu, sigma, Long.MAX_VALUE / 2);
+    }
+
+    /**
+     * @param min the minimum, added to every duration
+     * @param mu the mean of the logarithm
+     * @param sigma the standard deviation of the logarithm
+     * @param max the maximum duration
+     */
+    public LogNormalDuration(long min, double mu, double sigma, long max) {
+        if (min < 0 || !(sigma >= 0) || max < min) {
+            throw new IllegalArgumentException("Invalid parameters: min " + min + ", sigma " + sigma + ", max " + max);
+        }
+        this.min = min;
+        this.mu = mu;
+        this.sigma = sigma;
+        this.max = max;
+    }
+
+    @Override
+    public long getDuration(Random random) {
+        double duration = Math.exp(mu + sigma * random.nextGaussian());
+        return duration < max - min ? min + (long) duration : max;
+    }
+
+    @Override
+    public long getMinDuration() {
+        return min;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2017 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.asyncsim;
+
+/**
+ * A logical process of a {@link ParallelSimulator} which runs the events of
+ * the tasks of one partition. The global process (partition -1) holds the
+ * events not associated with a task.
+ *
+ * @author Felix Wiemuth
+ */
+class LogicalProcess extends Simulator {
+
+    private static final long serialVersionUID = 1L;
+
+    final ParallelSimulator engine;
+    final int partition;
+    private final transient LogBuffer pendingLog = new LogBuffer(); // entries written on a worker thread, passed to the log by the calling thread
+
+    LogicalProcess(Simulator root, ParallelSimulator engine, int partition) {
+        super(root);
+        this.engine = engine;
+        this.partition = partition;
+    }
+
+    /**
+     * Keep back log entries written on a worker thread, so that the log is
+     * only used by the calling thread (see {@link ParallelSimulator}).
+     */
+    @Override
+    void write(long time, Log.Level level, Log.Category category, int task, Object entry) {
+        if (engine.isSerial()) {
+            super.write(time, level, category, task, entry);
+        } else {
+            pendingLog.add(time, level, category, task, entry);
+        }
+    }
+
+    LogBuffer getPendingLog() {
+        return pendingLog;
+    }
+
+    /**
+     * Let a task of this partition run on this process.
+     *
+     * @param task
+     */
+    void attach(Task task) {
+        task.bind(this);
+    }
+
+    @Override
+    void addDelivery(long delay, Message msg, Task dest) {
+        int destPartition = engine.getPartition(dest.getIndex());
+        if (destPartition == partition) {
+            super.addDelivery(delay, msg, dest);
+        } else {
+            long time = getTime() + delay;
+            send(destPartition, time, nextSeq(time), msg, dest.getIndex());
+        }
+    }
+
+    /**
+     * Deliver messages sent over queued links by separate events, as the
+     * queue of a link may be used by the tasks of different partitions.
+     */
+    @Override
+    void addLinkDelivery(long delay, Message msg, Task dest, Link link) {
+        addDelivery(delay, msg, dest);
+    }
+
+    /**
+     * Deliver the messages of a multicast to the tasks of each partition by
+     * one event, all with the same sequence number.
+     */
+    @Override
+    void addMulticast(long delay, Multicast multicast) {
+        long time = getTime() + delay;
+        long seq = nextSeq(time);
+        for (int p = 0; p < engine.getPartitions(); p++) {
+            Multicast part = multicast.part(engine, p);
+            if (part == null) {
+                continue;
+            }
+            if (p == partition) {
+                insertMulticast(time, seq, part);
+            } else {
+                send(p, time, seq, part, part.getDest(0));
+            }
+        }
+    }
+
+    /**
+     * Send a message to a task of another partition.
+     *
+     * @param destPartition
+     * @param time
+     * @param seq
+     * @param msg a {@link Message} or a {@link Multicast}
+     * @param destIndex the index of the (first) destination task
+     */
+    void send(int destPartition, long time, long seq, Object msg, int destIndex) {
+        engine.post(partition, destPartition, time, seq, msg, destIndex);
+    }
+
+    /**
+     * Receive a message sent by a task of another partition.
+     *
+     * @param time
+     * @param seq
+     * @param msg a {@link Message} or a {@link Multicast}
+     * @param destIndex
+     * @return the id of the delivery event
+     */
+    int receive(long time, long seq, Object msg, int destIndex) {
+        if (msg instanceof Multicast) {
+            return insertMulticast(time, seq, (Multicast) msg);
+        }
+        return insert(time, seq, EventStore.DELIVER, destIndex, 0, msg);
+    }
+
+    /**
+     * Receive an anti-message which cancels the message with the given time
+     * and sequence number received before.
+     *
+     * @param time
+     * @param seq
+     */
+    void annihilate(long time, long seq) {
+        throw new IllegalStateException("Process does not run speculatively");
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2017 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.asyncsim;
+
+import java.io.Serializable;
+
+/**
+ * The message queue of a {@link Task}. Messages which arrive while the task
+ * runs an action are held back and only become visible when the action has
+ * finished ({@link #release()}).
+ * <p>
+ * The methods {@link #addFirst(Message)}, {@link #removeLast()},
+ * {@link #removeLastHeld()} and {@link #unrelease(int)} undo changes in
+ * reverse order when a task is rolled back by an optimistic
+ * {@link ParallelSimulator}.
+ *
+ * @author Felix Wiemuth
+ */
+public interface Mailbox extends Serializable {
+
+    /**
+     * Append a visible message.
+     *
+     * @param msg
+     */
+    void add(Message msg);
+
+    /**
+     * Append a message which is held back until the next call of
+     * {@link #release()}.
+     *
+     * @param msg
+     */
+    void addHeld(Message msg);
+
+    /**
+     * Append all held messages to the visible ones, in order.
+     *
+     * @return the number of messages released
+     */
+    int release();
+
+    /**
+     * Retrieves, but does not remove, the first visible message.
+     *
+     * @return the message or null if there is none
+     */
+    Message peek();
+
+    /**
+     * Retrieves and removes the first visible message.
+     *
+     * @return the message or null if there is none
+     */
+    Message poll();
+
+    /**
+     * Insert a visible message at the front (undoes {@link #poll()}).
+     *
+     * @param msg
+     */
+    void addFirst(Message msg);
+
+    /**
+     * Remove the last visible message (undoes {@link #add(Message)}).
+     *
+     * @return the message
+     */
+    Message removeLast();
+
+    /**
+     * Remove the last held message (undoes {@link #addHeld(Message)}).
+     *
+     * @return the message
+     */
+    Message removeLastHeld();
+
+    /**
+     * Hold back the last {@code n} visible messages again (undoes
+     * {@link #release()}).
+     *
+     * @param n
+     */
+    void unrelease(int n);
+
+    /**
+     * @return the number of visible messages
+     */
+    int size();
+
+    /**
+     * @return whether there are no visible messages
+     */
+    boolean isEmpty();
+
+    /**
+     * @return the number of held messages
+     */
+    int heldCount();
+}
@@ -17,10 +17,14 @@
 
 package felixwiemuth.asyncsim;
 
+import java.io.Serializable;
+
 /**
  * @author Felix Wiemuth
  */
-public class Message {
+public class Message implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     private final int src;
     private final int dest;
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2017 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.asyncsim;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Messages with the same data and delivery time to several tasks, which are
+ * delivered by a single event.
+ *
+ * @author Felix Wiemuth
+ */
+final class Multicast implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int[] dests; // task indices
+    private final Message[] msgs;
+
+    Multicast(int[] dests, Message[] msgs) {
+        this.dests = dests;
+        this.msgs = msgs;
+    }
+
+    int size() {
+        return dests.length;
+    }
+
+    /**
+     * @param i
+     * @return the index of the task receiving the {@code i}th message
+     */
+    int getDest(int i) {
+        return dests[i];
+    }
+
+    Message getMsg(int i) {
+        return msgs[i];
+    }
+
+    /**
+     * Get the messages to the tasks of one partition of a parallel engine.
+     *
+     * @param engine
+     * @param partition
+     * @return the messages or null if there are none
+     */
+    Multicast part(ParallelSimulator engine, int partition) {
+        int[] partDests = new int[dests.length];
+        Message[] partMsgs = new Message[dests.length];
+        int n = 0;
+        for (int i = 0; i < dests.length; i++) {
+            if (engine.getPartition(dests[i]) == partition) {
+                partDests[n] = dests[i];
+                partMsgs[n] = msgs[i];
+                n++;
+            }
+        }
+        if (n == 0) {
+            return null;
+        }
+        return n == dests.length ? this : new Multicast(Arrays.copyOf(partDests, n), Arrays.copyOf(partMsgs, n));
+    }
+}
@@ -17,37 +17,159 @@
 
 package felixwiemuth.asyncsim;
 
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
 import java.util.Set;
 
 /**
+ * The tasks of a simulation and the links between them.
+ * <p>
+ * Links are added to a list and, before they are first used, frozen into a
+ * compressed sparse row (CSR) layout: the destinations of all links are
+ * stored in one array, grouped by source and sorted by destination, together
+ * with the index of the {@link Link} object of each link. Link objects can be
+ * shared by any number of links. Links can still be added afterwards, which
+ * rebuilds the layout on the next lookup.
+ * <p>
+ * Alternatively, the links can be computed instead of stored (see
+ * {@link #setTopology(ImplicitTopology)}), which needs no memory per link.
+ *
  * @author Felix Wiemuth
  */
-public class Network {
+public class Network implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     private final Simulator simulator;
 
     Map<Integer, Task> tasks = new HashMap<>();
-    // ID (source) -> (ID (dest) -> Duration (link delay))
-    Map<Integer, Map<Integer, Link>> connections = new HashMap<>();
+
+    private ImplicitTopology topology; // replaces the stored links if set
+
+    // Frozen links: the links of source sources[r] are the entries offsets[r] to offsets[r + 1] - 1 of targets and linkIndices
+    private int[] sources = new int[0]; // sorted, rows may be empty
+    private boolean denseSources = true; // whether sources are consecutive ids, so that the row of an id can be computed
+    private int[] offsets = {0};
+    private int[] targets = new int[0];
+    private int[] linkIndices = new int[0];
+    private Link[] links = new Link[16];
+    private int linkCount;
+
+    // Links added since the last freeze (a later link replaces an earlier one between the same tasks)
+    private int[] addedSources = new int[16];
+    private int[] addedTargets = new int[16];
+    private int[] addedLinks = new int[16];
+    private int addedCount;
 
     public Network(Simulator simulator) {
         this.simulator = simulator;
     }
 
+    public Simulator getSimulator() {
+        return simulator;
+    }
+
     public void addNode(Task task) {
         tasks.put(task.getId(), task);
     }
 
+    /**
+     * Add a link from task {@code src} to task {@code dest}, replacing an
+     * existing one.
+     *
+     * @param src
+     * @param dest
+     * @param link
+     */
     public void addLink(int src, int dest, Link link) {
-        Map<Integer, Link> map = connections.get(src);
-        if (map == null) {
-            map = new HashMap<>();
-            connections.put(src, map);
+        if (topology != null) {
+            throw new IllegalStateException("Cannot add links to a network with an implicit topology");
+        }
+        if (linkCount == 0 || links[linkCount - 1] != link) {
+            if (linkCount == links.length) {
+                links = Arrays.copyOf(links, 2 * linkCount);
+            }
+            links[linkCount++] = link;
+        }
+        if (addedCount == addedSources.length) {
+            addedSources = Arrays.copyOf(addedSources, 2 * addedCount);
+            addedTargets = Arrays.copyOf(addedTargets, 2 * addedCount);
+            addedLinks = Arrays.copyOf(addedLinks, 2 * addedCount);
+        }
+        addedSources[addedCount] = src;
+        addedTargets[addedCount] = dest;
+        addedLinks[addedCount] = linkCount - 1;
+        addedCount++;
+    }
+
+    /**
+     * Make room for adding the given number of links without growing the list
+     * of added links.
+     *
+     * @param links
+     */
+    public void ensureLinkCapacity(long links) {
+        if (links > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Too many links: " + links);
+        }
+        int capacity = addedCount + (int) links;
+        if (capacity > addedSources.length) {
+            addedSources = Arrays.copyOf(addedSources, capacity);
+            addedTargets = Arrays.copyOf(addedTargets, capacity);
+            addedLinks = Arrays.copyOf(addedLinks, capacity);
+        }
+    }
+
+    /**
+     * Add link objects to be referenced by {@link #addLinks}.
+     *
+     * @param objects
+     * @return the index of the first object
+     */
+    int addLinkObjects(Link[] objects) {
+        if (topology != null) {
+            throw new IllegalStateException("Cannot add links to a network with an implicit topology");
+        }
+        if (linkCount + objects.length > links.length) {
+            links = Arrays.copyOf(links, Math.max(2 * links.length, linkCount + objects.length));
+        }
+        System.arraycopy(objects, 0, links, linkCount, objects.length);
+        linkCount += objects.length;
+        return linkCount - objects.length;
+    }
+
+    /**
+     * Add links in bulk, where link {@code i} uses the link object
+     * {@code linkIndexOf[objects[i]]} (see {@link #addLinkObjects(Link[])}).
+     *
+     * @param srcs
+     * @param dests
+     * @param objects
+     * @param count the number of links to add
+     * @param linkIndexOf
+     * @param twoWay whether to add each link in both directions
+     */
+    void addLinks(int[] srcs, int[] dests, int[] objects, int count, int[] linkIndexOf, boolean twoWay) {
+        ensureLinkCapacity(twoWay ? 2L * count : count);
+        for (int i = 0; i < count; i++) {
+            int index = linkIndexOf[objects[i]];
+            addedSources[addedCount] = srcs[i];
+            addedTargets[addedCount] = dests[i];
+            addedLinks[addedCount++] = index;
+            if (twoWay) {
+                addedSources[addedCount] = dests[i];
+                addedTargets[addedCount] = srcs[i];
+                addedLinks[addedCount++] = index;
+            }
         }
-        map.put(dest, link);
     }
 
     public void addTwoWayLink(int src, int dest, Link link) {
@@ -55,12 +177,421 @@ public class Network {
         addLink(dest, src, link);
     }
 
+    /**
+     * Compute the links with the given topology instead of storing them.
+     *
+     * @param topology
+     * @throws IllegalStateException if links have been added
+     */
+    public void setTopology(ImplicitTopology topology) {
+        if (targets.length > 0 || addedCount > 0) {
+            throw new IllegalStateException("Cannot use an implicit topology for a network with links");
+        }
+        this.topology = topology;
+    }
+
+    /**
+     * Get the implicit topology.
+     *
+     * @return the topology or null if the links are stored
+     */
+    public ImplicitTopology getTopology() {
+        return topology;
+    }
+
+    /**
+     * Build the compact layout of the links added so far. This is done
+     * automatically by the first lookup after adding links, but should be done
+     * explicitly before tasks are run concurrently.
+     */
+    public void freeze() {
+        if (addedCount == 0) {
+            return;
+        }
+        int frozen = targets.length;
+        int n = frozen + addedCount;
+        // All links, the frozen ones first so that added links replace them
+        int[] srcs = new int[n];
+        for (int r = 0; r < sources.length; r++) {
+            Arrays.fill(srcs, offsets[r], offsets[r + 1], sources[r]);
+        }
+        System.arraycopy(addedSources, 0, srcs, frozen, addedCount);
+        int[] dests = Arrays.copyOf(targets, n);
+        System.arraycopy(addedTargets, 0, dests, frozen, addedCount);
+        int[] indices = Arrays.copyOf(linkIndices, n);
+        System.arraycopy(addedLinks, 0, indices, frozen, addedCount);
+        addedSources = new int[16];
+        addedTargets = new int[16];
+        addedLinks = new int[16];
+        addedCount = 0;
+
+        // The rows: the sources in ascending order
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int src : srcs) {
+            min = Math.min(min, src);
+            max = Math.max(max, src);
+        }
+        int rows = 0;
+        if ((long) max - min < 2L * n) {
+            // Ids in a small range: a row for each id, so that the row of an id is computed
+            rows = max - min + 1;
+            sources = new int[rows];
+            for (int r = 0; r < rows; r++) {
+                sources[r] = min + r;
+            }
+        } else {
+            int[] ids = srcs.clone();
+            if (!isSorted(ids)) {
+                Arrays.sort(ids);
+            }
+            for (int i = 0; i < n; i++) {
+                if (rows == 0 || ids[i] != ids[rows - 1]) {
+                    ids[rows++] = ids[i];
+                }
+            }
+            sources = Arrays.copyOf(ids, rows);
+        }
+        denseSources = rows == 0 || (long) sources[rows - 1] - sources[0] == rows - 1;
+
+        // Group the links by row, keeping their order (counting sort)
+        int[] start = new int[rows + 1];
+        for (int src : srcs) {
+            start[row(src) + 1]++;
+        }
+        for (int r = 0; r < rows; r++) {
+            start[r + 1] += start[r];
+        }
+        group(srcs, dests, indices, start, rows);
+        srcs = null;
+
+        // Sort each row by destination, where the last link added to a destination replaces the others
+        offsets = new int[rows + 1];
+        int m = 0;
+        long[] keys = new long[16];
+        for (int r = 0; r < rows; r++) {
+            int degree = start[r + 1] - start[r];
+            if (keys.length < degree) {
+                keys = new long[degree];
+            }
+            m = sortRow(dests, indices, start[r], degree, m, keys);
+            offsets[r + 1] = m;
+        }
+        targets = Arrays.copyOf(dests, m);
+        linkIndices = Arrays.copyOf(indices, m);
+
+        // Drop link objects which are not used anymore
+        int[] newIndex = new int[linkCount];
+        Arrays.fill(newIndex, -1);
+        Link[] usedLinks = new Link[Math.max(16, linkCount)];
+        int used = 0;
+        for (int i = 0; i < m; i++) {
+            int index = linkIndices[i];
+            if (newIndex[index] < 0) {
+                newIndex[index] = used;
+                usedLinks[used++] = links[index];
+            }
+            linkIndices[i] = newIndex[index];
+        }
+        links = usedLinks;
+        linkCount = used;
+    }
+
+    /**
+     * Replace the links by a frozen layout (see {@link #freeze()}), e.g., one
+     * loaded from a file.
+     */
+    void setLayout(int[] sources, int[] offsets, int[] targets, int[] linkIndices, Link[] links) {
+        if (topology != null || this.targets.length > 0 || addedCount > 0) {
+            throw new IllegalStateException("Network already has links");
+        }
+        this.sources = sources;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.linkIndices = linkIndices;
+        this.links = Arrays.copyOf(links, Math.max(16, links.length));
+        linkCount = links.length;
+        int rows = sources.length;
+        denseSources = rows == 0 || (long) sources[rows - 1] - sources[0] == rows - 1;
+    }
+
+    // The frozen layout (see freeze()), not to be modified
+    int[] getSources() {
+        freeze();
+        return sources;
+    }
+
+    int[] getOffsets() {
+        freeze();
+        return offsets;
+    }
+
+    int[] getTargets() {
+        freeze();
+        return targets;
+    }
+
+    int[] getLinkIndices() {
+        freeze();
+        return linkIndices;
+    }
+
+    /**
+     * Move the links to the positions of their rows given by {@code start},
+     * keeping their order within a row.
+     */
+    private void group(int[] srcs, int[] dests, int[] indices, int[] start, int rows) {
+        int[] linkDests = dests.clone();
+        int[] linkIndices = indices.clone();
+        int[] next = Arrays.copyOf(start, rows);
+        for (int i = 0; i < srcs.length; i++) {
+            int k = next[row(srcs[i])]++;
+            dests[k] = linkDests[i];
+            indices[k] = linkIndices[i];
+        }
+    }
+
+    /**
+     * Sort the links in {@code [from, from + degree)} by destination and move
+     * them to {@code to}, dropping links replaced by a later one.
+     *
+     * @return the end of the sorted links
+     */
+    private static int sortRow(int[] targets, int[] indices, int from, int degree, int to, long[] keys) {
+        if (isSorted(targets, from, from + degree)) {
+            System.arraycopy(targets, from, targets, to, degree);
+            System.arraycopy(indices, from, indices, to, degree);
+            return to + degree;
+        }
+        for (int i = 0; i < degree; i++) {
+            // The position in the low bits keeps the order of links with the same destination
+            keys[i] = (long) targets[from + i] << 32 | i;
+        }
+        Arrays.sort(keys, 0, degree);
+        for (int i = 0; i < degree; i++) {
+            if (i + 1 < degree && keys[i + 1] >> 32 == keys[i] >> 32) {
+                continue; // replaced by a link added later
+            }
+            // Keep the link index with the target while the row is overwritten
+            keys[i] = keys[i] & 0xFFFFFFFF00000000L | indices[from + (int) keys[i]] & 0xFFFFFFFFL;
+        }
+        int n = to;
+        for (int i = 0; i < degree; i++) {
+            if (i + 1 < degree && keys[i + 1] >> 32 == keys[i] >> 32) {
+                continue;
+            }
+            targets[n] = (int) (keys[i] >> 32);
+            indices[n] = (int) keys[i];
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Whether the array is sorted in strictly ascending order in
+     * {@code [from, to)}.
+     */
+    private static boolean isSorted(int[] a, int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            if (a[i] <= a[i - 1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether the array is sorted in ascending order (with repetitions).
+     */
+    private static boolean isSorted(int[] a) {
+        for (int i = 1; i < a.length; i++) {
+            if (a[i] < a[i - 1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the row of the links of a task in the frozen layout.
+     *
+     * @param id
+     * @return the row or -1 if the task has no links
+     */
+    private int row(int id) {
+        if (denseSources) {
+            long r = (long) id - (sources.length == 0 ? 0 : sources[0]);
+            return r >= 0 && r < sources.length ? (int) r : -1;
+        }
+        int r = Arrays.binarySearch(sources, id);
+        return r < 0 ? -1 : r;
+    }
+
+    /**
+     * Get the link from one task to another.
+     *
+     * @param src
+     * @param dest
+     * @return the link or null if there is none
+     */
+    public Link getLink(int src, int dest) {
+        if (topology != null) {
+            return topology.getLink(src, dest);
+        }
+        freeze();
+        int r = row(src);
+        if (r < 0) {
+            return null;
+        }
+        int k = Arrays.binarySearch(targets, offsets[r], offsets[r + 1], dest);
+        return k < 0 ? null : links[linkIndices[k]];
+    }
+
+    /**
+     * Get the number of stored links.
+     *
+     * @return
+     */
+    public int getLinkCount() {
+        freeze();
+        return targets.length;
+    }
+
+    /**
+     * Get the distinct link objects (for a lookup of a link between two tasks
+     * use {@link #getLink(int, int)}).
+     *
+     * @return
+     */
+    Link[] getLinkObjects() {
+        freeze();
+        return Arrays.copyOf(links, linkCount);
+    }
+
+    /**
+     * Get the task with the given id.
+     *
+     * @param id
+     * @return the task or null if there is no such task
+     */
+    public Task getTask(int id) {
+        return tasks.get(id);
+    }
+
+    /**
+     * Get the ids of the tasks to which a task has a link, in ascending order.
+     * The set is a view of the frozen layout and does not reflect links added
+     * later.
+     *
+     * @param src
+     * @return
+     */
     public Set<Integer> getNeighbors(int src) {
-        Set<Integer> neighbors = connections.get(src).keySet();
-        if (neighbors == null) {
-            neighbors = new HashSet<>();
+        IntList neighbors = getNeighborList(src);
+        return neighbors.isEmpty() ? Collections.<Integer>emptySet() : new Neighbors(neighbors);
+    }
+
+    /**
+     * Get the ids of the tasks to which a task has a link, in ascending order,
+     * without boxing or copying them. The list is a view of the frozen layout
+     * and does not reflect links added later.
+     *
+     * @param src
+     * @return
+     */
+    public IntList getNeighborList(int src) {
+        if (topology != null) {
+            return topology.getNeighbors(src);
+        }
+        freeze();
+        int r = row(src);
+        return r < 0 ? IntList.empty() : IntList.slice(targets, offsets[r], offsets[r + 1]);
+    }
+
+    /**
+     * Visit all stored links whose source and destination are tasks of this
+     * network.
+     *
+     * @param visitor
+     */
+    void forEachLink(LinkVisitor visitor) {
+        freeze();
+        for (int r = 0; r < sources.length; r++) {
+            Task src = tasks.get(sources[r]);
+            if (src == null) {
+                continue;
+            }
+            for (int k = offsets[r]; k < offsets[r + 1]; k++) {
+                Task dest = tasks.get(targets[k]);
+                if (dest != null) {
+                    visitor.visit(src, dest, links[linkIndices[k]]);
+                }
+            }
+        }
+    }
+
+    interface LinkVisitor {
+
+        void visit(Task src, Task dest, Link link);
+    }
+
+    /**
+     * A read-only view of a sorted list of destinations.
+     */
+    private static class Neighbors extends AbstractSet<Integer> {
+
+        private final IntList list;
+
+        Neighbors(IntList list) {
+            this.list = list;
+        }
+
+        @Override
+        public int size() {
+            return list.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Integer)) {
+                return false;
+            }
+            int value = (Integer) o;
+            int low = 0;
+            int high = list.size() - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int v = list.get(mid);
+                if (v < value) {
+                    low = mid + 1;
+                } else if (v > value) {
+                    high = mid - 1;
+                } else {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public Iterator<Integer> iterator() {
+            return new Iterator<Integer>() {
+                private int i = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return i < list.size();
+                }
+
+                @Override
+                public Integer next() {
+                    if (i >= list.size()) {
+                        throw new NoSuchElementException();
+                    }
+                    return list.get(i++);
+                }
+            };
         }
-        return neighbors;
     }
 
     public int size() {
@@ -68,16 +599,339 @@ public class Network {
     }
 
     public void sendMsg(final Message msg) {
-        if (connections.get(msg.getDest()) != null && connections.get(msg.getSrc()).containsKey(msg.getDest())) { // check whether link exists
-            String logEntry = connections.get(msg.getSrc()).get(msg.getDest()).sendMsg(simulator, msg, tasks.get(msg.getDest()));
-            if (logEntry != null) {
-                simulator.log(logEntry);
+        sendMsg(simulator, msg);
+    }
+
+    /**
+     * Send a message, scheduling its delivery on the given simulator (the
+     * logical process of the sender when run by a {@link ParallelSimulator}).
+     *
+     * @param simulator
+     * @param msg
+     */
+    void sendMsg(Simulator simulator, Message msg) {
+        Link link = getLink(msg.getSrc(), msg.getDest());
+        Task dest = tasks.get(msg.getDest());
+        if (link != null && dest != null) {
+            Link.DropReason reason = link.sendMsg(simulator, msg, dest, linkRandom(simulator, msg.getSrc()));
+            if (reason != null) {
+                logDropped(simulator, msg, reason);
             } else {
                 simulator.logMsgSent(msg);
             }
         }
     }
 
+    /**
+     * Log that a message was dropped, creating the entry only if it is
+     * written.
+     */
+    private static void logDropped(Simulator simulator, Message msg, Link.DropReason reason) {
+        if (simulator.isLogEnabled(Log.Level.INFO, Log.Category.LINK)) {
+            simulator.log(Log.Level.INFO, Log.Category.LINK, reason.logEntry(msg));
+        }
+    }
+
+    /**
+     * Get the random stream for the delays of messages sent by a task.
+     *
+     * @param simulator
+     * @param src
+     * @return the task's stream for links or the stream of the simulator if
+     * there is no such task
+     */
+    private Random linkRandom(Simulator simulator, int src) {
+        Task task = tasks.get(src);
+        return task != null ? task.getLinkRandomStream() : simulator.getRandom();
+    }
+
+    /**
+     * Send the same data from a task to several tasks (see
+     * {@link #multicast(Simulator, int, IntList, Object)}).
+     *
+     * @param src
+     * @param dests
+     * @param data
+     */
+    public void multicast(int src, Collection<Integer> dests, Object data) {
+        multicast(simulator, src, dests, data);
+    }
+
+    /**
+     * Send the same data from a task to several tasks (see
+     * {@link #multicast(Simulator, int, IntList, Object)}).
+     *
+     * @param src
+     * @param dests
+     * @param data
+     */
+    public void multicast(int src, int[] dests, Object data) {
+        multicast(simulator, src, IntList.wrap(dests), data);
+    }
+
+    /**
+     * Send the same data from a task to all its neighbors.
+     *
+     * @param src
+     * @param data
+     */
+    public void broadcast(int src, Object data) {
+        broadcast(simulator, src, data);
+    }
+
+    /**
+     * Send the same data from a task to all its neighbors (see
+     * {@link #multicast(Simulator, int, IntList, Object)}), taking the links
+     * from the row of the task in the frozen layout.
+     *
+     * @param simulator
+     * @param src
+     * @param data
+     */
+    void broadcast(Simulator simulator, int src, Object data) {
+        if (topology != null) {
+            multicast(simulator, src, topology.getNeighbors(src), data);
+            return;
+        }
+        freeze();
+        int r = row(src);
+        if (r < 0) {
+            return;
+        }
+        MulticastBuffer buffer = simulator.getMulticastBuffer();
+        buffer.ensureCapacity(offsets[r + 1] - offsets[r]);
+        int m = 0;
+        for (int k = offsets[r]; k < offsets[r + 1]; k++) {
+            m = addDest(buffer, m, src, targets[k], links[linkIndices[k]], data);
+        }
+        send(simulator, buffer, src, m);
+    }
+
+    /**
+     * Send the same data from a task to several tasks. The messages share the
+     * data and the messages with the same delivery time are delivered by a
+     * single event (except for queued links, see {@link Link.Delivery}).
+     * Destinations without a link from the source are skipped.
+     *
+     * @param simulator
+     * @param src
+     * @param dests
+     * @param data
+     */
+    void multicast(Simulator simulator, int src, IntList dests, Object data) {
+        MulticastBuffer buffer = simulator.getMulticastBuffer();
+        buffer.ensureCapacity(dests.size());
+        int m = 0;
+        for (int i = 0; i < dests.size(); i++) {
+            int dest = dests.get(i);
+            m = addDest(buffer, m, src, dest, getLink(src, dest), data);
+        }
+        send(simulator, buffer, src, m);
+    }
+
+    void multicast(Simulator simulator, int src, Collection<Integer> dests, Object data) {
+        int[] ids = new int[dests.size()];
+        int i = 0;
+        for (int dest : dests) {
+            ids[i++] = dest;
+        }
+        multicast(simulator, src, IntList.wrap(ids), data);
+    }
+
+    /**
+     * Add the message to a destination as the {@code m}th message of a
+     * multicast, unless there is no link or no task.
+     *
+     * @return the number of messages now
+     */
+    private int addDest(MulticastBuffer buffer, int m, int src, int dest, Link link, Object data) {
+        if (link == null) {
+            return m;
+        }
+        Task task = tasks.get(dest);
+        if (task == null) {
+            return m;
+        }
+        Message msg = new Message(src, dest, data);
+        buffer.msgs[m] = msg;
+        Link.DropReason reason = link.checkDrop(msg);
+        if (reason != null) {
+            buffer.drops[m] = reason;
+        } else {
+            buffer.links[m] = link;
+            buffer.tasks[m] = task;
+        }
+        return m + 1;
+    }
+
+    /**
+     * Send the first {@code m} messages of the buffer and clear it.
+     */
+    private void send(Simulator simulator, MulticastBuffer buffer, int src, int m) {
+        Link[] links = buffer.links;
+        Task[] destTasks = buffer.tasks;
+        Message[] msgs = buffer.msgs;
+        long[] delays = buffer.delays;
+        int[] order = buffer.order;
+        Random random = linkRandom(simulator, src);
+        // Draw the delays of consecutive messages over the same (shared) link at once
+        int run = 0;
+        for (int i = 1; i <= m; i++) {
+            if (i == m || links[i] != links[run]) {
+                if (links[run] != null) {
+                    links[run].nextDelays(random, delays, run, i);
+                }
+                run = i;
+            }
+        }
+        int n = 0;
+        boolean sameDelay = true;
+        for (int i = 0; i < m; i++) {
+            Link link = links[i];
+            if (link == null) {
+                logDropped(simulator, msgs[i], buffer.drops[i]);
+                continue;
+            }
+            if (link.getDelivery() != Link.Delivery.SEPARATE) {
+                simulator.addLinkDelivery(delays[i], msgs[i], destTasks[i], link);
+                simulator.logMsgSent(msgs[i]);
+                continue;
+            }
+            delays[n] = delays[i];
+            destTasks[n] = destTasks[i];
+            msgs[n] = msgs[i];
+            order[n] = n;
+            sameDelay &= delays[n] == delays[0];
+            n++;
+            simulator.logMsgSent(msgs[n - 1]);
+        }
+        if (sameDelay) {
+            deliver(simulator, buffer, 0, n);
+        } else {
+            // Sort the messages by delay to deliver each group of messages with the same delay by one event
+            sortByKey(order, buffer.merged, delays, n);
+            int start = 0;
+            for (int i = 1; i <= n; i++) {
+                if (i == n || delays[order[i]] != delays[order[start]]) {
+                    deliver(simulator, buffer, start, i);
+                    start = i;
+                }
+            }
+        }
+        buffer.clear(m);
+    }
+
+    /**
+     * Deliver the messages at positions {@code [from, to)} of the order of the
+     * buffer, which have the same delay.
+     */
+    private static void deliver(Simulator simulator, MulticastBuffer buffer, int from, int to) {
+        int[] order = buffer.order;
+        if (to - from == 1) {
+            int i = order[from];
+            simulator.addDelivery(buffer.delays[i], buffer.msgs[i], buffer.tasks[i]);
+        } else if (to - from > 1) {
+            int[] indices = new int[to - from];
+            Message[] msgs = new Message[to - from];
+            for (int k = from; k < to; k++) {
+                indices[k - from] = buffer.tasks[order[k]].getIndex();
+                msgs[k - from] = buffer.msgs[order[k]];
+            }
+            simulator.addMulticast(buffer.delays[order[from]], new Multicast(indices, msgs));
+        }
+    }
+
+    /**
+     * Sort the first {@code n} indices stably by their keys (insertion sort of
+     * short runs, then merge sort).
+     *
+     * @param order the indices to sort
+     * @param tmp space for at least {@code n} indices
+     * @param keys
+     * @param n
+     */
+    private static void sortByKey(int[] order, int[] tmp, long[] keys, int n) {
+        final int runLength = 16;
+        for (int from = 0; from < n; from += runLength) {
+            int to = Math.min(n, from + runLength);
+            for (int i = from + 1; i < to; i++) {
+                int x = order[i];
+                long key = keys[x];
+                int j = i - 1;
+                while (j >= from && keys[order[j]] > key) {
+                    order[j + 1] = order[j];
+                    j--;
+                }
+                order[j + 1] = x;
+            }
+        }
+        int[] a = order;
+        int[] b = tmp;
+        for (int width = runLength; width < n; width *= 2) {
+            for (int lo = 0; lo < n; lo += 2 * width) {
+                int mid = Math.min(n, lo + width);
+                int hi = Math.min(n, lo + 2 * width);
+                int i = lo;
+                int j = mid;
+                int k = lo;
+                while (i < mid && j < hi) {
+                    b[k++] = keys[a[j]] < keys[a[i]] ? a[j++] : a[i++];
+                }
+                while (i < mid) {
+                    b[k++] = a[i++];
+                }
+                while (j < hi) {
+                    b[k++] = a[j++];
+                }
+            }
+            int[] swap = a;
+            a = b;
+            b = swap;
+        }
+        if (a != order) {
+            System.arraycopy(a, 0, order, 0, n);
+        }
+    }
+
+    /**
+     * The arrays for sending a multicast, kept by each simulator (as a
+     * {@link ParallelSimulator} sends from several threads) so that they are
+     * not allocated for every multicast.
+     */
+    static final class MulticastBuffer {
+
+        Link[] links = new Link[16]; // null for dropped messages
+        Task[] tasks = new Task[16];
+        Message[] msgs = new Message[16];
+        Link.DropReason[] drops = new Link.DropReason[16]; // why messages were dropped
+        long[] delays = new long[16];
+        int[] order = new int[16];
+        int[] merged = new int[16];
+
+        void ensureCapacity(int n) {
+            if (n > links.length) {
+                int capacity = Math.max(n, 2 * links.length);
+                links = new Link[capacity];
+                tasks = new Task[capacity];
+                msgs = new Message[capacity];
+                drops = new Link.DropReason[capacity];
+                delays = new long[capacity];
+                order = new int[capacity];
+                merged = new int[capacity];
+            }
+        }
+
+        /**
+         * Release the references to the first {@code m} messages.
+         */
+        void clear(int m) {
+            Arrays.fill(links, 0, m, null);
+            Arrays.fill(tasks, 0, m, null);
+            Arrays.fill(msgs, 0, m, null);
+            Arrays.fill(drops, 0, m, null);
+        }
+    }
+
     public void initTasks() {
         for (Task task : tasks.values()) {
             task.onInit();
@@ -0,0 +1,686 @@
+/*
+ * Copyright (C) 2017 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.asyncsim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs a simulation on multiple threads. The tasks of the network are
+ * partitioned into logical processes, each with its own event queue and run by
+ * its own thread. Processes are synchronized according to a {@link Mode}.
+ * <p>
+ * Events which are not associated with a task (added with
+ * {@link Simulator#addEvent(long, Runnable)} while no task is running) and all
+ * events at times where the lookahead is zero are run on the calling thread in
+ * the same order as by a sequential simulator.
+ * <p>
+ * A run yields the same results as a sequential run of the
+ * {@link Simulator} the tasks were created with, provided that the simulator
+ * uses {@link Simulator.TieBreak#TASK} or {@link Simulator.TieBreak#RANDOM},
+ * that tasks only use their own random stream ({@link Task#getRandom()} or
+ * {@link Simulator#getRandom()}) and that links and durations used by senders
+ * in different partitions have no mutable state (as, e.g.,
+ * {@link PeriodicFailure}). Only the order of log entries of different
+ * partitions at the same time may differ. In {@link Mode#OPTIMISTIC} mode,
+ * tasks must also be able to save and restore their state (see
+ * {@link Task#saveState()}).
+ * <p>
+ * Log entries written on the worker threads are kept back and passed to the
+ * {@link Log} by the calling thread after each window or round, so a log need
+ * not be thread-safe. Only {@link Log#isEnabled(Log.Level, Log.Category)} is
+ * called by the worker threads.
+ * <p>
+ * Once created, the simulation must only be run by this engine.
+ *
+ * @author Felix Wiemuth
+ */
+public class ParallelSimulator {
+
+    /**
+     * How logical processes are synchronized.
+     */
+    public static enum Mode {
+        /**
+         * The processes run in windows of simulated time which are as long as
+         * the minimum delay of the links between different partitions (the
+         * lookahead): a message sent within a window cannot arrive at another
+         * partition before the window ends, so the processes can run the
+         * events of a window independently. Messages between partitions are
+         * exchanged at the end of each window.
+         */
+        CONSERVATIVE,
+        /**
+         * The processes run events speculatively in rounds, without waiting
+         * for messages from other partitions (Time Warp). If a message arrives
+         * which should have been run before events already run, these are
+         * rolled back (see {@link Task#saveState()}) and the messages they
+         * sent are cancelled. Messages are exchanged at the end of each round,
+         * where the global virtual time (GVT) is determined: the events before
+         * it are committed and their log entries written. This does not depend
+         * on the lookahead and thus also works with links with zero or small
+         * delays.
+         */
+        OPTIMISTIC
+    }
+
+    /**
+     * Assigns tasks to partitions.
+     */
+    public interface Partitioner {
+
+        /**
+         * Get the partition of a task.
+         *
+         * @param id the id of the task
+         * @return a partition between 0 and the number of partitions - 1
+         */
+        int getPartition(int id);
+    }
+
+    /**
+     * Messages and anti-messages sent from one partition to another during a
+     * window or round.
+     */
+    private static class Outbox {
+
+        private long[] times = new long[16];
+        private long[] seqs = new long[16];
+        private int[] dests = new int[16]; // index of the destination task, -1 for anti-messages
+        private Object[] msgs = new Object[16]; // a Message or a Multicast
+        private int size = 0;
+        private long minTime = Long.MAX_VALUE;
+
+        void add(long time, long seq, int dest, Object msg) {
+            if (size == times.length) {
+                times = Arrays.copyOf(times, 2 * size);
+                seqs = Arrays.copyOf(seqs, 2 * size);
+                dests = Arrays.copyOf(dests, 2 * size);
+                msgs = Arrays.copyOf(msgs, 2 * size);
+            }
+            times[size] = time;
+            seqs[size] = seq;
+            dests[size] = dest;
+            msgs[size] = msg;
+            size++;
+            minTime = Math.min(minTime, time);
+        }
+
+        void deliverTo(LogicalProcess process) {
+            for (int i = 0; i < size; i++) {
+                if (dests[i] < 0) {
+                    process.annihilate(times[i], seqs[i]);
+                } else {
+                    process.receive(times[i], seqs[i], msgs[i], dests[i]);
+                    msgs[i] = null;
+                }
+            }
+            size = 0;
+            minTime = Long.MAX_VALUE;
+        }
+    }
+
+    private final Simulator simulator;
+    private final Mode mode;
+    private final LogicalProcess[] processes;
+    private final LogicalProcess global;
+    private final int[] partitionOf; // partition by task index
+    private final long lookahead;
+    private final Outbox[][][] outboxes; // [generation][source partition][destination partition], generations alternate between windows
+    private int generation = 0;
+    private boolean serial = true; // whether events are run by the calling thread only
+    private final ThreadLocal<Simulator> current = new ThreadLocal<Simulator>() {
+        @Override
+        protected Simulator initialValue() {
+            return global;
+        }
+    };
+    private ExecutorService executor;
+    private long time;
+    private long eventCount = 0;
+    private long window = Long.MAX_VALUE; // bounds speculation in optimistic mode
+    private int batchSize = 1024; // maximum number of events per process and round in optimistic mode
+
+    /**
+     * Create a conservative parallel engine for the tasks of {@code network},
+     * partitioned into blocks of tasks with consecutive ids.
+     *
+     * @param network
+     * @param partitions number of partitions and thus threads
+     */
+    public ParallelSimulator(Network network, int partitions) {
+        this(network, partitions, Mode.CONSERVATIVE);
+    }
+
+    /**
+     * Create a parallel engine for the tasks of {@code network}, partitioned
+     * into blocks of tasks with consecutive ids.
+     *
+     * @param network
+     * @param partitions number of partitions and thus threads
+     * @param mode
+     */
+    public ParallelSimulator(Network network, int partitions, Mode mode) {
+        this(network, partitions, blocks(network.getSimulator(), partitions), mode);
+    }
+
+    /**
+     * Create a conservative parallel engine for the tasks of {@code network}.
+     *
+     * @param network
+     * @param partitions number of partitions and thus threads
+     * @param partitioner assigns tasks to partitions
+     */
+    public ParallelSimulator(Network network, int partitions, Partitioner partitioner) {
+        this(network, partitions, partitioner, Mode.CONSERVATIVE);
+    }
+
+    /**
+     * Create a parallel engine for the tasks of {@code network}.
+     *
+     * @param network
+     * @param partitions number of partitions and thus threads
+     * @param partitioner assigns tasks to partitions
+     * @param mode
+     */
+    public ParallelSimulator(Network network, int partitions, Partitioner partitioner, Mode mode) {
+        if (partitions < 1) {
+            throw new IllegalArgumentException("partitions must be at least 1");
+        }
+        this.simulator = network.getSimulator();
+        if (simulator.getTieBreak() == Simulator.TieBreak.FIFO) {
+            throw new IllegalStateException("A parallel run requires TieBreak.TASK or TieBreak.RANDOM");
+        }
+        for (Link link : network.getLinkObjects()) {
+            if (link.getDelivery() == Link.Delivery.FIFO) {
+                throw new IllegalStateException("A parallel run does not support FIFO links");
+            }
+        }
+        this.mode = mode;
+        processes = new LogicalProcess[partitions];
+        for (int p = 0; p < partitions; p++) {
+            processes[p] = mode == Mode.OPTIMISTIC ? new TimeWarpProcess(simulator, this, p) : new LogicalProcess(simulator, this, p);
+        }
+        global = new LogicalProcess(simulator, this, -1);
+        partitionOf = new int[simulator.getTaskCount()];
+        for (int i = 0; i < partitionOf.length; i++) {
+            Task task = simulator.getTask(i);
+            int p = partitioner.getPartition(task.getId());
+            if (p < 0 || p >= partitions) {
+                throw new IllegalArgumentException("Invalid partition " + p + " for task " + task.getId());
+            }
+            partitionOf[i] = p;
+            processes[p].attach(task);
+        }
+        lookahead = computeLookahead(network);
+        outboxes = new Outbox[2][partitions][partitions];
+        for (Outbox[][] generationBoxes : outboxes) {
+            for (Outbox[] boxes : generationBoxes) {
+                for (int p = 0; p < partitions; p++) {
+                    boxes[p] = new Outbox();
+                }
+            }
+        }
+        time = simulator.getTime();
+        simulator.transferEvents(this);
+        simulator.setEngine(this);
+    }
+
+    private static Partitioner blocks(Simulator simulator, int partitions) {
+        int n = simulator.getTaskCount();
+        int[] ids = new int[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = simulator.getTask(i).getId();
+        }
+        Arrays.sort(ids);
+        final Map<Integer, Integer> partitionOfId = new HashMap<>();
+        for (int k = 0; k < n; k++) {
+            partitionOfId.put(ids[k], (int) ((long) k * partitions / n));
+        }
+        return new Partitioner() {
+            @Override
+            public int getPartition(int id) {
+                return partitionOfId.get(id);
+            }
+        };
+    }
+
+    private long computeLookahead(Network network) {
+        if (network.getTopology() != null) {
+            return network.getTopology().getMinDelay();
+        }
+        final long[] min = {Long.MAX_VALUE};
+        network.forEachLink(new Network.LinkVisitor() {
+            @Override
+            public void visit(Task src, Task dest, Link link) {
+                if (partitionOf[src.getIndex()] != partitionOf[dest.getIndex()]) {
+                    min[0] = Math.min(min[0], link.getMinDelay());
+                }
+            }
+        });
+        return min[0];
+    }
+
+    /**
+     * Get the minimum delay of links between different partitions.
+     *
+     * @return the lookahead or {@link Long#MAX_VALUE} if there are no such
+     * links
+     */
+    public long getLookahead() {
+        return lookahead;
+    }
+
+    public int getPartitions() {
+        return processes.length;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Limit how far processes may run ahead of the global virtual time in
+     * optimistic mode. Smaller windows cause fewer rollbacks but more rounds.
+     *
+     * @param window the maximum simulated time ahead of the global virtual
+     * time, unlimited by default
+     */
+    public void setWindow(long window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("window must be at least 1");
+        }
+        this.window = window;
+    }
+
+    /**
+     * Set the maximum number of events a process runs per round in optimistic
+     * mode, after which messages are exchanged and events committed.
+     *
+     * @param batchSize 1024 by default
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Get the number of events rolled back so far in optimistic mode.
+     *
+     * @return
+     */
+    public long getRollbackCount() {
+        long n = 0;
+        for (LogicalProcess process : processes) {
+            if (process instanceof TimeWarpProcess) {
+                n += ((TimeWarpProcess) process).getRollbacks();
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Get the time of the event run last.
+     *
+     * @return
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Get the number of events run so far (not counting events rolled back).
+     *
+     * @return
+     */
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    Simulator current() {
+        return current.get();
+    }
+
+    Simulator getProcess(int taskIndex) {
+        return processes[partitionOf[taskIndex]];
+    }
+
+    Simulator getGlobalProcess() {
+        return global;
+    }
+
+    int getPartition(int taskIndex) {
+        return partitionOf[taskIndex];
+    }
+
+    void post(int src, int dest, long time, long seq, Object msg, int destIndex) {
+        if (serial) {
+            if (msg instanceof Multicast) {
+                processes[dest].insertMulticast(time, seq, (Multicast) msg);
+            } else {
+                processes[dest].insert(time, seq, EventStore.DELIVER, destIndex, 0, msg);
+            }
+        } else {
+            outboxes[generation][src][dest].add(time, seq, destIndex, msg);
+        }
+    }
+
+    /**
+     * Cancel a message posted before.
+     */
+    void postAnti(int src, int dest, long time, long seq) {
+        if (serial) {
+            processes[dest].annihilate(time, seq);
+        } else {
+            outboxes[generation][src][dest].add(time, seq, -1, null);
+        }
+    }
+
+    public boolean isFinished() {
+        if (global.nextEventTime() != Long.MAX_VALUE) {
+            return false;
+        }
+        for (LogicalProcess process : processes) {
+            if (process.nextEventTime() != Long.MAX_VALUE) {
+                return false;
+            }
+        }
+        return nextOutboxTime() == Long.MAX_VALUE;
+    }
+
+    private long nextOutboxTime() {
+        long min = Long.MAX_VALUE;
+        for (Outbox[][] generationBoxes : outboxes) {
+            for (Outbox[] boxes : generationBoxes) {
+                for (Outbox box : boxes) {
+                    min = Math.min(min, box.minTime);
+                }
+            }
+        }
+        return min;
+    }
+
+    /**
+     * Run all events until no events are left.
+     */
+    public void run() {
+        runUntil(Long.MAX_VALUE);
+    }
+
+    /**
+     * Run all events with due time up to {@code until}.
+     *
+     * @param until
+     */
+    public void runUntil(long until) {
+        long end = until == Long.MAX_VALUE ? Long.MAX_VALUE : until + 1; // run events before end
+        if (mode == Mode.OPTIMISTIC) {
+            runOptimistic(end);
+        } else {
+            runConservative(end);
+        }
+        // Continue from the time bound (all events up to it have run) in all partitions
+        if (until != Long.MAX_VALUE && until > time) {
+            time = until;
+        }
+        global.setTime(time);
+        for (LogicalProcess process : processes) {
+            process.setTime(time);
+        }
+    }
+
+    private void runConservative(long end) {
+        while (true) {
+            long nextGlobal = global.nextEventTime();
+            long next = nextOutboxTime();
+            for (LogicalProcess process : processes) {
+                next = Math.min(next, process.nextEventTime());
+            }
+            long t = Math.min(nextGlobal, next);
+            if (t >= end) {
+                break;
+            }
+            if (next < nextGlobal && lookahead > 0) {
+                long windowEnd = next > Long.MAX_VALUE - lookahead ? Long.MAX_VALUE : next + lookahead;
+                runWindow(Math.min(windowEnd, Math.min(nextGlobal, end)));
+            } else {
+                runSerial(t);
+            }
+        }
+    }
+
+    private void runOptimistic(long end) {
+        while (true) {
+            long nextGlobal = global.nextEventTime();
+            long gvt = nextOutboxTime();
+            for (LogicalProcess process : processes) {
+                gvt = Math.min(gvt, process.nextEventTime());
+            }
+            long t = Math.min(nextGlobal, gvt);
+            if (t >= end) {
+                break;
+            }
+            if (gvt < nextGlobal) {
+                runRound(gvt, Math.min(nextGlobal, end));
+            } else {
+                // No process has run events at or after t, so all events are committed
+                commit(gvt);
+                runSerial(t);
+            }
+        }
+        commit(end);
+    }
+
+    /**
+     * Let all processes run the events before {@code end} in parallel.
+     *
+     * @param end
+     */
+    private void runWindow(final long end) {
+        final int received = generation;
+        generation = 1 - generation;
+        List<Callable<Long>> jobs = new ArrayList<>();
+        for (final LogicalProcess process : processes) {
+            jobs.add(new Callable<Long>() {
+                @Override
+                public Long call() {
+                    current.set(process);
+                    for (Outbox[] boxes : outboxes[received]) {
+                        boxes[process.partition].deliverTo(process);
+                    }
+                    return process.runBefore(end);
+                }
+            });
+        }
+        eventCount += invoke(jobs);
+        for (LogicalProcess process : processes) {
+            time = Math.max(time, process.getTime());
+        }
+    }
+
+    /**
+     * Let all processes commit the events before {@code gvt}, receive the
+     * messages of the last round and then run events before {@code limit}
+     * speculatively in parallel.
+     *
+     * @param gvt
+     * @param limit
+     */
+    private void runRound(final long gvt, long limit) {
+        final long end = gvt > Long.MAX_VALUE - window ? limit : Math.min(limit, gvt + window);
+        final int received = generation;
+        generation = 1 - generation;
+        List<Callable<Long>> jobs = new ArrayList<>();
+        for (final LogicalProcess process : processes) {
+            jobs.add(new Callable<Long>() {
+                @Override
+                public Long call() {
+                    TimeWarpProcess timeWarp = (TimeWarpProcess) process;
+                    current.set(process);
+                    long committed = timeWarp.commit(gvt);
+                    for (Outbox[] boxes : outboxes[received]) {
+                        boxes[process.partition].deliverTo(process);
+                    }
+                    timeWarp.runSpeculatively(end, batchSize);
+                    return committed;
+                }
+            });
+        }
+        eventCount += invoke(jobs);
+        for (LogicalProcess process : processes) {
+            time = Math.max(time, ((TimeWarpProcess) process).getCommittedTime());
+        }
+    }
+
+    /**
+     * Commit the events before {@code gvt} of all processes.
+     *
+     * @param gvt
+     */
+    private void commit(long gvt) {
+        for (LogicalProcess process : processes) {
+            TimeWarpProcess timeWarp = (TimeWarpProcess) process;
+            eventCount += timeWarp.commit(gvt);
+            time = Math.max(time, timeWarp.getCommittedTime());
+        }
+    }
+
+    /**
+     * Run jobs on the worker threads.
+     *
+     * @param jobs
+     * @return the sum of the results
+     */
+    private long invoke(List<Callable<Long>> jobs) {
+        long sum = 0;
+        serial = false;
+        try {
+            for (Future<Long> result : getExecutor().invokeAll(jobs)) {
+                sum += result.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while running in parallel", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new IllegalStateException(ex.getCause());
+        } finally {
+            serial = true;
+        }
+        writeLogs();
+        return sum;
+    }
+
+    /**
+     * Write the log entries kept back by the processes while running in
+     * parallel, ordered by time (and by partition for entries at the same
+     * time), as the entries of each process are.
+     */
+    private void writeLogs() {
+        int[] next = new int[processes.length];
+        while (true) {
+            int p = -1;
+            for (int q = 0; q < processes.length; q++) {
+                LogBuffer log = processes[q].getPendingLog();
+                if (next[q] < log.size() && (p < 0 || log.getTime(next[q]) < processes[p].getPendingLog().getTime(next[p]))) {
+                    p = q;
+                }
+            }
+            if (p < 0) {
+                break;
+            }
+            processes[p].getPendingLog().write(next[p]++, processes[p]);
+        }
+        for (LogicalProcess process : processes) {
+            process.getPendingLog().truncate(0);
+        }
+    }
+
+    boolean isSerial() {
+        return serial;
+    }
+
+    /**
+     * Run all events at time {@code t} on the calling thread, in the order of
+     * their sequence numbers.
+     *
+     * @param t
+     */
+    private void runSerial(long t) {
+        for (Outbox[][] generationBoxes : outboxes) {
+            for (Outbox[] boxes : generationBoxes) {
+                for (int p = 0; p < processes.length; p++) {
+                    boxes[p].deliverTo(processes[p]);
+                }
+            }
+        }
+        while (true) {
+            LogicalProcess next = global.nextEventTime() == t ? global : null;
+            for (LogicalProcess process : processes) {
+                if (process.nextEventTime() == t && (next == null || process.nextEventSeq() < next.nextEventSeq())) {
+                    next = process;
+                }
+            }
+            if (next == null) {
+                break;
+            }
+            current.set(next);
+            next.runNext();
+            eventCount++;
+        }
+        current.set(global);
+        time = t;
+    }
+
+    private ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(processes.length, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "asyncsim-worker");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Stop the worker threads. They are restarted when running again.
+     */
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2017 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.asyncsim;
+
+import java.util.Random;
+
+/**
+ * A Pareto distributed duration (heavy tail), truncated to a maximum so that
+ * due times cannot overflow.
+ *
+ * @author Felix Wiemuth
+ */
+public class ParetoDuration extends DistributedDuration {
+
+    private static final long serialVersionUID = 1L;
+
+    private final double scale;
+    private final double shape;
+    private final long max;
+
+    /**
+     * Create a duration truncated to {@code Long.MAX_VALUE / 2}.
+     *
+     * @param scale the minimum of the distribution
+     * @param shape the tail index (the smaller, the heavier the tail)
+     */
+    public ParetoDuration(double scale, double shape) {
+        this(scale, shape, Long.MAX_VALUE / 2);
+    }
+
+    /**
+     * @param scale the minimum of the distribution
+     * @param shape the tail index (the smaller, the heavier the tail)
+     * @param max the maximum duration
+     */
+    public ParetoDuration(double scale, double shape, long max) {
+        if (!(scale >= 0) || !(shape > 0) || max < scale) {
+            throw new IllegalArgumentException("Invalid parameters: scale " + scale + ", shape " + shape + ", max " + max);
+        }
+        this.scale = scale;
+        this.shape = shape;
+        this.max = max;
+    }
+
+    @Override
+    public long getDuration(Random random) {
+        double duration = scale / Math.pow(1 - random.nextDouble(), 1 / shape);
+        return duration < max ? (long) duration : max;
+    }
+
+    @Override
+    public long getMinDuration() {
+        return (long) scale;
+    }
+}
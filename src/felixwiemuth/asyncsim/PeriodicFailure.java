@@ -24,6 +24,8 @@ package felixwiemuth.asyncsim;
  */
 public class PeriodicFailure implements Link.MsgFailure {
 
+    private static final long serialVersionUID = 1L;
+
     private final int interval;
     private int cnt = 0;
 
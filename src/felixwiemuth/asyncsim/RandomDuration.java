@@ -20,27 +20,36 @@ package felixwiemuth.asyncsim;
 import java.util.Random;
 
 /**
+ * A normally distributed duration, truncated to {@code [0, 2*mean]} (and thus
+ * symmetrically distributed around the mean).
+ *
  * @author Felix Wiemuth
  */
-public class RandomDuration implements Duration {
+public class RandomDuration extends DistributedDuration {
+
+    private static final long serialVersionUID = 1L;
 
-    private final Random random;
     private final long mean;
     private final double variation;
 
+    public RandomDuration(long mean, double variation) {
+        this.mean = mean;
+        this.variation = variation;
+    }
+
     public RandomDuration(Random random, long mean, double variation) {
-        this.random = random;
+        super(random);
         this.mean = mean;
         this.variation = variation;
     }
 
     @Override
-    public long getDuration() {
+    public long getDuration(Random random) {
         long duration = -1;
         while (duration < 0 || duration > 2 * mean) { // makes sure that duration is within [0, 2*mean] (and thus symmetrically distributed around mean)
             double nextGaussian = random.nextGaussian();
             duration = (long) ((nextGaussian * variation) + mean);
         }
-        return 0;
+        return duration;
     }
 }
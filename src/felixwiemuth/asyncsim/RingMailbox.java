@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2017 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.asyncsim;
+
+import java.util.NoSuchElementException;
+
+/**
+ * A {@link Mailbox} storing the visible messages followed by the held
+ * messages in one ring buffer. Releasing the held messages only moves the
+ * boundary between the two parts, so no messages are copied when an action
+ * finishes. This is the default mailbox of a {@link Task}.
+ *
+ * @author Felix Wiemuth
+ */
+public final class RingMailbox implements Mailbox {
+
+    private static final long serialVersionUID = 1L;
+
+    private Message[] buffer;
+    private int head = 0; // position of the first visible message
+    private int visible = 0; // number of visible messages
+    private int held = 0; // number of held messages, stored after the visible ones
+
+    public RingMailbox() {
+        this(16);
+    }
+
+    /**
+     * @param capacity the initial capacity, rounded up to a power of two
+     */
+    public RingMailbox(int capacity) {
+        buffer = new Message[Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1];
+    }
+
+    private int pos(int i) {
+        return (head + i) & (buffer.length - 1);
+    }
+
+    private void ensureCapacity() {
+        if (visible + held == buffer.length) {
+            Message[] b = new Message[buffer.length << 1];
+            for (int i = 0; i < visible + held; i++) {
+                b[i] = buffer[pos(i)];
+            }
+            buffer = b;
+            head = 0;
+        }
+    }
+
+    @Override
+    public void add(Message msg) {
+        ensureCapacity();
+        for (int i = visible + held; i > visible; i--) { // keep the held messages behind the visible ones
+            buffer[pos(i)] = buffer[pos(i - 1)];
+        }
+        buffer[pos(visible)] = msg;
+        visible++;
+    }
+
+    @Override
+    public void addHeld(Message msg) {
+        ensureCapacity();
+        buffer[pos(visible + held)] = msg;
+        held++;
+    }
+
+    @Override
+    public int release() {
+        int n = held;
+        visible += held;
+        held = 0;
+        return n;
+    }
+
+    @Override
+    public Message peek() {
+        return visible == 0 ? null : buffer[head];
+    }
+
+    @Override
+    public Message poll() {
+        if (visible == 0) {
+            return null;
+        }
+        Message msg = buffer[head];
+        buffer[head] = null;
+        head = pos(1);
+        visible--;
+        return msg;
+    }
+
+    @Override
+    public void addFirst(Message msg) {
+        ensureCapacity();
+        head = pos(buffer.length - 1);
+        buffer[head] = msg;
+        visible++;
+    }
+
+    @Override
+    public Message removeLast() {
+        if (visible == 0) {
+            throw new NoSuchElementException();
+        }
+        visible--;
+        Message msg = buffer[pos(visible)];
+        for (int i = visible; i < visible + held; i++) {
+            buffer[pos(i)] = buffer[pos(i + 1)];
+        }
+        buffer[pos(visible + held)] = null;
+        return msg;
+    }
+
+    @Override
+    public Message removeLastHeld() {
+        if (held == 0) {
+            throw new NoSuchElementException();
+        }
+        held--;
+        int p = pos(visible + held);
+        Message msg = buffer[p];
+        buffer[p] = null;
+        return msg;
+    }
+
+    @Override
+    public void unrelease(int n) {
+        visible -= n;
+        held += n;
+    }
+
+    @Override
+    public int size() {
+        return visible;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return visible == 0;
+    }
+
+    @Override
+    public int heldCount() {
+        return held;
+    }
+}
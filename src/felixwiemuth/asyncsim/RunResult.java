@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2017 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.asyncsim;
+
+/**
+ * The result of running a {@link Simulator} with one of its {@code run}
+ * methods.
+ *
+ * @author Felix Wiemuth
+ */
+public final class RunResult {
+
+    private final long events;
+    private final long time;
+    private final boolean finished;
+
+    RunResult(long events, long time, boolean finished) {
+        this.events = events;
+        this.time = time;
+        this.finished = finished;
+    }
+
+    /**
+     * Get the number of events run.
+     *
+     * @return
+     */
+    public long getEvents() {
+        return events;
+    }
+
+    /**
+     * Get the simulated time after the run: the time bound of
+     * {@link Simulator#runUntil(long)} and {@link Simulator#runFor(long)},
+     * otherwise the due time of the event run last.
+     *
+     * @return
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Whether no events were left after the run.
+     *
+     * @return
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    @Override
+    public String toString() {
+        return "RunResult{" + "events=" + events + ", time=" + time + ", finished=" + finished + '}';
+    }
+}
@@ -0,0 +1,357 @@
+/*
+ * Copyright (C) 2017 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.asyncsim;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A message queue which, in addition to the arrival order, keeps the messages
+ * of each source, each data value and each data class in arrival order. The
+ * first message of a source or with a tag (see
+ * {@link Task#addCmd(Object, Task.Action)}) can thus be found and removed in
+ * constant time.
+ * <p>
+ * Removed messages keep their position so that removals can be undone in
+ * reverse order with {@link #reinsert(Node)}.
+ * <p>
+ * Held messages are kept in a separate queue and linked into the lists when
+ * they are released.
+ *
+ * @author Felix Wiemuth
+ */
+final class SelectiveMailbox implements Mailbox {
+
+    private static final long serialVersionUID = 1L;
+
+    // Lists a message is in
+    private static final int ARRIVAL = 0;
+    private static final int SOURCE = 1;
+    private static final int VALUE = 2;
+    private static final int CLASS = 3;
+    private static final int LISTS = 4;
+
+    static final class Node {
+
+        private final Message msg;
+        private final Node[] prev = new Node[LISTS];
+        private final Node[] next = new Node[LISTS];
+        private final Chain[] chains = new Chain[LISTS];
+
+        private Node(Message msg) {
+            this.msg = msg;
+        }
+
+        Message getMsg() {
+            return msg;
+        }
+    }
+
+    /**
+     * The messages of one list in order.
+     */
+    private static final class Chain {
+
+        private final Object key;
+        private Node first;
+        private Node last;
+
+        Chain(Object key) {
+            this.key = key;
+        }
+    }
+
+    private transient Chain arrival = new Chain(null);
+    private transient Map<Object, Chain> bySource = new HashMap<>();
+    private transient Map<Object, Chain> byValue = new HashMap<>();
+    private transient Map<Object, Chain> byClass = new HashMap<>();
+    private transient int size = 0;
+    private final Deque<Message> held = new ArrayDeque<>();
+
+    SelectiveMailbox() {
+    }
+
+    /**
+     * Create a mailbox with the visible and held messages of another mailbox,
+     * which is emptied.
+     *
+     * @param mailbox
+     */
+    SelectiveMailbox(Mailbox mailbox) {
+        for (Message msg = mailbox.poll(); msg != null; msg = mailbox.poll()) {
+            add(msg);
+        }
+        while (mailbox.heldCount() > 0) {
+            held.addFirst(mailbox.removeLastHeld());
+        }
+    }
+
+    private Map<Object, Chain> index(int list) {
+        switch (list) {
+            case SOURCE:
+                return bySource;
+            case VALUE:
+                return byValue;
+            default:
+                return byClass;
+        }
+    }
+
+    private Node createNode(Message msg) {
+        Node node = new Node(msg);
+        node.chains[ARRIVAL] = arrival;
+        node.chains[SOURCE] = chain(bySource, msg.getSrc());
+        node.chains[VALUE] = chain(byValue, msg.getData());
+        if (msg.getData() != null) {
+            node.chains[CLASS] = chain(byClass, msg.getData().getClass());
+        }
+        return node;
+    }
+
+    private static Chain chain(Map<Object, Chain> index, Object key) {
+        Chain chain = index.get(key);
+        if (chain == null) {
+            chain = new Chain(key);
+            index.put(key, chain);
+        }
+        return chain;
+    }
+
+    @Override
+    public void add(Message msg) {
+        Node node = createNode(msg);
+        for (int list = 0; list < LISTS; list++) {
+            Chain chain = node.chains[list];
+            if (chain != null) {
+                node.prev[list] = chain.last;
+                if (chain.last == null) {
+                    chain.first = node;
+                } else {
+                    chain.last.next[list] = node;
+                }
+                chain.last = node;
+            }
+        }
+        size++;
+    }
+
+    @Override
+    public void addFirst(Message msg) {
+        Node node = createNode(msg);
+        for (int list = 0; list < LISTS; list++) {
+            Chain chain = node.chains[list];
+            if (chain != null) {
+                node.next[list] = chain.first;
+                if (chain.first == null) {
+                    chain.last = node;
+                } else {
+                    chain.first.prev[list] = node;
+                }
+                chain.first = node;
+            }
+        }
+        size++;
+    }
+
+    /**
+     * Remove a message from all lists. The node keeps its neighbors for
+     * {@link #reinsert(Node)}.
+     *
+     * @param node
+     */
+    void remove(Node node) {
+        for (int list = 0; list < LISTS; list++) {
+            Chain chain = node.chains[list];
+            if (chain != null) {
+                Node p = node.prev[list];
+                Node n = node.next[list];
+                if (p == null) {
+                    chain.first = n;
+                } else {
+                    p.next[list] = n;
+                }
+                if (n == null) {
+                    chain.last = p;
+                } else {
+                    n.prev[list] = p;
+                }
+                if (chain.first == null && list != ARRIVAL) {
+                    index(list).remove(chain.key);
+                }
+            }
+        }
+        size--;
+    }
+
+    /**
+     * Undo the removal of a message. All changes made after the removal must
+     * have been undone before.
+     *
+     * @param node
+     */
+    void reinsert(Node node) {
+        for (int list = 0; list < LISTS; list++) {
+            Chain chain = node.chains[list];
+            if (chain != null) {
+                if (chain.first == null && list != ARRIVAL) {
+                    index(list).put(chain.key, chain);
+                }
+                Node p = node.prev[list];
+                Node n = node.next[list];
+                if (p == null) {
+                    chain.first = node;
+                } else {
+                    p.next[list] = node;
+                }
+                if (n == null) {
+                    chain.last = node;
+                } else {
+                    n.prev[list] = node;
+                }
+            }
+        }
+        size++;
+    }
+
+    @Override
+    public void addHeld(Message msg) {
+        held.add(msg);
+    }
+
+    @Override
+    public int release() {
+        int n = held.size();
+        for (Message msg : held) {
+            add(msg);
+        }
+        held.clear();
+        return n;
+    }
+
+    @Override
+    public void unrelease(int n) {
+        for (int i = 0; i < n; i++) {
+            held.addFirst(removeLast());
+        }
+    }
+
+    @Override
+    public Message peek() {
+        return arrival.first == null ? null : arrival.first.msg;
+    }
+
+    @Override
+    public Message poll() {
+        Node node = arrival.first;
+        if (node == null) {
+            return null;
+        }
+        remove(node);
+        return node.msg;
+    }
+
+    /**
+     * @return the node of the first message or null if empty
+     */
+    Node first() {
+        return arrival.first;
+    }
+
+    @Override
+    public Message removeLast() {
+        Node node = arrival.last;
+        remove(node);
+        return node.msg;
+    }
+
+    /**
+     * Get the first message from a source.
+     *
+     * @param src
+     * @return the node of the message or null if there is none
+     */
+    Node firstFrom(int src) {
+        Chain chain = bySource.get(src);
+        return chain == null ? null : chain.first;
+    }
+
+    /**
+     * Get the first message with a tag: a class matches messages whose data
+     * is of exactly this class, any other value matches equal data.
+     *
+     * @param tag
+     * @return the node of the message or null if there is none
+     */
+    Node firstWith(Object tag) {
+        Chain chain = tag instanceof Class ? byClass.get(tag) : byValue.get(tag);
+        return chain == null ? null : chain.first;
+    }
+
+    /**
+     * @param node
+     * @return whether the node holds the first message
+     */
+    boolean isFirst(Node node) {
+        return arrival.first == node;
+    }
+
+    @Override
+    public Message removeLastHeld() {
+        return held.removeLast();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public int heldCount() {
+        return held.size();
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(size);
+        for (Node node = arrival.first; node != null; node = node.next[ARRIVAL]) {
+            out.writeObject(node.msg);
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        arrival = new Chain(null);
+        bySource = new HashMap<>();
+        byValue = new HashMap<>();
+        byClass = new HashMap<>();
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            add((Message) in.readObject());
+        }
+    }
+}
@@ -17,30 +17,223 @@
 
 package felixwiemuth.asyncsim;
 
-import java.util.PriorityQueue;
+import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Random;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntPredicate;
+import java.util.function.Supplier;
 
 /**
+ * Runs the events of a simulation in the order of their due time. Runs are
+ * reproducible: all randomness is derived from the simulator's seed and events
+ * with equal due time are run in the order given by the {@link TieBreak}
+ * policy. Each task draws from its own random stream (see
+ * {@link #getRandom()}), so that its random choices do not depend on the
+ * order in which the tasks run.
+ *
  * @author Felix Wiemuth
  */
-public class Simulator {
+public class Simulator implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Determines the order in which events with equal due time are run.
+     */
+    public static enum TieBreak {
+        /**
+         * Events are run in the order they were added.
+         */
+        FIFO,
+        /**
+         * Events are ordered by the task which added them, events added by the
+         * same task in the order they were added. Events added with zero delay
+         * are run after the event adding them. Unlike {@link #FIFO}, this order
+         * does not depend on the order in which tasks run, so a
+         * {@link ParallelSimulator} runs the same as a sequential simulator.
+         */
+        TASK,
+        /**
+         * Events are run in a random order determined by the seed. As with
+         * {@link #TASK}, the order does not depend on the order in which tasks
+         * run.
+         */
+        RANDOM
+    }
+
+    /**
+     * Determines whether the events with equal due time are retrieved from the
+     * queue at once and run as a batch. Events added while running a batch
+     * with the same due time are run in the next batch.
+     * <p>
+     * Batches save work only with a queue which retrieves the events of a due
+     * time at once, such as {@link CalendarEventQueue}, which finds their
+     * bucket once. A {@link HeapEventQueue} takes as many heap operations as
+     * without batching.
+     */
+    public static enum Batching {
+        /**
+         * Events are retrieved one by one.
+         */
+        NONE,
+        /**
+         * Events are retrieved in batches and run in the order of their
+         * sequence numbers, which yields the same order as {@link #NONE}.
+         */
+        ORDERED,
+        /**
+         * Events are retrieved in batches, each of which is run in a random
+         * order determined by the seed.
+         */
+        SHUFFLED
+    }
+
+    /**
+     * The algorithm generating the random streams of tasks and of the
+     * simulator.
+     */
+    public static enum Generator {
+        /**
+         * The linear congruential generator of {@link Random}, which produces
+         * the same numbers as a {@link Random} with the seed of the stream.
+         */
+        LCG,
+        /**
+         * SplitMix64 (as used by {@link java.util.SplittableRandom}), which is
+         * faster and has better statistical properties.
+         */
+        SPLITMIX
+    }
+
+    // Ids of the streams which do not belong to a task (task ids are ints)
+    private static final long BATCH_STREAM = Long.MIN_VALUE;
+    private static final long SIMULATOR_STREAM = Long.MIN_VALUE + 1;
 
-    private final Log log;
+    static final int NO_TASK = Integer.MIN_VALUE; // log entries which do not belong to a task
+
+    private final Simulator root; // the simulator the tasks were created with (differs for logical processes of a ParallelSimulator)
+    private transient Log log; // not part of a snapshot
     private boolean logMsgSent = false;
     private boolean logMsgReceived = false;
-    private final Random random = new Random();
+    private final long seed;
+    private Generator generator = Generator.SPLITMIX;
+    private boolean streamsCreated = false;
+    private Random random; // the simulator's stream, created when first used
+    private TieBreak tieBreak = TieBreak.FIFO;
+    private Batching batching = Batching.NONE;
+    private int[] batch = new int[64]; // events of the current batch
+    private int batchPos = 0; // position of the next event in batch
+    private int batchEnd = 0;
+    private long batches = 0; // number of batches retrieved
+    private Random batchRandom; // for shuffling batches, created when first used
+    private long nextSeq = 0;
+    private long externalEvents = 0; // number of events added while no task was running
     private long time = 0;
     private final Duration defaultDuration;
-    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private final EventQueue events;
+    private final EventStore store = new EventStore();
+    private Task[] tasks = new Task[16]; // tasks by index, referenced by events
+    private int taskCount = 0;
+    private Task currentTask; // the task whose event is currently run
+    private long currentSeq = -1; // sequence number of the event currently run (-1 if none)
+    private int cancelled = 0; // number of cancelled events not removed yet
+    private transient ParallelSimulator engine; // set if the simulation is run by a parallel engine
+    private transient Network.MulticastBuffer multicastBuffer; // created when first used
 
     public Simulator(Log log) {
-        this.log = log;
-        this.defaultDuration = new FixedDuration(0);
+        this(new Random().nextLong(), log);
     }
 
     public Simulator(Log log, Duration defaultDuration) {
+        this(new Random().nextLong(), log, defaultDuration);
+    }
+
+    public Simulator(Log log, Duration defaultDuration, EventQueue events) {
+        this(new Random().nextLong(), log, defaultDuration, events);
+    }
+
+    public Simulator(long seed, Log log) {
+        this(seed, log, new FixedDuration(0));
+    }
+
+    public Simulator(long seed, Log log, Duration defaultDuration) {
+        this(seed, log, defaultDuration, new HeapEventQueue());
+    }
+
+    /**
+     *
+     * @param seed the seed of all randomness in the simulation
+     * @param log
+     * @param defaultDuration
+     * @param events the queue to hold pending events, e.g. a
+     * {@link CalendarEventQueue} for simulations with many pending events
+     */
+    public Simulator(long seed, Log log, Duration defaultDuration, EventQueue events) {
+        this.root = this;
+        this.seed = seed;
         this.log = log;
         this.defaultDuration = defaultDuration;
+        this.events = events;
+    }
+
+    /**
+     * Create a logical process of a parallel engine, which runs a part of the
+     * events of {@code root}.
+     *
+     * @param root
+     */
+    Simulator(Simulator root) {
+        this.root = root;
+        this.seed = root.seed;
+        this.log = root.log;
+        this.defaultDuration = root.defaultDuration;
+        this.tieBreak = root.tieBreak;
+        this.events = new HeapEventQueue();
+        this.time = root.time;
+    }
+
+    /**
+     * Get the seed of this simulator. A simulator created with the same seed
+     * (and the same tasks and network) runs exactly the same.
+     *
+     * @return
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Set the order of events with equal due time. Only affects events added
+     * afterwards.
+     *
+     * @param tieBreak
+     */
+    public void setTieBreak(TieBreak tieBreak) {
+        this.tieBreak = tieBreak;
+    }
+
+    public TieBreak getTieBreak() {
+        return tieBreak;
+    }
+
+    /**
+     * Set whether events with equal due time are run in batches.
+     *
+     * @param batching
+     */
+    public void setBatching(Batching batching) {
+        // Events already retrieved go back to the queue
+        for (int i = batchPos; i < batchEnd; i++) {
+            reinsert(batch[i]);
+        }
+        batchPos = 0;
+        batchEnd = 0;
+        this.batching = batching;
+    }
+
+    public Batching getBatching() {
+        return batching;
     }
 
     public void setLogMsgSent(boolean logMsgSent) {
@@ -51,8 +244,191 @@ public class Simulator {
         this.logMsgReceived = logMsgReceived;
     }
 
+    /**
+     * Register a task so that events can refer to it by its index.
+     *
+     * @param task
+     * @return the index of the task
+     */
+    int register(Task task) {
+        if (engine != null) {
+            throw new IllegalStateException("Cannot add tasks to a simulation run by a parallel engine");
+        }
+        if (taskCount == tasks.length) {
+            tasks = Arrays.copyOf(tasks, 2 * taskCount);
+        }
+        tasks[taskCount] = task;
+        return taskCount++;
+    }
+
+    Task getTask(int index) {
+        return root.tasks[index];
+    }
+
+    int getTaskCount() {
+        return root.taskCount;
+    }
+
+    /**
+     * Create a random stream which is determined by the seed and the given
+     * stream id.
+     *
+     * @param streamId
+     * @return
+     */
+    StreamRandom newRandom(long streamId) {
+        root.streamsCreated = true;
+        return StreamRandom.create(root.generator, mix(seed ^ mix(streamId + 0x9E3779B97F4A7C15L)));
+    }
+
+    /**
+     * Set the algorithm of the random streams ({@link Generator#SPLITMIX} by
+     * default).
+     *
+     * @param generator
+     * @throws IllegalStateException if random streams have been used already
+     */
+    public void setGenerator(Generator generator) {
+        if (root.streamsCreated) {
+            throw new IllegalStateException("The generator must be set before random numbers are used");
+        }
+        root.generator = generator;
+    }
+
+    public Generator getGenerator() {
+        return root.generator;
+    }
+
+    /**
+     * A bijective mixing function (finalizer of SplitMix64).
+     *
+     * @param z
+     * @return
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static final int GENERATION_BITS = 10;
+    private static final int CREATOR_BITS = 23;
+    private static final int COUNTER_BITS = 30;
+    private static final long ID_MASK = (1L << (CREATOR_BITS + COUNTER_BITS)) - 1;
+
+    /**
+     * Get the sequence number for a new event according to the
+     * {@link TieBreak} policy.
+     * <p>
+     * For {@link TieBreak#TASK} and {@link TieBreak#RANDOM}, an event is
+     * identified by the index of the task which added it and the number of
+     * events this task added before, independently of the order in which tasks
+     * run. The highest bits hold a generation which is increased for events
+     * added with zero delay, so that they are ordered after the event adding
+     * them. Then every event is run after the events it was added by and
+     * running the events sorted by time and sequence number yields the same
+     * order as running the next event repeatedly.
+     *
+     * @param time the due time of the new event
+     * @return
+     */
+    long nextSeq(long time) {
+        if (tieBreak == TieBreak.FIFO) {
+            return nextSeq++;
+        }
+        long id = currentTask == null ? root.externalEvents++ : ((long) (currentTask.getIndex() + 1) << COUNTER_BITS) | (currentTask.nextEventNumber() & ((1L << COUNTER_BITS) - 1));
+        if (tieBreak == TieBreak.RANDOM) {
+            id = scramble(id ^ seed);
+        }
+        long generation = 0;
+        if (currentSeq >= 0 && time == this.time) {
+            generation = Math.min((currentSeq >>> (CREATOR_BITS + COUNTER_BITS)) + 1, (1L << GENERATION_BITS) - 1);
+        }
+        return (generation << (CREATOR_BITS + COUNTER_BITS)) | (id & ID_MASK);
+    }
+
+    /**
+     * A bijective mixing function on the lower {@code CREATOR_BITS +
+     * COUNTER_BITS} bits.
+     *
+     * @param z
+     * @return
+     */
+    private static long scramble(long z) {
+        z &= ID_MASK;
+        z = (z * 0x5851F42D4C957F2DL) & ID_MASK;
+        z ^= z >>> 23;
+        z = (z * 0x14057B7EF767814FL) & ID_MASK;
+        return z ^ (z >>> 29);
+    }
+
+    private void schedule(long delay, int kind, int a, int b, Object ref) {
+        insert(time + delay, nextSeq(time + delay), kind, a, b, ref);
+    }
+
+    /**
+     * Add an event which can be cancelled, where the target is a
+     * {@link Runnable} or {@link Task.Action}. The event refers to the handle
+     * instead of the target.
+     *
+     * @return the handle of the event
+     */
+    private EventHandle scheduleCancellable(long delay, int kind, int a, Object target) {
+        EventHandle handle = new EventHandle(this, target);
+        handle.event = insert(time + delay, nextSeq(time + delay), kind, a, 0, handle);
+        return handle;
+    }
+
+    /**
+     * Add an event to the queue.
+     *
+     * @return the id of the event
+     */
+    int insert(long time, long seq, int kind, int a, int b, Object ref) {
+        int event = store.allocate(time, seq, kind, a, b, ref);
+        events.add(event, time, seq);
+        return event;
+    }
+
+    /**
+     * Add an event which is already in the store (again) to the queue.
+     *
+     * @param event
+     */
+    void reinsert(int event) {
+        events.add(event, store.getTime(event), store.getSeq(event));
+    }
+
+    EventStore getStore() {
+        return store;
+    }
+
+    /**
+     * @return the buffer for the multicasts sent while running events of this
+     * simulator
+     */
+    Network.MulticastBuffer getMulticastBuffer() {
+        if (multicastBuffer == null) {
+            multicastBuffer = new Network.MulticastBuffer();
+        }
+        return multicastBuffer;
+    }
+
+    /**
+     * Add an event running arbitrary code. When run by a
+     * {@link ParallelSimulator}, an event added while running an event of a
+     * task belongs to the logical process of that task and may only access
+     * that task.
+     *
+     * @param delay
+     * @param runnable
+     */
     public void addEvent(long delay, Runnable runnable) {
-        events.add(new Event(time + delay, runnable));
+        if (engine != null) {
+            engine.current().addEvent(delay, runnable);
+            return;
+        }
+        schedule(delay, EventStore.RUN, currentTask == null ? -1 : currentTask.getIndex(), 0, runnable);
     }
 
     /**
@@ -61,20 +437,486 @@ public class Simulator {
      * @param runnable
      */
     public void addEvent(Runnable runnable) {
-        events.add(new Event(time + defaultDuration.getDuration(), runnable));
+        addEvent(getDefaultDuration(), runnable);
+    }
+
+    /**
+     * Add an event as with {@link #addEvent(long, Runnable)} which can be
+     * cancelled before it is due. Unlike {@link #addEvent(long, Runnable)},
+     * this creates a handle for each event.
+     *
+     * @param delay
+     * @param runnable
+     * @return a handle to cancel the event
+     */
+    public EventHandle addCancellableEvent(long delay, Runnable runnable) {
+        if (engine != null) {
+            return engine.current().addCancellableEvent(delay, runnable);
+        }
+        return scheduleCancellable(delay, EventStore.RUN, currentTask == null ? -1 : currentTask.getIndex(), runnable);
+    }
+
+    long getDefaultDuration() {
+        return defaultDuration.getDuration(getRandom());
+    }
+
+    /**
+     * Deliver a message to a task after a given delay.
+     *
+     * @param delay
+     * @param msg
+     * @param dest
+     */
+    void addDelivery(long delay, Message msg, Task dest) {
+        if (engine != null) {
+            engine.current().addDelivery(delay, msg, dest);
+            return;
+        }
+        schedule(delay, EventStore.DELIVER, dest.getIndex(), 0, msg);
+    }
+
+    /**
+     * Deliver messages to several tasks after a given delay, by a single
+     * event.
+     *
+     * @param delay
+     * @param multicast
+     */
+    void addMulticast(long delay, Multicast multicast) {
+        if (engine != null) {
+            engine.current().addMulticast(delay, multicast);
+            return;
+        }
+        schedule(delay, EventStore.MULTICAST, -1, 0, multicast);
+    }
+
+    /**
+     * Deliver a message sent over a queued link after a given delay.
+     *
+     * @param delay
+     * @param msg
+     * @param dest
+     * @param link
+     */
+    void addLinkDelivery(long delay, Message msg, Task dest, Link link) {
+        if (engine != null) {
+            engine.current().addLinkDelivery(delay, msg, dest, link);
+            return;
+        }
+        long arrival = link.arrival(msg, time, time + delay);
+        LinkQueue queue = link.getQueue();
+        if (queue.add(arrival, nextSeq(arrival), msg, dest.getIndex(), batches, link.getDelivery() == Link.Delivery.FIFO)) {
+            if (queue.event >= 0) {
+                cancelEvent(queue.event);
+            }
+            queue.event = insert(arrival, queue.peekSeq(), EventStore.LINK, dest.getIndex(), 0, queue);
+        }
+    }
+
+    /**
+     * Add the event for the next message of a link queue after a delivery. If
+     * the message was sent before the current batch was retrieved, it belongs
+     * to this batch (as with a separate event), so the event is put into the
+     * batch at the position of its sequence number.
+     *
+     * @return the id of the event
+     */
+    private int insertLink(LinkQueue queue) {
+        long t = queue.peekTime();
+        long seq = queue.peekSeq();
+        if (batching != Batching.ORDERED || batchPos == batchEnd || store.getTime(batch[batchPos]) != t || queue.peekBatch() == batches) {
+            return insert(t, seq, EventStore.LINK, queue.peekDest(), 0, queue);
+        }
+        int event = store.allocate(t, seq, EventStore.LINK, queue.peekDest(), 0, queue);
+        if (batchEnd == batch.length) {
+            batch = Arrays.copyOf(batch, 2 * batchEnd);
+        }
+        int pos = batchEnd++;
+        while (pos > batchPos && store.getSeq(batch[pos - 1]) > seq) {
+            batch[pos] = batch[pos - 1];
+            pos--;
+        }
+        batch[pos] = event;
+        return event;
+    }
+
+    /**
+     * Add the delivery of the messages of a multicast, using a plain delivery
+     * event for a single message.
+     *
+     * @return the id of the event
+     */
+    int insertMulticast(long time, long seq, Multicast multicast) {
+        if (multicast.size() == 1) {
+            return insert(time, seq, EventStore.DELIVER, multicast.getDest(0), 0, multicast.getMsg(0));
+        }
+        return insert(time, seq, EventStore.MULTICAST, -1, 0, multicast);
+    }
+
+    /**
+     * Complete the running action of a task after a given delay.
+     *
+     * @param delay
+     * @param task
+     * @param actionNumber the number of the running action, to recognize
+     * actions which have been aborted
+     */
+    void addActionCompletion(long delay, Task task, int actionNumber) {
+        schedule(delay, EventStore.ACTION_DONE, task.getIndex(), actionNumber, null);
+    }
+
+    /**
+     * Make an action of a task ready for execution after a given delay.
+     *
+     * @param delay
+     * @param task
+     * @param action
+     */
+    void addWakeUp(long delay, Task task, Task.Action action) {
+        schedule(delay, EventStore.WAKE_UP, task.getIndex(), 0, action);
+    }
+
+    /**
+     * Make an action of a task ready for execution after a given delay unless
+     * cancelled before.
+     *
+     * @param delay
+     * @param task
+     * @param action
+     * @return a handle to cancel the wake-up
+     */
+    EventHandle addCancellableWakeUp(long delay, Task task, Task.Action action) {
+        return scheduleCancellable(delay, EventStore.WAKE_UP, task.getIndex(), action);
+    }
+
+    /**
+     * Cancel a pending event given by its handle.
+     *
+     * @param handle
+     */
+    void cancel(EventHandle handle) {
+        handle.cancelled = true;
+        cancelEvent(handle.event);
+    }
+
+    /**
+     * Mark an event in the queue as cancelled. It is removed lazily when it
+     * reaches the head of the queue, or together with the other cancelled
+     * events when they make up more than half of the queue.
+     *
+     * @param event
+     */
+    void cancelEvent(int event) {
+        Object ref = store.getRef(event);
+        if (ref instanceof EventHandle) {
+            ((EventHandle) ref).event = -1;
+        }
+        store.cancel(event);
+        cancelled++;
+        if (cancelled >= 64 && 2 * cancelled > events.size()) {
+            purgeCancelled();
+        }
+    }
+
+    /**
+     * Remove all cancelled events from the queue.
+     */
+    private void purgeCancelled() {
+        cancelled -= events.removeIf(new IntPredicate() {
+            @Override
+            public boolean test(int event) {
+                if (store.getKind(event) != EventStore.CANCELLED) {
+                    return false;
+                }
+                store.release(event);
+                return true;
+            }
+        });
     }
 
     public boolean isFinished() {
-        return events.isEmpty();
+        if (engine != null) {
+            return engine.isFinished();
+        }
+        return peekEvent() < 0;
+    }
+
+    /**
+     * Get the current simulated time, i.e., the due time of the event run
+     * last.
+     *
+     * @return
+     */
+    public long getTime() {
+        if (engine != null) {
+            return engine.current().getTime();
+        }
+        return time;
+    }
+
+    void setTime(long time) {
+        this.time = time;
     }
 
     public void step() {
-        //TODO check whether there are multiple events at the same time and execute in random order?
-        if (!events.isEmpty()) {
-            Event event = events.poll();
-            time = event.getTime();
-            event.run();
+        if (engine != null) {
+            throw new IllegalStateException("The simulation is run by a parallel engine");
         }
+        runNext();
+    }
+
+    /**
+     * Get the next event without removing it. Cancelled events at the head of
+     * the queue are removed.
+     *
+     * @return the id of the next event or -1 if there is none
+     */
+    int peekEvent() {
+        if (batching != Batching.NONE) {
+            while (true) {
+                while (batchPos < batchEnd) {
+                    int event = batch[batchPos];
+                    if (store.getKind(event) != EventStore.CANCELLED) {
+                        return event;
+                    }
+                    store.release(event);
+                    cancelled--;
+                    batchPos++;
+                }
+                if (!nextBatch()) {
+                    return -1;
+                }
+            }
+        }
+        int event;
+        while ((event = events.peek()) >= 0 && store.getKind(event) == EventStore.CANCELLED) {
+            events.poll();
+            store.release(event);
+            cancelled--;
+        }
+        return event;
+    }
+
+    /**
+     * Remove the event returned by {@link #peekEvent()}.
+     */
+    void removeEvent() {
+        if (batching != Batching.NONE) {
+            batchPos++;
+        } else {
+            events.poll();
+        }
+    }
+
+    /**
+     * Retrieve all events with the due time of the next event from the queue.
+     *
+     * @return false if the queue is empty
+     */
+    private boolean nextBatch() {
+        batchPos = 0;
+        batchEnd = 0;
+        int first = events.peek();
+        if (first < 0) {
+            return false;
+        }
+        long t = store.getTime(first);
+        batches++;
+        do {
+            if (batchEnd == batch.length) {
+                batch = Arrays.copyOf(batch, 2 * batchEnd);
+            }
+            batchEnd = events.pollAt(t, batch, batchEnd);
+        } while (batchEnd == batch.length);
+        if (batching == Batching.SHUFFLED) {
+            if (batchRandom == null) {
+                batchRandom = newRandom(BATCH_STREAM);
+            }
+            for (int i = batchEnd - 1; i > 0; i--) {
+                int j = batchRandom.nextInt(i + 1);
+                int event = batch[i];
+                batch[i] = batch[j];
+                batch[j] = event;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the due time of the next event.
+     *
+     * @return the due time or {@link Long#MAX_VALUE} if there are no events
+     */
+    long nextEventTime() {
+        int event = peekEvent();
+        return event < 0 ? Long.MAX_VALUE : store.getTime(event);
+    }
+
+    /**
+     * Get the sequence number of the next event. Requires that there is an
+     * event.
+     *
+     * @return
+     */
+    long nextEventSeq() {
+        return store.getSeq(peekEvent());
+    }
+
+    /**
+     * Run the next event (if any).
+     */
+    void runNext() {
+        int event = peekEvent();
+        if (event >= 0) {
+            removeEvent();
+            run(event);
+        }
+    }
+
+    /**
+     * Run all events with due time before {@code end}, including those added
+     * meanwhile.
+     *
+     * @param end
+     * @return the number of events run
+     */
+    long runBefore(long end) {
+        long n = 0;
+        int event;
+        while ((event = peekEvent()) >= 0 && store.getTime(event) < end) {
+            removeEvent();
+            run(event);
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Move all pending events to the logical processes of a parallel engine.
+     *
+     * @param engine
+     */
+    void transferEvents(ParallelSimulator engine) {
+        setBatching(Batching.NONE);
+        int event;
+        while ((event = events.poll()) >= 0) {
+            if (store.getKind(event) == EventStore.CANCELLED) {
+                store.release(event);
+                cancelled--;
+                continue;
+            }
+            int a = store.getA(event);
+            Object ref = store.getRef(event);
+            if (store.getKind(event) == EventStore.LINK) { // the messages in flight are delivered by separate events
+                LinkQueue queue = (LinkQueue) ref;
+                while (!queue.isEmpty()) {
+                    long t = queue.peekTime();
+                    long seq = queue.peekSeq();
+                    int dest = queue.peekDest();
+                    engine.getProcess(dest).insert(t, seq, EventStore.DELIVER, dest, 0, queue.poll());
+                }
+                queue.event = -1;
+                store.release(event);
+                continue;
+            }
+            if (store.getKind(event) == EventStore.MULTICAST) { // the tasks may belong to different partitions
+                for (int p = 0; p < engine.getPartitions(); p++) {
+                    Multicast part = ((Multicast) ref).part(engine, p);
+                    if (part != null) {
+                        engine.getProcess(part.getDest(0)).insertMulticast(store.getTime(event), store.getSeq(event), part);
+                    }
+                }
+                store.release(event);
+                continue;
+            }
+            Simulator target = a < 0 ? engine.getGlobalProcess() : engine.getProcess(a);
+            int moved = target.insert(store.getTime(event), store.getSeq(event), store.getKind(event), a, store.getB(event), ref);
+            if (ref instanceof EventHandle) {
+                ((EventHandle) ref).simulator = target;
+                ((EventHandle) ref).event = moved;
+            }
+            store.release(event);
+        }
+    }
+
+    void setEngine(ParallelSimulator engine) {
+        this.engine = engine;
+    }
+
+    private void run(int event) {
+        int kind = store.getKind(event);
+        int a = store.getA(event);
+        int b = store.getB(event);
+        Object ref = store.getRef(event);
+        time = store.getTime(event);
+        long seq = store.getSeq(event);
+        store.release(event); // the slot can already be reused by events added while running this one
+        dispatch(kind, a, b, ref, seq);
+    }
+
+    /**
+     * Run an event whose due time has been reached.
+     */
+    void dispatch(int kind, int a, int b, Object ref, long seq) {
+        Task[] tasks = root.tasks;
+        currentSeq = seq;
+        EventHandle handle;
+        switch (kind) {
+            case EventStore.RUN:
+                if (ref instanceof EventHandle) {
+                    handle = (EventHandle) ref;
+                    handle.event = -1;
+                    if (handle.cancelled) {
+                        break;
+                    }
+                    ref = handle.target;
+                }
+                currentTask = a < 0 ? null : tasks[a];
+                ((Runnable) ref).run();
+                break;
+            case EventStore.DELIVER:
+                currentTask = tasks[a];
+                Message msg = (Message) ref;
+                currentTask.addMsg(msg);
+                logMsgReceived(msg);
+                break;
+            case EventStore.LINK:
+                LinkQueue queue = (LinkQueue) ref;
+                currentTask = tasks[a];
+                Message first = queue.poll();
+                queue.event = queue.isEmpty() ? -1 : insertLink(queue);
+                currentTask.addMsg(first);
+                logMsgReceived(first);
+                break;
+            case EventStore.MULTICAST:
+                Multicast multicast = (Multicast) ref;
+                for (int i = 0; i < multicast.size(); i++) {
+                    currentTask = tasks[multicast.getDest(i)];
+                    currentTask.addMsg(multicast.getMsg(i));
+                    logMsgReceived(multicast.getMsg(i));
+                }
+                break;
+            case EventStore.ACTION_DONE:
+                currentTask = tasks[a];
+                currentTask.completeAction(b);
+                break;
+            case EventStore.WAKE_UP:
+                if (ref instanceof EventHandle) {
+                    handle = (EventHandle) ref;
+                    handle.event = -1;
+                    if (handle.cancelled) {
+                        break;
+                    }
+                    ref = handle.target;
+                }
+                currentTask = tasks[a];
+                currentTask.wakeUp((Task.Action) ref);
+                break;
+            default:
+                throw new IllegalStateException("Unknown event kind " + kind);
+        }
+        currentTask = null;
+        currentSeq = -1;
     }
 
     public void step(int n) {
@@ -83,23 +925,308 @@ public class Simulator {
         }
     }
 
+    /**
+     * Run all events with due time up to {@code until}, including those added
+     * meanwhile. Afterwards, the time is {@code until} (unless it is
+     * {@code Long.MAX_VALUE} or already passed), also if no event was due at
+     * that time.
+     *
+     * @param until
+     * @return
+     */
+    public RunResult runUntil(long until) {
+        if (engine != null) {
+            long events = engine.getEventCount();
+            engine.runUntil(until);
+            return new RunResult(engine.getEventCount() - events, engine.getTime(), engine.isFinished());
+        }
+        long events = runBefore(until == Long.MAX_VALUE ? Long.MAX_VALUE : until + 1);
+        if (until != Long.MAX_VALUE && until > time) {
+            time = until;
+        }
+        return new RunResult(events, time, isFinished());
+    }
+
+    /**
+     * Run all events within {@code duration} from the current time and move
+     * the time forward by {@code duration} (see {@link #runUntil(long)}).
+     *
+     * @param duration
+     * @return
+     */
+    public RunResult runFor(long duration) {
+        long now = getTime();
+        return runUntil(duration > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + duration);
+    }
+
+    /**
+     * Run events until no events are left.
+     *
+     * @return
+     */
+    public RunResult runToQuiescence() {
+        return runUntil(Long.MAX_VALUE);
+    }
+
+    /**
+     * Run events until {@code condition} holds or no events are left. The
+     * condition is checked before the first event and after each event.
+     *
+     * @param condition
+     * @return
+     */
+    public RunResult runUntil(BooleanSupplier condition) {
+        return runUntil(condition, -1);
+    }
+
+    /**
+     * Run events until {@code condition} holds or no events are left. The
+     * condition is checked before the first event and only after events of
+     * {@code task} (as the completion of its actions), which is sufficient
+     * if the condition only depends on the state of this task.
+     *
+     * @param condition
+     * @param task
+     * @return
+     */
+    public RunResult runUntil(BooleanSupplier condition, Task task) {
+        return runUntil(condition, task.getIndex());
+    }
+
+    private RunResult runUntil(BooleanSupplier condition, int taskIndex) {
+        return run(Long.MAX_VALUE, Long.MAX_VALUE, condition, taskIndex);
+    }
+
+    /**
+     * Run events until {@code condition} holds, {@code maxEvents} events have
+     * been run or no events with due time up to {@code until} are left.
+     *
+     * @param until
+     * @param maxEvents
+     * @param condition may be null
+     * @param taskIndex if not negative, check the condition only after events
+     * of the task with this index
+     * @return
+     */
+    RunResult run(long until, long maxEvents, BooleanSupplier condition, int taskIndex) {
+        if (engine != null) {
+            throw new IllegalStateException("The simulation is run by a parallel engine");
+        }
+        long n = 0;
+        if (condition == null || !condition.getAsBoolean()) {
+            int event;
+            while (n < maxEvents && (event = peekEvent()) >= 0 && store.getTime(event) <= until) {
+                removeEvent();
+                boolean check = condition != null && (taskIndex < 0 || store.getA(event) == taskIndex);
+                run(event);
+                n++;
+                if (check && condition.getAsBoolean()) {
+                    break;
+                }
+            }
+        }
+        return new RunResult(n, time, isFinished());
+    }
+
+    /**
+     * Get the random stream for the code currently run: while an event of a
+     * task is run, this is the task's own stream, otherwise the simulator's
+     * stream.
+     *
+     * @return
+     */
     public Random getRandom() {
-        return random;
+        if (engine != null) {
+            return engine.current().getRandom();
+        }
+        if (currentTask != null) {
+            return currentTask.getRandomStream();
+        }
+        if (root.random == null) {
+            root.random = newRandom(SIMULATOR_STREAM);
+        }
+        return root.random;
     }
 
+    /**
+     * Write a log entry of the simulator.
+     *
+     * @param msg
+     */
     public void log(String msg) {
-        log.log(time, msg);
+        log(Log.Level.INFO, Log.Category.SIMULATOR, msg);
+    }
+
+    /**
+     * Determine whether log entries with the given level and category are
+     * written. Entries which are expensive to create should only be created
+     * if this is the case (or passed as template or supplier).
+     *
+     * @param level
+     * @param category
+     * @return
+     */
+    public boolean isLogEnabled(Log.Level level, Log.Category category) {
+        return log.isEnabled(level, category);
+    }
+
+    /**
+     * Write a log entry if its level and category are enabled.
+     *
+     * @param level
+     * @param category
+     * @param msg
+     */
+    public void log(Log.Level level, Log.Category category, String msg) {
+        if (isLogEnabled(level, category)) {
+            logEntry(level, category, NO_TASK, msg);
+        }
+    }
+
+    /**
+     * Write an enabled log entry: a message or the text of an entry, of the
+     * given task or {@link #NO_TASK}.
+     *
+     * @param level
+     * @param category
+     * @param task
+     * @param entry a {@link Message} or a String
+     */
+    void logEntry(Log.Level level, Log.Category category, int task, Object entry) {
+        if (engine != null) {
+            engine.current().logEntry(level, category, task, entry);
+            return;
+        }
+        write(time, level, category, task, entry);
+    }
+
+    /**
+     * Write a log entry created by the given supplier, which is only called if
+     * the level and category are enabled.
+     *
+     * @param level
+     * @param category
+     * @param msg
+     */
+    public void log(Log.Level level, Log.Category category, Supplier<String> msg) {
+        if (isLogEnabled(level, category)) {
+            log(level, category, msg.get());
+        }
+    }
+
+    /**
+     * Write a log entry formatted as by {@link String#format(String, Object...)},
+     * which is only formatted if the level and category are enabled.
+     *
+     * @param level
+     * @param category
+     * @param format
+     * @param arg
+     */
+    public void log(Log.Level level, Log.Category category, String format, Object arg) {
+        if (isLogEnabled(level, category)) {
+            log(level, category, String.format(format, arg));
+        }
+    }
+
+    /**
+     * See {@link #log(Log.Level, Log.Category, String, Object)}.
+     *
+     * @param level
+     * @param category
+     * @param format
+     * @param arg1
+     * @param arg2
+     */
+    public void log(Log.Level level, Log.Category category, String format, Object arg1, Object arg2) {
+        if (isLogEnabled(level, category)) {
+            log(level, category, String.format(format, arg1, arg2));
+        }
+    }
+
+    /**
+     * See {@link #log(Log.Level, Log.Category, String, Object)}. Boxes the
+     * argument only if the entry is written.
+     *
+     * @param level
+     * @param category
+     * @param format
+     * @param arg
+     */
+    public void log(Log.Level level, Log.Category category, String format, long arg) {
+        if (isLogEnabled(level, category)) {
+            log(level, category, String.format(format, arg));
+        }
+    }
+
+    /**
+     * See {@link #log(Log.Level, Log.Category, String, Object)}. Boxes the
+     * arguments only if the entry is written.
+     *
+     * @param level
+     * @param category
+     * @param format
+     * @param arg1
+     * @param arg2
+     */
+    public void log(Log.Level level, Log.Category category, String format, long arg1, long arg2) {
+        if (isLogEnabled(level, category)) {
+            log(level, category, String.format(format, arg1, arg2));
+        }
+    }
+
+    /**
+     * See {@link #log(Log.Level, Log.Category, String, Object)}. Allocates the
+     * array of arguments even if the entry is not written.
+     *
+     * @param level
+     * @param category
+     * @param format
+     * @param args
+     */
+    public void log(Log.Level level, Log.Category category, String format, Object... args) {
+        if (isLogEnabled(level, category)) {
+            log(level, category, String.format(format, args));
+        }
+    }
+
+    void setLog(Log log) {
+        this.log = log;
+    }
+
+    boolean hasEngine() {
+        return engine != null;
+    }
+
+    /**
+     * Write a log entry for the given time.
+     *
+     * @param time
+     * @param level
+     * @param category
+     * @param task
+     * @param entry
+     * @see #logEntry(Log.Level, Log.Category, int, Object)
+     */
+    void write(long time, Log.Level level, Log.Category category, int task, Object entry) {
+        if (entry instanceof Message) {
+            log.logMsg(time, level, category, (Message) entry);
+        } else if (task != NO_TASK) {
+            log.logTask(time, level, task, (String) entry);
+        } else {
+            log.log(time, level, category, (String) entry);
+        }
     }
 
     public void logMsgSent(Message msg) {
-        if (logMsgSent) {
-            log("MSG SNT " + msg.format());
+        if (root.logMsgSent && isLogEnabled(Log.Level.INFO, Log.Category.MSG_SENT)) {
+            logEntry(Log.Level.INFO, Log.Category.MSG_SENT, NO_TASK, msg);
         }
     }
 
     public void logMsgReceived(Message msg) {
-        if (logMsgReceived) {
-            log("MSG RCV " + msg.format());
+        if (root.logMsgReceived && isLogEnabled(Log.Level.INFO, Log.Category.MSG_RECEIVED)) {
+            logEntry(Log.Level.INFO, Log.Category.MSG_RECEIVED, NO_TASK, msg);
         }
     }
 }
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2017 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.asyncsim;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The complete state of a simulation at one point in time: the simulator with
+ * its clock, pending events and random streams, all tasks with their message
+ * queues, waiting actions and fields, and the network with its links. A
+ * snapshot can be restored any number of times, each time yielding an
+ * independent copy of the simulation which continues from the state at the
+ * time the snapshot was taken. This allows to explore different branches of a
+ * simulation from a shared prefix.
+ * <p>
+ * Snapshots are based on Java serialization: all objects reachable from the
+ * network (tasks, actions, guards, links, message contents and runnables of
+ * events) must be serializable. The log is not part of a snapshot and is
+ * given when restoring it.
+ * <p>
+ * The classes of the simulator declare a {@code serialVersionUID}, so that
+ * saved snapshots remain readable after recompiling. This does not hold for
+ * anonymous classes (e.g., actions and guards of tasks), whose names are
+ * numbered by the compiler: a snapshot containing them can only be loaded by
+ * the same build. Tasks whose snapshots are kept should use named classes
+ * with a {@code serialVersionUID} for their actions and guards.
+ *
+ * @author Felix Wiemuth
+ */
+public final class Snapshot {
+
+    private static final int MAGIC = 0x41534e50; // "ASNP"
+    private static final int VERSION = 1;
+
+    private final byte[] data; // the serialized network
+
+    private Snapshot(byte[] data) {
+        this.data = data;
+    }
+
+    /**
+     * Take a snapshot of a network and its simulator.
+     *
+     * @param network
+     * @return
+     * @throws IllegalStateException if the simulation is run by a
+     * {@link ParallelSimulator} or contains objects which are not serializable
+     */
+    public static Snapshot take(Network network) {
+        if (network.getSimulator().hasEngine()) {
+            throw new IllegalStateException("Cannot take a snapshot of a simulation run by a parallel engine");
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(network);
+        } catch (NotSerializableException ex) {
+            throw new IllegalStateException("Simulation contains an object which is not serializable: " + ex.getMessage(), ex);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return new Snapshot(bytes.toByteArray());
+    }
+
+    /**
+     * Create a new copy of the simulation in the state of the snapshot.
+     *
+     * @param log the log for the new copy
+     * @return the network of the copy, which provides its simulator and tasks
+     */
+    public Network restore(Log log) {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            Network network = (Network) in.readObject();
+            network.getSimulator().setLog(log);
+            return network;
+        } catch (IOException | ClassNotFoundException ex) {
+            throw new IllegalStateException("Could not restore snapshot", ex);
+        }
+    }
+
+    /**
+     * Get the size of this snapshot in memory.
+     *
+     * @return the size in bytes
+     */
+    public int size() {
+        return data.length;
+    }
+
+    /**
+     * Write this snapshot in compressed form.
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void save(OutputStream out) throws IOException {
+        DataOutputStream header = new DataOutputStream(out);
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        header.writeInt(data.length);
+        header.flush();
+        DeflaterOutputStream compressed = new DeflaterOutputStream(out);
+        compressed.write(data);
+        compressed.finish();
+        compressed.flush();
+    }
+
+    /**
+     * Read a snapshot written with {@link #save(OutputStream)}.
+     *
+     * @param in
+     * @return
+     * @throws IOException
+     */
+    public static Snapshot load(InputStream in) throws IOException {
+        DataInputStream header = new DataInputStream(in);
+        if (header.readInt() != MAGIC) {
+            throw new IOException("Not a snapshot");
+        }
+        int version = header.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot version " + version);
+        }
+        byte[] data = new byte[header.readInt()];
+        new DataInputStream(new InflaterInputStream(in)).readFully(data);
+        return new Snapshot(data);
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2017 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.asyncsim;
+
+import java.util.Random;
+
+/**
+ * A random stream whose state can be saved and restored, generated by one of
+ * the algorithms of {@link Simulator.Generator}. It is not thread-safe: a
+ * stream belongs to one task.
+ *
+ * @author Felix Wiemuth
+ */
+abstract class StreamRandom extends Random {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The length of the arrays passed to {@link #save(long[])}.
+     */
+    static final int STATE_SIZE = 3;
+
+    private double nextNextGaussian;
+    private boolean haveNextNextGaussian;
+
+    StreamRandom(long seed) {
+        super(seed);
+    }
+
+    /**
+     * Create a stream with the given algorithm.
+     *
+     * @param generator
+     * @param seed
+     * @return
+     */
+    static StreamRandom create(Simulator.Generator generator, long seed) {
+        switch (generator) {
+            case LCG:
+                return new Lcg(seed);
+            case SPLITMIX:
+                return new SplitMix(seed);
+            default:
+                throw new IllegalArgumentException("Unknown generator " + generator);
+        }
+    }
+
+    @Override
+    public void setSeed(long seed) {
+        setState(seed);
+        haveNextNextGaussian = false;
+    }
+
+    abstract void setState(long seed);
+
+    abstract long getState();
+
+    @Override
+    public double nextGaussian() {
+        if (haveNextNextGaussian) {
+            haveNextNextGaussian = false;
+            return nextNextGaussian;
+        }
+        double v1, v2, s;
+        do {
+            v1 = 2 * nextDouble() - 1;
+            v2 = 2 * nextDouble() - 1;
+            s = v1 * v1 + v2 * v2;
+        } while (s >= 1 || s == 0);
+        double multiplier = StrictMath.sqrt(-2 * StrictMath.log(s) / s);
+        nextNextGaussian = v2 * multiplier;
+        haveNextNextGaussian = true;
+        return v1 * multiplier;
+    }
+
+    /**
+     * Save the state of this stream.
+     *
+     * @param saved an array of length {@link #STATE_SIZE} to store the state
+     * in
+     */
+    void save(long[] saved) {
+        saved[0] = getState();
+        saved[1] = Double.doubleToRawLongBits(nextNextGaussian);
+        saved[2] = haveNextNextGaussian ? 1 : 0;
+    }
+
+    /**
+     * Restore a state saved with {@link #save(long[])}.
+     *
+     * @param saved
+     */
+    void restore(long[] saved) {
+        setState(saved[0]);
+        nextNextGaussian = Double.longBitsToDouble(saved[1]);
+        haveNextNextGaussian = saved[2] != 0;
+    }
+
+    /**
+     * Produces the same numbers as {@link Random} with the same seed.
+     */
+    private static class Lcg extends StreamRandom {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final long MULTIPLIER = 0x5DEECE66DL;
+        private static final long ADDEND = 0xBL;
+        private static final long MASK = (1L << 48) - 1;
+
+        // Not initialized here as the constructor of Random calls setSeed()
+        private long state;
+
+        Lcg(long seed) {
+            super(seed);
+        }
+
+        @Override
+        void setState(long seed) {
+            state = (seed ^ MULTIPLIER) & MASK;
+        }
+
+        @Override
+        long getState() {
+            return state ^ MULTIPLIER;
+        }
+
+        @Override
+        protected int next(int bits) {
+            state = (state * MULTIPLIER + ADDEND) & MASK;
+            return (int) (state >>> (48 - bits));
+        }
+    }
+
+    /**
+     * SplitMix64 (as used by {@link java.util.SplittableRandom}): a 64-bit
+     * counter whose values are scrambled, which takes a few arithmetic
+     * operations per number and passes common statistical tests.
+     */
+    private static class SplitMix extends StreamRandom {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final long GAMMA = 0x9E3779B97F4A7C15L;
+
+        private long state;
+
+        SplitMix(long seed) {
+            super(seed);
+        }
+
+        @Override
+        void setState(long seed) {
+            state = seed;
+        }
+
+        @Override
+        long getState() {
+            return state;
+        }
+
+        @Override
+        public long nextLong() {
+            long z = state += GAMMA;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            return z ^ (z >>> 31);
+        }
+
+        @Override
+        protected int next(int bits) {
+            return (int) (nextLong() >>> (64 - bits));
+        }
+
+        @Override
+        public int nextInt() {
+            return (int) (nextLong() >>> 32);
+        }
+
+        @Override
+        public double nextDouble() {
+            return (nextLong() >>> 11) * 0x1.0p-53;
+        }
+
+        @Override
+        public boolean nextBoolean() {
+            return nextLong() < 0;
+        }
+    }
+}
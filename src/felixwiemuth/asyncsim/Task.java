@@ -17,12 +17,18 @@
 
 package felixwiemuth.asyncsim;
 
-import java.util.ArrayDeque;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Queue;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.function.Supplier;
 
 /**
  * A program consisting of {@link Guard}s and {@link Action}s. When in
@@ -33,9 +39,18 @@ import java.util.Set;
  *
  * @author Felix Wiemuth
  */
-public class Task {
+public class Task implements Serializable {
 
-    public interface Guard {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The input of a guard which reads the first message of the message queue
+     * (as with {@link #peekMsg()}) or, with selective receive (as with
+     * {@link #peekMsgFrom(int)}), any message.
+     */
+    public static final String MAILBOX = "mailbox";
+
+    public interface Guard extends Serializable {
 
         /**
          * Returns true if the corresponding {@link Action} should be executed.
@@ -44,9 +59,43 @@ public class Task {
          * @return
          */
         boolean check();
+
+        /**
+         * Get the inputs read by {@link #check()}: {@link Task#MAILBOX} and
+         * the names of task fields, whose changes are reported with
+         * {@link Task#changed(String)}. The guard is only checked again when one
+         * of them has changed.
+         *
+         * @return the inputs, or null (the default) if the guard may read
+         * anything and has to be checked every time the task is scheduled
+         */
+        default String[] getInputs() {
+            return null;
+        }
+    }
+
+    /**
+     * A {@link Guard} declaring its inputs on construction.
+     */
+    public static abstract class TrackedGuard implements Guard {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String[] inputs;
+
+        public TrackedGuard(String... inputs) {
+            this.inputs = inputs;
+        }
+
+        @Override
+        public String[] getInputs() {
+            return inputs;
+        }
     }
 
-    public abstract class Action {
+    public abstract class Action implements Serializable {
+
+        private static final long serialVersionUID = 1L;
 
         private final Duration duration;
 
@@ -63,7 +112,7 @@ public class Task {
         }
 
         public long getDuration() {
-            return duration.getDuration();
+            return duration.getDuration(getRandomStream());
         }
 
         /**
@@ -73,7 +122,9 @@ public class Task {
         public abstract void run();
     }
 
-    public class Command {
+    public class Command implements Serializable {
+
+        private static final long serialVersionUID = 1L;
 
         private final Guard guard;
         private final Action action;
@@ -92,6 +143,41 @@ public class Task {
         }
     }
 
+    /**
+     * The guard of a command registered against a message tag with
+     * {@link #addCmd(Object, int, Action)}: satisfied if the first message of
+     * the message queue matches the tag and source.
+     */
+    private class TagGuard implements Guard {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Object tag;
+        private final int src; // -1 for any source
+
+        TagGuard(Object tag, int src) {
+            this.tag = tag;
+            this.src = src;
+        }
+
+        @Override
+        public boolean check() {
+            Message msg = peekMsg();
+            return msg != null && matches(msg);
+        }
+
+        boolean matches(Message msg) {
+            Object data = msg.getData();
+            boolean tagMatches = tag instanceof Class ? data != null && data.getClass() == tag : tag.equals(data);
+            return tagMatches && (src < 0 || msg.getSrc() == src);
+        }
+
+        @Override
+        public String[] getInputs() {
+            return new String[]{MAILBOX};
+        }
+    }
+
     public static enum State {
         /**
          * The link delivers all messages.
@@ -103,24 +189,232 @@ public class Task {
         DEAD
     }
 
+    /**
+     * The state of a task apart from its message queues and waiting actions,
+     * saved before one of its events is run speculatively.
+     */
+    static final class SavedState {
+
+        private State state;
+        private boolean busy;
+        private Action runningAction;
+        private int actionNumber;
+        private long eventNumber;
+        private long[] random;
+        private long[] linkRandom;
+        private Object userState;
+    }
+
+    /**
+     * The fields saved by the default implementation of {@link #saveState()},
+     * by class.
+     */
+    private static final ClassValue<Field[]> STATE_FIELDS = new ClassValue<Field[]>() {
+        @Override
+        protected Field[] computeValue(Class<?> type) {
+            List<Field> fields = new ArrayList<>();
+            for (Class<?> c = type; c != Task.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (!Modifier.isStatic(modifiers) && !Modifier.isFinal(modifiers) && !field.isSynthetic()) {
+                        field.setAccessible(true);
+                        fields.add(field);
+                    }
+                }
+            }
+            return fields.toArray(new Field[fields.size()]);
+        }
+    };
+
     private final int id;
-    private final Simulator simulator;
+    private final int index; // index of this task in the simulator
+    private Simulator simulator; // replaced by a logical process when run by a ParallelSimulator
     private final Network network;
     private State state = State.ALIVE;
-    private final Queue<Message> msgQueue = new ArrayDeque<>(); // message queue as visible to the task
-    private final Queue<Message> busyMsgQueue = new ArrayDeque<>(); // queue for messages received during the execution of an action
+    private Mailbox mailbox; // replaced by a SelectiveMailbox once messages are received selectively
     private final List<Command> commands = new ArrayList<>();
+    // Bit sets over the commands: which guards are satisfied, which guards have to be checked again
+    private long[] enabled = new long[1];
+    private long[] recheck = new long[1];
+    private long[] unconditional = new long[1]; // guards without declared inputs
+    private long[] tagged = new long[1]; // commands registered against a message tag
+    private final Map<Object, long[]> tagIndex = new HashMap<>(); // commands by tag
+    private boolean headChanged = false; // whether the tagged commands have to be looked up again
+    private int enabledCount = 0;
+    private final Map<String, Integer> inputs = new HashMap<>(); // number of each input read by a guard
+    private long[][] dependents = new long[0][]; // bit sets of the commands reading an input, by number
     private final List<Action> waitingActions = new ArrayList<>(); // actions waiting for execution (added by task itself)
     private boolean busy = false;
+    private Action runningAction;
+    private int actionNumber = 0; // incremented for each action started and when the task dies
+    private long eventNumber = 0; // number of events added while running this task's events
+    private StreamRandom random; // created when first used
+    private StreamRandom linkRandom; // for the delays of messages sent, created when first used
+    private transient UndoLog undoLog; // set if run speculatively by an optimistic engine
 
     public Task(int id, Simulator simulator, Network network) {
+        this(id, simulator, network, new RingMailbox());
+    }
+
+    /**
+     * @param id
+     * @param simulator
+     * @param network
+     * @param mailbox the (empty) message queue to use
+     */
+    public Task(int id, Simulator simulator, Network network, Mailbox mailbox) {
         this.id = id;
         this.simulator = simulator;
         this.network = network;
+        this.mailbox = mailbox;
+        this.index = simulator.register(this);
     }
 
     protected void addCmd(Command cmd) {
+        int i = commands.size();
         commands.add(cmd);
+        int words = (i >> 6) + 1;
+        if (words > enabled.length) {
+            enabled = Arrays.copyOf(enabled, words);
+            recheck = Arrays.copyOf(recheck, words);
+            unconditional = Arrays.copyOf(unconditional, words);
+            tagged = Arrays.copyOf(tagged, words);
+            for (int k = 0; k < dependents.length; k++) {
+                dependents[k] = Arrays.copyOf(dependents[k], words);
+            }
+            for (Map.Entry<Object, long[]> entry : tagIndex.entrySet()) {
+                entry.setValue(Arrays.copyOf(entry.getValue(), words));
+            }
+        }
+        long bit = 1L << i;
+        if (cmd.guard instanceof TagGuard) {
+            tagged[i >> 6] |= bit;
+            long[] commandSet = tagIndex.get(((TagGuard) cmd.guard).tag);
+            if (commandSet == null) {
+                commandSet = new long[enabled.length];
+                tagIndex.put(((TagGuard) cmd.guard).tag, commandSet);
+            }
+            commandSet[i >> 6] |= bit;
+            headChanged = true;
+            return;
+        }
+        recheck[i >> 6] |= bit;
+        String[] reads = cmd.guard.getInputs();
+        if (reads == null) {
+            unconditional[i >> 6] |= bit;
+            return;
+        }
+        for (String input : reads) {
+            Integer k = inputs.get(input);
+            if (k == null) {
+                k = dependents.length;
+                inputs.put(input, k);
+                dependents = Arrays.copyOf(dependents, k + 1);
+                dependents[k] = new long[enabled.length];
+            }
+            dependents[k][i >> 6] |= bit;
+        }
+    }
+
+    /**
+     * Add a command whose action is run when the first message of the message
+     * queue has the given tag. The tag is either a {@link Class}, matching
+     * messages whose data is of exactly this class, or a value (as a string,
+     * an enum constant or an integer) which is compared to the data with
+     * {@link Object#equals(Object)}. Such commands are found by a hash lookup
+     * instead of checking a guard for each of them.
+     *
+     * @param tag
+     * @param action
+     */
+    protected void addCmd(Object tag, Action action) {
+        addCmd(tag, -1, action);
+    }
+
+    /**
+     * Add a command whose action is run when the first message of the message
+     * queue has the given tag and comes from the given source.
+     *
+     * @param tag see {@link #addCmd(Object, Action)}
+     * @param src the id of the source task, or -1 for any source
+     * @param action
+     */
+    protected void addCmd(Object tag, int src, Action action) {
+        if (tag == null) {
+            throw new IllegalArgumentException("The tag must not be null");
+        }
+        addCmd(new Command(new TagGuard(tag, src), action));
+    }
+
+    /**
+     * Report that an input of guards (see {@link Guard#getInputs()}) has
+     * changed, so that they are checked again when the task is scheduled.
+     *
+     * @param input
+     */
+    protected final void changed(String input) {
+        Integer k = inputs.get(input);
+        if (k != null) {
+            long[] commandSet = dependents[k];
+            for (int w = 0; w < commandSet.length; w++) {
+                recheck[w] |= commandSet[w];
+            }
+        }
+    }
+
+    /**
+     * Let all guards be checked again when the task is scheduled.
+     */
+    private void changedAll() {
+        for (int i = 0; i < commands.size(); i++) {
+            recheck[i >> 6] |= 1L << i;
+        }
+        headChanged = true;
+    }
+
+    /**
+     * Report that the first message of the message queue has changed.
+     */
+    private void changedHead() {
+        headChanged = true;
+        changed(MAILBOX);
+    }
+
+    /**
+     * Enable the tagged commands matching the first message of the message
+     * queue and disable the others.
+     */
+    private void lookUpTagged() {
+        for (int w = 0; w < enabled.length; w++) {
+            enabledCount -= Long.bitCount(enabled[w] & tagged[w]);
+            enabled[w] &= ~tagged[w];
+        }
+        Message msg = peekMsg();
+        if (msg == null) {
+            return;
+        }
+        Object data = msg.getData();
+        enableMatching(tagIndex.get(data), msg);
+        if (data != null) {
+            enableMatching(tagIndex.get(data.getClass()), msg);
+        }
+    }
+
+    private void enableMatching(long[] commandSet, Message msg) {
+        if (commandSet == null) {
+            return;
+        }
+        for (int w = 0; w < commandSet.length; w++) {
+            long candidates = commandSet[w] & ~enabled[w];
+            while (candidates != 0) {
+                long bit = Long.lowestOneBit(candidates);
+                candidates ^= bit;
+                if (((TagGuard) commands.get((w << 6) + Long.numberOfTrailingZeros(bit)).guard).matches(msg)) {
+                    enabled[w] |= bit;
+                    enabledCount++;
+                }
+            }
+        }
     }
 
     /**
@@ -133,56 +427,305 @@ public class Task {
     public void setState(State state) {
         this.state = state;
         if (state == State.ALIVE) {
+            changedAll();
             schedule();
         } else {
             busy = false;
+            actionNumber++; // abort running action
         }
     }
 
     /**
      * Checks which guards are satisfied and randomly chooses one of those or a
-     * waiting action to run.
+     * waiting action to run. Only the guards whose inputs have changed are
+     * checked again.
      */
     public void schedule() {
         if (busy || state == State.DEAD) {
             return;
         }
-        List<Action> canRun = new ArrayList<>();
-        for (Command cmd : commands) {
-            if (cmd.canRun()) {
-                canRun.add(cmd.getAction());
-            }
+        if (headChanged && !tagIndex.isEmpty()) {
+            lookUpTagged();
         }
-        canRun.addAll(waitingActions);
-        if (!canRun.isEmpty()) {
-            // Choose one command of those in canRun randomly
-            Action action = canRun.get(simulator.getRandom().nextInt(canRun.size()));
-            waitingActions.remove(action); // remove action from list of waiting actions if it was chosen from there
-            Runnable code = new Runnable() {
-                @Override
-                public void run() {
-                    if (state == State.ALIVE) {
-                        action.run();
-                        busy = false;
-                        msgQueue.addAll(busyMsgQueue);
-                        busyMsgQueue.clear();
-                        schedule();
-                    } // if task died while executing the action, it won't be performed
+        headChanged = false;
+        for (int w = 0; w < enabled.length; w++) {
+            long check = (recheck[w] | unconditional[w]) & ~tagged[w];
+            recheck[w] = 0;
+            while (check != 0) {
+                long bit = Long.lowestOneBit(check);
+                check ^= bit;
+                boolean canRun = commands.get((w << 6) + Long.numberOfTrailingZeros(bit)).canRun();
+                if (canRun != ((enabled[w] & bit) != 0)) {
+                    enabled[w] ^= bit;
+                    enabledCount += canRun ? 1 : -1;
                 }
-            };
-            if (action.hasDuration()) {
-                simulator.addEvent(action.getDuration(), code);
+            }
+        }
+        int n = enabledCount + waitingActions.size();
+        if (n > 0) {
+            // Choose one of the enabled commands and waiting actions randomly
+            int chosen = getRandom().nextInt(n);
+            Action action;
+            if (chosen < enabledCount) {
+                action = commands.get(selectEnabled(chosen)).getAction();
             } else {
-                simulator.addEvent(code);
+                int waiting = chosen - enabledCount;
+                action = waitingActions.remove(waiting);
+                record(UndoLog.ACTION_REMOVED, waiting, action);
             }
+            runningAction = action;
+            actionNumber++;
             busy = true;
+            simulator.addActionCompletion(action.hasDuration() ? action.getDuration() : simulator.getDefaultDuration(), this, actionNumber);
         }
     }
 
+    /**
+     * Get the index of the enabled command with the given rank.
+     *
+     * @param rank
+     * @return
+     */
+    private int selectEnabled(int rank) {
+        int w = 0;
+        int count;
+        while (rank >= (count = Long.bitCount(enabled[w]))) {
+            rank -= count;
+            w++;
+        }
+        long word = enabled[w];
+        for (int i = 0; i < rank; i++) {
+            word &= word - 1;
+        }
+        return (w << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    /**
+     * Run the action started with the given number and schedule the next
+     * action.
+     *
+     * @param actionNumber
+     */
+    void completeAction(int actionNumber) {
+        if (state == State.ALIVE && actionNumber == this.actionNumber) {
+            Action action = runningAction;
+            runningAction = null;
+            action.run();
+            busy = false;
+            if (mailbox.heldCount() > 0 && (isSelective() || mailbox.isEmpty())) {
+                changedHead();
+            }
+            record(UndoLog.MSGS_RELEASED, mailbox.release(), null);
+            schedule();
+        } // if task died while executing the action, it won't be performed
+    }
+
+    /**
+     * Make an action scheduled with
+     * {@link #scheduleAction(Action, Duration)} ready for execution.
+     *
+     * @param action
+     */
+    void wakeUp(Action action) {
+        waitingActions.add(action);
+        record(UndoLog.ACTION_ADDED, 0, null);
+        schedule();
+    }
+
     public int getId() {
         return id;
     }
 
+    int getIndex() {
+        return index;
+    }
+
+    /**
+     * Let this task run on another simulator (a logical process of a parallel
+     * engine).
+     *
+     * @param simulator
+     */
+    void bind(Simulator simulator) {
+        this.simulator = simulator;
+    }
+
+    long nextEventNumber() {
+        return eventNumber++;
+    }
+
+    /**
+     * Let changes to the message queues and waiting actions be recorded.
+     *
+     * @param undoLog
+     */
+    void setUndoLog(UndoLog undoLog) {
+        this.undoLog = undoLog;
+    }
+
+    private void record(int op, int arg, Object ref) {
+        if (undoLog != null) {
+            undoLog.add(this, op, arg, ref);
+        }
+    }
+
+    /**
+     * Undo a change recorded in an {@link UndoLog}.
+     *
+     * @param op
+     * @param arg
+     * @param ref
+     */
+    void undo(int op, int arg, Object ref) {
+        changedHead();
+        switch (op) {
+            case UndoLog.MSG_ADDED:
+                mailbox.removeLast();
+                break;
+            case UndoLog.BUSY_MSG_ADDED:
+                mailbox.removeLastHeld();
+                break;
+            case UndoLog.MSG_POLLED:
+                mailbox.addFirst((Message) ref);
+                break;
+            case UndoLog.MSG_REMOVED:
+                ((SelectiveMailbox) mailbox).reinsert((SelectiveMailbox.Node) ref);
+                break;
+            case UndoLog.MSGS_RELEASED:
+                mailbox.unrelease(arg);
+                break;
+            case UndoLog.ACTION_ADDED:
+                waitingActions.remove(waitingActions.size() - 1);
+                break;
+            case UndoLog.ACTION_REMOVED:
+                waitingActions.add(arg, (Action) ref);
+                break;
+            default:
+                throw new IllegalStateException("Unknown change " + op);
+        }
+    }
+
+    /**
+     * Save the state of this task which is not recorded in an {@link UndoLog}.
+     *
+     * @return
+     */
+    SavedState saveTaskState() {
+        SavedState saved = new SavedState();
+        saved.state = state;
+        saved.busy = busy;
+        saved.runningAction = runningAction;
+        saved.actionNumber = actionNumber;
+        saved.eventNumber = eventNumber;
+        if (random != null) {
+            saved.random = new long[StreamRandom.STATE_SIZE];
+            random.save(saved.random);
+        }
+        if (linkRandom != null) {
+            saved.linkRandom = new long[StreamRandom.STATE_SIZE];
+            linkRandom.save(saved.linkRandom);
+        }
+        saved.userState = saveState();
+        return saved;
+    }
+
+    void restoreTaskState(SavedState saved) {
+        state = saved.state;
+        busy = saved.busy;
+        runningAction = saved.runningAction;
+        actionNumber = saved.actionNumber;
+        eventNumber = saved.eventNumber;
+        if (saved.random == null) {
+            random = null;
+        } else {
+            random.restore(saved.random);
+        }
+        if (saved.linkRandom == null) {
+            linkRandom = null;
+        } else {
+            linkRandom.restore(saved.linkRandom);
+        }
+        restoreState(saved.userState);
+        changedAll();
+    }
+
+    /**
+     * Save the state of a subclass so that it can be restored with
+     * {@link #restoreState(Object)}. Used by an optimistic
+     * {@link ParallelSimulator} before running an event of this task
+     * speculatively.
+     * <p>
+     * The default implementation copies the values of all non-final instance
+     * fields declared by subclasses. Subclasses whose state includes mutable
+     * objects (as collections) must override both methods.
+     *
+     * @return the saved state
+     */
+    protected Object saveState() {
+        Field[] fields = STATE_FIELDS.get(getClass());
+        if (fields.length == 0) {
+            return null;
+        }
+        Object[] values = new Object[fields.length];
+        try {
+            for (int i = 0; i < fields.length; i++) {
+                values[i] = fields[i].get(this);
+            }
+        } catch (IllegalAccessException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return values;
+    }
+
+    /**
+     * Restore a state returned by {@link #saveState()}.
+     *
+     * @param state
+     */
+    protected void restoreState(Object state) {
+        if (state == null) {
+            return;
+        }
+        Field[] fields = STATE_FIELDS.get(getClass());
+        Object[] values = (Object[]) state;
+        try {
+            for (int i = 0; i < fields.length; i++) {
+                fields[i].set(this, values[i]);
+            }
+        } catch (IllegalAccessException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Get the random stream of this task, which is determined by the seed of
+     * the simulator and the task's id.
+     *
+     * @return
+     */
+    StreamRandom getRandomStream() {
+        if (random == null) {
+            random = simulator.newRandom(id);
+        }
+        return random;
+    }
+
+    /**
+     * Get the random stream for the delays of the messages this task sends
+     * over links, which is separate from the task's own stream so that random
+     * link delays do not change the choices of the task. Links shared by tasks
+     * thus draw from the stream of the sender, which does not depend on the
+     * partitioning of a parallel run.
+     *
+     * @return
+     */
+    StreamRandom getLinkRandomStream() {
+        if (linkRandom == null) {
+            linkRandom = simulator.newRandom((1L << 32) + id); // not the id of a task
+        }
+        return linkRandom;
+    }
+
     public Set<Integer> getNeighbors() {
         return network.getNeighbors(getId());
     }
@@ -191,23 +734,125 @@ public class Task {
         return network.getNeighbors(src);
     }
 
+    /**
+     * Get the ids of the neighbors without boxing (see
+     * {@link Network#getNeighborList(int)}).
+     *
+     * @return
+     */
+    public IntList getNeighborList() {
+        return network.getNeighborList(getId());
+    }
+
     public void addMsg(Message msg) {
         if (state == State.ALIVE) {
             if (busy) {
-                busyMsgQueue.add(msg);
+                mailbox.addHeld(msg);
+                record(UndoLog.BUSY_MSG_ADDED, 0, null);
             } else {
-                msgQueue.add(msg);
+                if (isSelective() || mailbox.isEmpty()) {
+                    changedHead();
+                }
+                mailbox.add(msg);
+                record(UndoLog.MSG_ADDED, 0, null);
                 schedule();
             }
         } // else ignore message
     }
 
     protected Message peekMsg() {
-        return msgQueue.peek();
+        return mailbox.peek();
     }
 
     protected Message pollMsg() {
-        return msgQueue.poll();
+        if (isSelective()) {
+            return removeMsg(((SelectiveMailbox) mailbox).first());
+        }
+        Message msg = mailbox.poll();
+        if (msg != null) {
+            changedHead();
+            record(UndoLog.MSG_POLLED, 0, msg);
+        }
+        return msg;
+    }
+
+    /**
+     * @return whether any message of the message queue can be removed (so
+     * that every new message can change what guards read)
+     */
+    private boolean isSelective() {
+        return mailbox instanceof SelectiveMailbox;
+    }
+
+    /**
+     * Switch to a message queue indexed by source and tag. Done when a message
+     * is received selectively for the first time, so that tasks receiving in
+     * order only use a plain queue.
+     */
+    private SelectiveMailbox getSelective() {
+        if (!isSelective()) {
+            mailbox = new SelectiveMailbox(mailbox);
+        }
+        return (SelectiveMailbox) mailbox;
+    }
+
+    /**
+     * Get the first message from a given source, which need not be the first
+     * message of the message queue.
+     *
+     * @param src
+     * @return the message or null if there is none
+     */
+    protected Message peekMsgFrom(int src) {
+        SelectiveMailbox.Node node = getSelective().firstFrom(src);
+        return node == null ? null : node.getMsg();
+    }
+
+    /**
+     * Remove the first message from a given source from the message queue.
+     *
+     * @param src
+     * @return the message or null if there is none
+     */
+    protected Message pollMsgFrom(int src) {
+        return removeMsg(getSelective().firstFrom(src));
+    }
+
+    /**
+     * Get the first message with a given tag (see
+     * {@link #addCmd(Object, Action)}), which need not be the first message of
+     * the message queue.
+     *
+     * @param tag
+     * @return the message or null if there is none
+     */
+    protected Message peekMsgWithTag(Object tag) {
+        SelectiveMailbox.Node node = getSelective().firstWith(tag);
+        return node == null ? null : node.getMsg();
+    }
+
+    /**
+     * Remove the first message with a given tag from the message queue.
+     *
+     * @param tag
+     * @return the message or null if there is none
+     */
+    protected Message pollMsgWithTag(Object tag) {
+        return removeMsg(getSelective().firstWith(tag));
+    }
+
+    private Message removeMsg(SelectiveMailbox.Node node) {
+        if (node == null) {
+            return null;
+        }
+        SelectiveMailbox selective = (SelectiveMailbox) mailbox;
+        changed(MAILBOX);
+        if (selective.isFirst(node)) {
+            headChanged = true;
+        }
+        selective.remove(node);
+        record(UndoLog.MSG_REMOVED, 0, node);
+        return node.getMsg();
     }
 
     protected boolean hasMsg() {
@@ -227,7 +872,40 @@ public class Task {
     }
 
     protected void sendMsg(int dest, Object data) {
-        network.sendMsg(new Message(id, dest, data));
+        network.sendMsg(simulator, new Message(id, dest, data));
+    }
+
+    /**
+     * Send the same data to several tasks. Cheaper than sending to each of
+     * them, as messages with the same delivery time are delivered by a single
+     * event.
+     *
+     * @param dests
+     * @param data
+     */
+    protected void multicast(Collection<Integer> dests, Object data) {
+        network.multicast(simulator, id, dests, data);
+    }
+
+    /**
+     * Send the same data to several tasks (see
+     * {@link #multicast(Collection, Object)}).
+     *
+     * @param dests
+     * @param data
+     */
+    protected void multicast(int[] dests, Object data) {
+        network.multicast(simulator, id, IntList.wrap(dests), data);
+    }
+
+    /**
+     * Send the same data to all neighbors (see
+     * {@link #multicast(Collection, Object)}).
+     *
+     * @param data
+     */
+    protected void broadcast(Object data) {
+        network.broadcast(simulator, id, data);
     }
 
     /**
@@ -238,20 +916,135 @@ public class Task {
      * @param delay
      */
     protected void scheduleAction(Action action, Duration delay) {
-        simulator.addEvent(delay.getDuration(), new Runnable() {
-            @Override
-            public void run() {
-                waitingActions.add(action);
-                schedule();
-            }
-        });
+        simulator.addWakeUp(delay.getDuration(getRandomStream()), this, action);
+    }
+
+    /**
+     * Schedule an {@link Action} as with
+     * {@link #scheduleAction(Action, Duration)} which can be cancelled before
+     * it becomes ready, e.g., a timeout which is not needed anymore.
+     *
+     * @param action
+     * @param delay
+     * @return a handle to cancel the action
+     */
+    protected EventHandle scheduleCancellableAction(Action action, Duration delay) {
+        return simulator.addCancellableWakeUp(delay.getDuration(getRandomStream()), this, action);
     }
 
     protected Random getRandom() {
-        return simulator.getRandom();
+        return getRandomStream();
     }
 
     protected void log(String msg) {
-        simulator.log(String.format("%2d: %s", getId(), msg));
+        log(Log.Level.INFO, msg);
+    }
+
+    /**
+     * Determine whether log entries of tasks with the given level are written
+     * (see {@link Simulator#isLogEnabled(Log.Level, Log.Category)}).
+     *
+     * @param level
+     * @return
+     */
+    protected boolean isLogEnabled(Log.Level level) {
+        return simulator.isLogEnabled(level, Log.Category.TASK);
+    }
+
+    /**
+     * Write a log entry, prefixed by the id of this task, if the level is
+     * enabled.
+     *
+     * @param level
+     * @param msg
+     */
+    protected void log(Log.Level level, String msg) {
+        if (isLogEnabled(level)) {
+            simulator.logEntry(level, Log.Category.TASK, id, msg);
+        }
+    }
+
+    /**
+     * Write a log entry created by the given supplier, which is only called if
+     * the level is enabled.
+     *
+     * @param level
+     * @param msg
+     */
+    protected void log(Log.Level level, Supplier<String> msg) {
+        if (isLogEnabled(level)) {
+            log(level, msg.get());
+        }
+    }
+
+    /**
+     * Write a log entry formatted as by {@link String#format(String, Object...)},
+     * which is only formatted if the level is enabled.
+     *
+     * @param level
+     * @param format
+     * @param arg
+     */
+    protected void log(Log.Level level, String format, Object arg) {
+        if (isLogEnabled(level)) {
+            log(level, String.format(format, arg));
+        }
+    }
+
+    /**
+     * See {@link #log(Log.Level, String, Object)}.
+     *
+     * @param level
+     * @param format
+     * @param arg1
+     * @param arg2
+     */
+    protected void log(Log.Level level, String format, Object arg1, Object arg2) {
+        if (isLogEnabled(level)) {
+            log(level, String.format(format, arg1, arg2));
+        }
+    }
+
+    /**
+     * See {@link #log(Log.Level, String, Object)}. Boxes the argument only if
+     * the entry is written.
+     *
+     * @param level
+     * @param format
+     * @param arg
+     */
+    protected void log(Log.Level level, String format, long arg) {
+        if (isLogEnabled(level)) {
+            log(level, String.format(format, arg));
+        }
+    }
+
+    /**
+     * See {@link #log(Log.Level, String, Object)}. Boxes the arguments only if
+     * the entry is written.
+     *
+     * @param level
+     * @param format
+     * @param arg1
+     * @param arg2
+     */
+    protected void log(Log.Level level, String format, long arg1, long arg2) {
+        if (isLogEnabled(level)) {
+            log(level, String.format(format, arg1, arg2));
+        }
+    }
+
+    /**
+     * See {@link #log(Log.Level, String, Object)}. Allocates the array of
+     * arguments even if the entry is not written.
+     *
+     * @param level
+     * @param format
+     * @param args
+     */
+    protected void log(Log.Level level, String format, Object... args) {
+        if (isLogEnabled(level)) {
+            log(level, String.format(format, args));
+        }
     }
 }
@@ -0,0 +1,356 @@
+/*
+ * Copyright (C) 2017 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.asyncsim;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A logical process which runs events speculatively (Time Warp). Before an
+ * event is run, the state of its task is saved: the changes to message queues
+ * and waiting actions are recorded in an {@link UndoLog}, the remaining state
+ * is saved in a {@link Task.SavedState}. When a message arrives which should
+ * have been run before events already run (a straggler), these events are
+ * rolled back: the state of their tasks is restored, the events they added are
+ * cancelled and anti-messages are sent for the messages they sent to other
+ * partitions. Log entries are kept back until the events are committed, which
+ * is when they are older than the global virtual time (GVT) and thus cannot be
+ * rolled back anymore.
+ *
+ * @author Felix Wiemuth
+ */
+final class TimeWarpProcess extends LogicalProcess {
+
+    private static final long serialVersionUID = 1L;
+
+    private final UndoLog undoLog = new UndoLog();
+    private boolean speculative = false; // whether the event currently run may be rolled back
+
+    // Events run but not committed yet (the history), oldest first, with the positions of the logs before they were run
+    private int[] histEvents = new int[64];
+    private Object[] histStates = new Object[64]; // a Task.SavedState, or an array of them for a multicast
+    private int[] histUndo = new int[64];
+    private int[] histCreated = new int[64];
+    private int[] histSent = new int[64];
+    private int[] histLogged = new int[64];
+    private int histSize = 0;
+
+    // Events of this process added by events of the history
+    private int[] created = new int[64];
+    private int createdSize = 0;
+
+    // Messages sent to other partitions by events of the history
+    private int[] sentPartitions = new int[64];
+    private long[] sentTimes = new long[64];
+    private long[] sentSeqs = new long[64];
+    private int sentSize = 0;
+
+    // Log entries of events of the history
+    private final transient LogBuffer logged = new LogBuffer();
+
+    private final Map<Long, Integer> received = new HashMap<>(); // events of messages received from other partitions by sequence number
+    private long committedTime;
+    private long rollbacks = 0;
+
+    TimeWarpProcess(Simulator root, ParallelSimulator engine, int partition) {
+        super(root, engine, partition);
+        committedTime = root.getTime();
+    }
+
+    @Override
+    void attach(Task task) {
+        super.attach(task);
+        task.setUndoLog(undoLog);
+    }
+
+    /**
+     * Get the time of the event committed last.
+     *
+     * @return
+     */
+    long getCommittedTime() {
+        return committedTime;
+    }
+
+    /**
+     * Get the number of events rolled back so far.
+     *
+     * @return
+     */
+    long getRollbacks() {
+        return rollbacks;
+    }
+
+    @Override
+    int insert(long time, long seq, int kind, int a, int b, Object ref) {
+        int event = super.insert(time, seq, kind, a, b, ref);
+        if (speculative) {
+            if (createdSize == created.length) {
+                created = Arrays.copyOf(created, 2 * createdSize);
+            }
+            created[createdSize++] = event;
+        }
+        return event;
+    }
+
+    @Override
+    void send(int destPartition, long time, long seq, Object msg, int destIndex) {
+        super.send(destPartition, time, seq, msg, destIndex);
+        if (speculative) {
+            if (sentSize == sentTimes.length) {
+                sentPartitions = Arrays.copyOf(sentPartitions, 2 * sentSize);
+                sentTimes = Arrays.copyOf(sentTimes, 2 * sentSize);
+                sentSeqs = Arrays.copyOf(sentSeqs, 2 * sentSize);
+            }
+            sentPartitions[sentSize] = destPartition;
+            sentTimes[sentSize] = time;
+            sentSeqs[sentSize] = seq;
+            sentSize++;
+        }
+    }
+
+    @Override
+    int receive(long time, long seq, Object msg, int destIndex) {
+        rollback(time, seq, false);
+        int event = super.receive(time, seq, msg, destIndex);
+        received.put(seq, event);
+        return event;
+    }
+
+    @Override
+    void annihilate(long time, long seq) {
+        Integer event = received.remove(seq);
+        if (event == null) {
+            throw new IllegalStateException("No message to cancel at time " + time);
+        }
+        rollback(time, seq, true);
+        cancelEvent(event);
+    }
+
+    /**
+     * Cancel an event by marking its handle only, so that cancelling can be
+     * undone on rollback. The event is skipped when it is run.
+     *
+     * @param handle
+     */
+    @Override
+    void cancel(EventHandle handle) {
+        handle.cancelled = true;
+        undoLog.add(null, UndoLog.EVENT_CANCELLED, 0, handle);
+    }
+
+    @Override
+    void logEntry(Log.Level level, Log.Category category, int task, Object entry) {
+        if (!speculative) {
+            super.logEntry(level, category, task, entry);
+            return;
+        }
+        logged.add(getTime(), level, category, task, entry);
+    }
+
+    @Override
+    void runNext() {
+        int event = peekEvent();
+        if (event >= 0 && isDelivery(getStore().getKind(event))) {
+            received.remove(getStore().getSeq(event));
+        }
+        super.runNext();
+    }
+
+    /**
+     * Run events with due time before {@code end} speculatively, including
+     * those added meanwhile.
+     *
+     * @param end
+     * @param max the maximum number of events to run
+     * @return the number of events run
+     */
+    long runSpeculatively(long end, long max) {
+        EventStore store = getStore();
+        long n = 0;
+        int event;
+        while (n < max && (event = peekEvent()) >= 0 && store.getTime(event) < end) {
+            removeEvent();
+            int a = store.getA(event);
+            if (histSize == histEvents.length) {
+                growHistory();
+            }
+            histEvents[histSize] = event;
+            histStates[histSize] = saveState(store.getKind(event), a, store.getRef(event));
+            histUndo[histSize] = undoLog.size();
+            histCreated[histSize] = createdSize;
+            histSent[histSize] = sentSize;
+            histLogged[histSize] = logged.size();
+            histSize++;
+            setTime(store.getTime(event));
+            speculative = true;
+            undoLog.setRecording(true);
+            try {
+                dispatch(store.getKind(event), a, store.getB(event), store.getRef(event), store.getSeq(event));
+            } finally {
+                speculative = false;
+                undoLog.setRecording(false);
+            }
+            n++;
+        }
+        return n;
+    }
+
+    private static boolean isDelivery(int kind) {
+        return kind == EventStore.DELIVER || kind == EventStore.MULTICAST;
+    }
+
+    /**
+     * Save the state of the tasks of an event which is about to be run.
+     *
+     * @return the state of the task, the states of the tasks of a multicast
+     * or null for an event without task
+     */
+    private Object saveState(int kind, int a, Object ref) {
+        if (kind == EventStore.MULTICAST) {
+            Multicast multicast = (Multicast) ref;
+            Task.SavedState[] states = new Task.SavedState[multicast.size()];
+            for (int i = 0; i < states.length; i++) {
+                states[i] = getTask(multicast.getDest(i)).saveTaskState();
+            }
+            return states;
+        }
+        return a < 0 ? null : getTask(a).saveTaskState();
+    }
+
+    /**
+     * Roll back the events of the history which are ordered after the given
+     * time and sequence number.
+     *
+     * @param time
+     * @param seq
+     * @param inclusive whether to also roll back the event with exactly this
+     * time and sequence number
+     */
+    private void rollback(long time, long seq, boolean inclusive) {
+        EventStore store = getStore();
+        while (histSize > 0) {
+            int event = histEvents[histSize - 1];
+            long t = store.getTime(event);
+            long s = store.getSeq(event);
+            if (t < time || t == time && (s < seq || s == seq && !inclusive)) {
+                break;
+            }
+            undo();
+        }
+    }
+
+    /**
+     * Undo the last event of the history and add it to the queue again.
+     */
+    private void undo() {
+        EventStore store = getStore();
+        int h = --histSize;
+        int event = histEvents[h];
+        undoLog.undo(histUndo[h]);
+        if (histStates[h] instanceof Task.SavedState) {
+            getTask(store.getA(event)).restoreTaskState((Task.SavedState) histStates[h]);
+        } else if (histStates[h] != null) {
+            Multicast multicast = (Multicast) store.getRef(event);
+            Task.SavedState[] states = (Task.SavedState[]) histStates[h];
+            for (int i = 0; i < states.length; i++) {
+                getTask(multicast.getDest(i)).restoreTaskState(states[i]);
+            }
+        }
+        histStates[h] = null;
+        // Events added by this event have not been run or have been rolled back before
+        for (int i = createdSize - 1; i >= histCreated[h]; i--) {
+            cancelEvent(created[i]);
+        }
+        createdSize = histCreated[h];
+        for (int i = histSent[h]; i < sentSize; i++) {
+            engine.postAnti(partition, sentPartitions[i], sentTimes[i], sentSeqs[i]);
+        }
+        sentSize = histSent[h];
+        logged.truncate(histLogged[h]);
+        reinsert(event);
+        if (store.getRef(event) instanceof EventHandle) {
+            ((EventHandle) store.getRef(event)).event = event;
+        }
+        rollbacks++;
+    }
+
+    /**
+     * Commit the events of the history with due time before {@code gvt}:
+     * write their log entries and free the state saved for them (fossil
+     * collection).
+     *
+     * @param gvt the global virtual time, before which no event can be rolled
+     * back
+     * @return the number of events committed
+     */
+    int commit(long gvt) {
+        EventStore store = getStore();
+        int n = 0;
+        while (n < histSize && store.getTime(histEvents[n]) < gvt) {
+            int event = histEvents[n];
+            committedTime = store.getTime(event);
+            if (isDelivery(store.getKind(event))) {
+                received.remove(store.getSeq(event));
+            }
+            store.release(event);
+            histStates[n] = null;
+            n++;
+        }
+        if (n == 0) {
+            return 0;
+        }
+        int undone = n < histSize ? histUndo[n] : undoLog.size();
+        int createdEnd = n < histSize ? histCreated[n] : createdSize;
+        int sentEnd = n < histSize ? histSent[n] : sentSize;
+        int loggedEnd = n < histSize ? histLogged[n] : logged.size();
+        for (int i = 0; i < loggedEnd; i++) {
+            logged.write(i, this);
+        }
+        undoLog.discard(undone);
+        createdSize -= createdEnd;
+        System.arraycopy(created, createdEnd, created, 0, createdSize);
+        sentSize -= sentEnd;
+        System.arraycopy(sentPartitions, sentEnd, sentPartitions, 0, sentSize);
+        System.arraycopy(sentTimes, sentEnd, sentTimes, 0, sentSize);
+        System.arraycopy(sentSeqs, sentEnd, sentSeqs, 0, sentSize);
+        logged.removeFirst(loggedEnd);
+        histSize -= n;
+        for (int h = 0; h < histSize; h++) {
+            histEvents[h] = histEvents[h + n];
+            histStates[h] = histStates[h + n];
+            histUndo[h] = histUndo[h + n] - undone;
+            histCreated[h] = histCreated[h + n] - createdEnd;
+            histSent[h] = histSent[h + n] - sentEnd;
+            histLogged[h] = histLogged[h + n] - loggedEnd;
+        }
+        Arrays.fill(histStates, histSize, histSize + n, null);
+        return n;
+    }
+
+    private void growHistory() {
+        int capacity = 2 * histEvents.length;
+        histEvents = Arrays.copyOf(histEvents, capacity);
+        histStates = Arrays.copyOf(histStates, capacity);
+        histUndo = Arrays.copyOf(histUndo, capacity);
+        histCreated = Arrays.copyOf(histCreated, capacity);
+        histSent = Arrays.copyOf(histSent, capacity);
+        histLogged = Arrays.copyOf(histLogged, capacity);
+    }
+}
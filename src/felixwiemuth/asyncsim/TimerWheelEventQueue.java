@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2017 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.asyncsim;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * An {@link EventQueue} implemented as a hierarchical timer wheel (G. Varghese
+ * and T. Lauck, "Hashed and Hierarchical Timing Wheels", 1987). It suits
+ * simulations where most events are due shortly after the current time, as
+ * timers and messages with small fixed delays: insertion and removal take O(1)
+ * time for such events.
+ * <p>
+ * Each of the {@link #LEVELS} wheels has 64 slots. An event is stored in the
+ * wheel of the highest group of 6 bits in which its time differs from the
+ * current time of the queue, in the slot given by these bits of its time. Thus
+ * the slots of the lowest wheel each hold the events of one point in time,
+ * sorted by sequence number. When the lowest wheel has no more events, the
+ * next non-empty slot of a higher wheel is moved down (cascaded). Events too
+ * far in the future (or, if added, in the past of the queue) are kept in a
+ * {@link HeapEventQueue}.
+ *
+ * @author Felix Wiemuth
+ */
+public class TimerWheelEventQueue implements EventQueue {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int LEVELS = 4;
+    private static final long HORIZON = 1L << (BITS * LEVELS); // events differing from now in higher bits go to the overflow queue
+
+    // List nodes (indexed by event id)
+    private long[] times = new long[64];
+    private long[] seqs = new long[64];
+    private int[] next = new int[64];
+
+    // Slots (first and last event of each list, -1 if empty) by level * SLOTS + slot
+    private final int[] first = new int[LEVELS * SLOTS];
+    private final int[] last = new int[LEVELS * SLOTS];
+    private final long[] occupied = new long[LEVELS]; // bit i set if slot i of the level is not empty
+    private final HeapEventQueue overflow = new HeapEventQueue();
+    private long now = 0; // no event in the wheels is earlier
+    private int size = 0; // number of events in the wheels
+
+    public TimerWheelEventQueue() {
+        Arrays.fill(first, -1);
+        Arrays.fill(last, -1);
+    }
+
+    @Override
+    public void add(int event, long time, long seq) {
+        if (event >= next.length) {
+            int capacity = Math.max(2 * next.length, event + 1);
+            times = Arrays.copyOf(times, capacity);
+            seqs = Arrays.copyOf(seqs, capacity);
+            next = Arrays.copyOf(next, capacity);
+        }
+        times[event] = time;
+        seqs[event] = seq;
+        if (time < now || (time ^ now) >= HORIZON) {
+            overflow.add(event, time, seq);
+        } else {
+            insert(event);
+            size++;
+        }
+    }
+
+    private boolean before(int e1, int e2) {
+        return times[e1] < times[e2] || (times[e1] == times[e2] && seqs[e1] < seqs[e2]);
+    }
+
+    /**
+     * Insert an event which is within the horizon into its slot. Slots of the
+     * lowest level are kept sorted.
+     *
+     * @param event
+     */
+    private void insert(int event) {
+        long diff = times[event] ^ now;
+        int level = diff == 0 ? 0 : (63 - Long.numberOfLeadingZeros(diff)) / BITS;
+        int slot = (int) (times[event] >>> (BITS * level)) & (SLOTS - 1);
+        int i = level * SLOTS + slot;
+        occupied[level] |= 1L << slot;
+        if (first[i] < 0) {
+            first[i] = event;
+            last[i] = event;
+            next[event] = -1;
+        } else if (level > 0 || before(last[i], event)) {
+            next[last[i]] = event;
+            last[i] = event;
+            next[event] = -1;
+        } else if (before(event, first[i])) {
+            next[event] = first[i];
+            first[i] = event;
+        } else {
+            int pos = first[i];
+            while (before(next[pos], event)) {
+                pos = next[pos];
+            }
+            next[event] = next[pos];
+            next[pos] = event;
+        }
+    }
+
+    /**
+     * Find the slot of the lowest level holding the next event of the wheels,
+     * cascading events of higher levels if necessary.
+     *
+     * @return the slot or -1 if the wheels are empty
+     */
+    private int locate() {
+        while (size > 0) {
+            if (occupied[0] != 0) {
+                return Long.numberOfTrailingZeros(occupied[0]);
+            }
+            // Move the next non-empty slot of the lowest possible level down
+            for (int level = 1; level < LEVELS; level++) {
+                if (occupied[level] != 0) {
+                    int slot = Long.numberOfTrailingZeros(occupied[level]);
+                    int shift = BITS * level;
+                    now = (now >>> (shift + BITS) << (shift + BITS)) | ((long) slot << shift);
+                    cascade(level * SLOTS + slot);
+                    occupied[level] &= ~(1L << slot);
+                    break;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private void cascade(int i) {
+        int event = first[i];
+        first[i] = -1;
+        last[i] = -1;
+        while (event >= 0) {
+            int following = next[event];
+            insert(event);
+            event = following;
+        }
+    }
+
+    /**
+     * Move the events of the overflow queue which are within the horizon of
+     * the next of them to the wheels.
+     */
+    private void refill() {
+        int event = overflow.peek();
+        if (event < 0 || times[event] < now) {
+            return;
+        }
+        now = times[event];
+        long end = (now | (HORIZON - 1)) + 1;
+        while ((event = overflow.peek()) >= 0 && times[event] >= now && (times[event] < end || end < 0)) {
+            overflow.poll();
+            insert(event);
+            size++;
+        }
+    }
+
+    /**
+     * Get the next event of the wheels or the overflow queue.
+     *
+     * @param remove whether to remove the event
+     * @return
+     */
+    private int next(boolean remove) {
+        if (size == 0) {
+            refill();
+        }
+        int slot = locate();
+        int other = overflow.peek();
+        if (slot < 0 || (other >= 0 && before(other, first[slot]))) {
+            return remove ? overflow.poll() : other;
+        }
+        int event = first[slot];
+        if (remove) {
+            first[slot] = next[event];
+            if (first[slot] < 0) {
+                last[slot] = -1;
+                occupied[0] &= ~(1L << slot);
+            }
+            size--;
+            now = times[event];
+        }
+        return event;
+    }
+
+    @Override
+    public int poll() {
+        return next(true);
+    }
+
+    @Override
+    public int peek() {
+        return next(false);
+    }
+
+    @Override
+    public int pollAt(long time, int[] buffer, int offset) {
+        int event;
+        while (offset < buffer.length && (event = peek()) >= 0 && times[event] == time) {
+            buffer[offset++] = poll();
+        }
+        return offset;
+    }
+
+    @Override
+    public int removeIf(IntPredicate filter) {
+        int removed = 0;
+        for (int level = 0; level < LEVELS; level++) {
+            for (int slot = 0; slot < SLOTS; slot++) {
+                int i = level * SLOTS + slot;
+                int prev = -1;
+                for (int event = first[i]; event >= 0; event = next[event]) {
+                    if (filter.test(event)) {
+                        if (prev < 0) {
+                            first[i] = next[event];
+                        } else {
+                            next[prev] = next[event];
+                        }
+                        removed++;
+                    } else {
+                        prev = event;
+                    }
+                }
+                last[i] = prev;
+                if (prev < 0) {
+                    occupied[level] &= ~(1L << slot);
+                }
+            }
+        }
+        size -= removed;
+        return removed + overflow.removeIf(filter);
+    }
+
+    @Override
+    public int size() {
+        return size + overflow.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+}
@@ -17,13 +17,49 @@
 
 package felixwiemuth.asyncsim;
 
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Random;
+
 /**
- * Generates different topologies in networks.
+ * Generates different topologies in networks. The generators link the tasks
+ * with ids {@code 1} to {@code n} (which need not have been added yet) and
+ * create the links with a {@link LinkFactory}, which may return the same link
+ * for many (or all) pairs of tasks (see {@link #shared(Link)}). Links of
+ * undirected graphs are added in both directions with the same link. Random
+ * graphs only depend on the state of the given random generator.
+ * <p>
+ * Full meshes and rings can also be used as {@link ImplicitTopology}, which
+ * computes the links instead of storing them.
  *
  * @author Felix Wiemuth
  */
 public class Topology {
 
+    /**
+     * Creates the link between two tasks.
+     */
+    public interface LinkFactory extends Serializable {
+
+        Link create(int src, int dest);
+    }
+
+    /**
+     * Get a factory which uses the same link for all pairs of tasks. Note
+     * that the state of the link (e.g., {@link Link.State}) is then shared.
+     *
+     * @param link
+     * @return
+     */
+    public static LinkFactory shared(final Link link) {
+        return new LinkFactory() {
+            @Override
+            public Link create(int src, int dest) {
+                return link;
+            }
+        };
+    }
+
     public static void linkFully(Network network, int duration) {
         for (int i = 1; i <= network.size(); i++) {
             for (int j = 1; j <= network.size(); j++) {
@@ -35,8 +71,536 @@ public class Topology {
     public static void addRing(Network network, int duration) {
         for (int i = 1; i < network.size(); i++) {
             network.addLink(i, i + 1, new Link(duration));
-            network.addLink(network.size(), 1, new Link(duration));
+        }
+        network.addLink(network.size(), 1, new Link(duration));
+    }
+
+    /**
+     * Get a full mesh of the tasks {@code 1} to {@code n} whose links are
+     * computed, e.g., with a delay depending on source and destination.
+     *
+     * @param n
+     * @param selfLinks whether tasks have a link to themselves
+     * @param links creates the links on every lookup
+     * @return
+     */
+    public static ImplicitTopology fullMesh(int n, boolean selfLinks, LinkFactory links) {
+        return new Mesh(n, selfLinks, links, null);
+    }
+
+    /**
+     * Get a full mesh of the tasks {@code 1} to {@code n} where all pairs of
+     * tasks share one link.
+     *
+     * @param n
+     * @param selfLinks whether tasks have a link to themselves
+     * @param link
+     * @return
+     */
+    public static ImplicitTopology fullMesh(int n, boolean selfLinks, Link link) {
+        return new Mesh(n, selfLinks, shared(link), link);
+    }
+
+    /**
+     * Get a ring of the tasks {@code 1} to {@code n}, where each task is
+     * linked to the previous and next task in both directions.
+     *
+     * @param n
+     * @param links creates the links on every lookup
+     * @return
+     */
+    public static ImplicitTopology ring(int n, LinkFactory links) {
+        return new Ring(n, links);
+    }
+
+    /**
+     * Computes the minimum delay of the links of all pairs of tasks
+     * {@code 1} to {@code n} with the given neighbors.
+     */
+    private static long minDelay(ImplicitTopology topology, int n) {
+        long min = Long.MAX_VALUE;
+        for (int i = 1; i <= n; i++) {
+            IntList neighbors = topology.getNeighbors(i);
+            for (int k = 0; k < neighbors.size(); k++) {
+                min = Math.min(min, topology.getLink(i, neighbors.get(k)).getMinDelay());
+            }
+        }
+        return min;
+    }
+
+    private static class Mesh implements ImplicitTopology {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int n;
+        private final boolean selfLinks;
+        private final LinkFactory links;
+        private final Link shared;
+        private long minDelay = -1; // computed when first needed
+
+        Mesh(int n, boolean selfLinks, LinkFactory links, Link shared) {
+            this.n = n;
+            this.selfLinks = selfLinks;
+            this.links = links;
+            this.shared = shared;
+        }
+
+        private boolean contains(int id) {
+            return id >= 1 && id <= n;
+        }
+
+        @Override
+        public IntList getNeighbors(final int src) {
+            if (!contains(src)) {
+                return IntList.empty();
+            }
+            return new IntList() {
+                @Override
+                public int size() {
+                    return selfLinks ? n : n - 1;
+                }
+
+                @Override
+                public int get(int i) {
+                    if (i < 0 || i >= size()) {
+                        throw new IndexOutOfBoundsException("Index " + i + " out of bounds for size " + size());
+                    }
+                    return selfLinks || i + 1 < src ? i + 1 : i + 2;
+                }
+            };
+        }
+
+        @Override
+        public Link getLink(int src, int dest) {
+            if (!contains(src) || !contains(dest) || (src == dest && !selfLinks)) {
+                return null;
+            }
+            return links.create(src, dest);
+        }
+
+        @Override
+        public long getMinDelay() {
+            if (shared != null) {
+                return shared.getMinDelay();
+            }
+            if (minDelay < 0) {
+                minDelay = minDelay(this, n);
+            }
+            return minDelay;
+        }
+    }
+
+    private static class Ring implements ImplicitTopology {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int n;
+        private final LinkFactory links;
+        private long minDelay = -1; // computed when first needed
+
+        Ring(int n, LinkFactory links) {
+            this.n = n;
+            this.links = links;
+        }
+
+        @Override
+        public IntList getNeighbors(int src) {
+            if (src < 1 || src > n || n == 1) {
+                return IntList.empty();
+            }
+            int prev = src == 1 ? n : src - 1;
+            int next = src == n ? 1 : src + 1;
+            if (prev == next) {
+                return IntList.wrap(prev);
+            }
+            return prev < next ? IntList.wrap(prev, next) : IntList.wrap(next, prev);
+        }
+
+        @Override
+        public Link getLink(int src, int dest) {
+            if (src < 1 || src > n || n == 1) {
+                return null;
+            }
+            if (dest == (src == 1 ? n : src - 1) || dest == (src == n ? 1 : src + 1)) {
+                return links.create(src, dest);
+            }
+            return null;
+        }
+
+        @Override
+        public long getMinDelay() {
+            if (minDelay < 0) {
+                minDelay = minDelay(this, n);
+            }
+            return minDelay;
+        }
+    }
+
+    /**
+     * Add an undirected edge between the tasks with (zero-based) indices
+     * {@code u} and {@code v}.
+     */
+    private static void edge(Network network, LinkFactory links, int u, int v) {
+        network.addTwoWayLink(u + 1, v + 1, links.create(u + 1, v + 1));
+    }
+
+    /**
+     * Erdos-Renyi random graph G(n, p): each pair of distinct tasks is linked
+     * with probability {@code p}. Takes time linear in the number of edges.
+     *
+     * @param network
+     * @param n
+     * @param p
+     * @param random
+     * @param links
+     */
+    public static void erdosRenyi(Network network, int n, double p, Random random, LinkFactory links) {
+        if (p < 0 || p > 1) {
+            throw new IllegalArgumentException("Invalid probability " + p);
+        }
+        if (p == 0) {
+            return;
+        }
+        network.ensureLinkCapacity((long) (p * n * (n - 1)));
+        // Skip the pairs which are not linked (Batagelj and Brandes)
+        double logQ = Math.log(1 - p);
+        int v = 1;
+        long w = -1;
+        while (v < n) {
+            w += p == 1 ? 1 : 1 + (long) (Math.log(1 - random.nextDouble()) / logQ);
+            while (w >= v && v < n) {
+                w -= v;
+                v++;
+            }
+            if (v < n) {
+                edge(network, links, v, (int) w);
+            }
+        }
+    }
+
+    /**
+     * Barabasi-Albert preferential attachment graph: starting with {@code m}
+     * unlinked tasks, each further task is linked to {@code m} distinct
+     * earlier tasks chosen with probability proportional to their degree.
+     *
+     * @param network
+     * @param n
+     * @param m
+     * @param random
+     * @param links
+     */
+    public static void barabasiAlbert(Network network, int n, int m, Random random, LinkFactory links) {
+        if (m < 1 || m >= n) {
+            throw new IllegalArgumentException("Invalid number of links per task " + m + " for " + n + " tasks");
+        }
+        long endCount = 2L * m * (n - m);
+        if (endCount > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Too many links for " + n + " tasks with " + m + " links per task");
+        }
+        network.ensureLinkCapacity(endCount);
+        // Both ends of all edges, so that a task appears as often as its degree
+        int[] ends = new int[(int) endCount];
+        int size = 0;
+        int[] targets = new int[m];
+        for (int i = 0; i < m; i++) {
+            targets[i] = i;
+        }
+        for (int v = m; v < n; v++) {
+            if (v > m) {
+                for (int i = 0; i < m; i++) {
+                    int t;
+                    do {
+                        t = ends[random.nextInt(size)];
+                    } while (contains(targets, i, t));
+                    targets[i] = t;
+                }
+            }
+            for (int i = 0; i < m; i++) {
+                edge(network, links, v, targets[i]);
+                ends[size++] = v;
+                ends[size++] = targets[i];
+            }
+        }
+    }
+
+    /**
+     * Watts-Strogatz small-world graph: a ring where each task is linked to
+     * its {@code k / 2} next tasks in both directions, and the far end of
+     * each edge is moved to a random task with probability {@code beta}
+     * (avoiding self-loops and duplicate edges).
+     *
+     * @param network
+     * @param n
+     * @param k even number of neighbors of each task in the ring
+     * @param beta
+     * @param random
+     * @param links
+     */
+    public static void wattsStrogatz(Network network, int n, int k, double beta, Random random, LinkFactory links) {
+        if (k % 2 != 0 || k < 0 || k >= n) {
+            throw new IllegalArgumentException("Invalid number of neighbors " + k + " for " + n + " tasks");
+        }
+        long edgeCount = (long) n * (k / 2);
+        if (edgeCount > EdgeSet.MAX_CAPACITY) {
+            throw new IllegalArgumentException("Too many links for " + n + " tasks with " + k + " neighbors");
+        }
+        int m = (int) edgeCount;
+        network.ensureLinkCapacity(2L * m);
+        int[] from = new int[m];
+        int[] to = new int[m];
+        EdgeSet edges = new EdgeSet(m);
+        int e = 0;
+        for (int j = 1; j <= k / 2; j++) {
+            for (int v = 0; v < n; v++) {
+                from[e] = v;
+                to[e] = (v + j) % n;
+                edges.add(v, to[e]);
+                e++;
+            }
+        }
+        for (e = 0; e < m; e++) {
+            if (random.nextDouble() < beta) {
+                int v = from[e];
+                // Give up after some attempts, which only happens for (nearly) complete graphs
+                for (int attempt = 0; attempt < 64; attempt++) {
+                    int u = random.nextInt(n);
+                    if (u != v && !edges.contains(v, u)) {
+                        edges.remove(v, to[e]);
+                        edges.add(v, u);
+                        to[e] = u;
+                        break;
+                    }
+                }
+            }
+            edge(network, links, from[e], to[e]);
+        }
+    }
+
+    /**
+     * Two-dimensional grid where each task is linked to the tasks above,
+     * below, left and right of it. Task {@code (r, c)} has id
+     * {@code r * cols + c + 1}.
+     *
+     * @param network
+     * @param rows
+     * @param cols
+     * @param links
+     */
+    public static void grid(Network network, int rows, int cols, LinkFactory links) {
+        grid(network, rows, cols, false, links);
+    }
+
+    /**
+     * Two-dimensional torus, i.e., a grid (see
+     * {@link #grid(Network, int, int, LinkFactory)}) where the tasks at the
+     * borders are linked to the tasks at the opposite borders.
+     *
+     * @param network
+     * @param rows
+     * @param cols
+     * @param links
+     */
+    public static void torus(Network network, int rows, int cols, LinkFactory links) {
+        grid(network, rows, cols, true, links);
+    }
+
+    private static void grid(Network network, int rows, int cols, boolean wrap, LinkFactory links) {
+        network.ensureLinkCapacity(4L * rows * cols);
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                int v = r * cols + c;
+                if (c + 1 < cols) {
+                    edge(network, links, v, v + 1);
+                } else if (wrap && cols > 2) {
+                    edge(network, links, v, r * cols);
+                }
+                if (r + 1 < rows) {
+                    edge(network, links, v, v + cols);
+                } else if (wrap && rows > 2) {
+                    edge(network, links, v, c);
+                }
+            }
+        }
+    }
+
+    /**
+     * Hypercube with {@code 2^dimension} tasks, where tasks are linked whose
+     * indices (id - 1) differ in exactly one bit.
+     *
+     * @param network
+     * @param dimension
+     * @param links
+     */
+    public static void hypercube(Network network, int dimension, LinkFactory links) {
+        if (dimension < 0 || dimension > 30) {
+            throw new IllegalArgumentException("Invalid dimension " + dimension);
+        }
+        int n = 1 << dimension;
+        network.ensureLinkCapacity((long) n * dimension);
+        for (int v = 0; v < n; v++) {
+            for (int b = 0; b < dimension; b++) {
+                int u = v ^ (1 << b);
+                if (v < u) {
+                    edge(network, links, v, u);
+                }
+            }
+        }
+    }
+
+    /**
+     * Complete {@code k}-ary tree with {@code n} tasks, where task 1 is the
+     * root and the children of the task with id {@code i} have the ids
+     * {@code k * (i - 1) + 2} to {@code k * (i - 1) + k + 1}.
+     *
+     * @param network
+     * @param n
+     * @param k
+     * @param links
+     */
+    public static void karyTree(Network network, int n, int k, LinkFactory links) {
+        if (k < 1) {
+            throw new IllegalArgumentException("Invalid arity " + k);
+        }
+        network.ensureLinkCapacity(2L * (n - 1));
+        for (int v = 1; v < n; v++) {
+            edge(network, links, (v - 1) / k, v);
+        }
+    }
+
+    /**
+     * Random {@code d}-regular graph (without self-loops and duplicate edges),
+     * where {@code n * d} must be even and at most {@code 2^29}. The ends of the edges are paired at
+     * random, skipping pairs which would not give a simple graph and starting
+     * over if no more pairs are possible (Steger and Wormald), which is fast
+     * for small degrees.
+     *
+     * @param network
+     * @param n
+     * @param d
+     * @param random
+     * @param links
+     */
+    public static void randomRegular(Network network, int n, int d, Random random, LinkFactory links) {
+        if (d < 0 || d >= n || (long) n * d % 2 != 0) {
+            throw new IllegalArgumentException("No " + d + "-regular graph with " + n + " tasks");
+        }
+        long ends = (long) n * d;
+        if (ends / 2 > EdgeSet.MAX_CAPACITY) {
+            throw new IllegalArgumentException("Too many links for a " + d + "-regular graph with " + n + " tasks");
+        }
+        int m = (int) (ends / 2);
+        network.ensureLinkCapacity(2L * m);
+        int[] from = new int[m];
+        int[] to = new int[m];
+        int[] points = new int[(int) ends];
+        while (true) {
+            for (int i = 0; i < points.length; i++) {
+                points[i] = i / d;
+            }
+            EdgeSet edges = new EdgeSet(m);
+            int left = points.length;
+            int e = 0;
+            while (left > 0) {
+                int i = -1;
+                int j = -1;
+                // Give up after some attempts, which is likely when only a few points are left
+                for (int attempt = 0; attempt < 64; attempt++) {
+                    int a = random.nextInt(left);
+                    int b = random.nextInt(left);
+                    if (points[a] != points[b] && !edges.contains(points[a], points[b])) {
+                        i = a;
+                        j = b;
+                        break;
+                    }
+                }
+                if (i < 0) {
+                    break;
+                }
+                from[e] = points[i];
+                to[e] = points[j];
+                edges.add(from[e], to[e]);
+                e++;
+                // Remove both points (the larger position first)
+                points[Math.max(i, j)] = points[--left];
+                points[Math.min(i, j)] = points[--left];
+            }
+            if (e == m) {
+                break;
+            }
+        }
+        for (int e = 0; e < m; e++) {
+            edge(network, links, from[e], to[e]);
         }
     }
 
+    private static boolean contains(int[] a, int length, int value) {
+        for (int i = 0; i < length; i++) {
+            if (a[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A set of undirected edges (open addressing with linear probing).
+     */
+    private static class EdgeSet {
+
+        private static final long FREE = -1;
+        private static final long REMOVED = -2;
+        static final int MAX_CAPACITY = 1 << 28; // so that the table has at most 2^30 slots
+
+        private final long[] keys;
+        private final int mask;
+
+        EdgeSet(int capacity) {
+            int size = Integer.highestOneBit(Math.max(4 * capacity, 8) - 1) << 1; // room for removed edges
+            keys = new long[size];
+            Arrays.fill(keys, FREE);
+            mask = size - 1;
+        }
+
+        private static long key(int u, int v) {
+            return u < v ? (long) u << 32 | v : (long) v << 32 | u;
+        }
+
+        private int slot(long key) {
+            return (int) (key * 0x9E3779B97F4A7C15L >>> 32) & mask;
+        }
+
+        private int find(long key) {
+            for (int i = slot(key);; i = (i + 1) & mask) {
+                if (keys[i] == key || keys[i] == FREE) {
+                    return i;
+                }
+            }
+        }
+
+        boolean contains(int u, int v) {
+            long key = key(u, v);
+            return keys[find(key)] == key;
+        }
+
+        /**
+         * Add an edge which is not contained (the set must not exceed its
+         * capacity).
+         */
+        void add(int u, int v) {
+            long key = key(u, v);
+            int i = slot(key);
+            while (keys[i] >= 0) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+        }
+
+        void remove(int u, int v) {
+            long key = key(u, v);
+            int i = find(key);
+            if (keys[i] == key) {
+                keys[i] = REMOVED;
+            }
+        }
+    }
 }
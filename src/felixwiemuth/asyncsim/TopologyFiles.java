@@ -0,0 +1,509 @@
+/*
+ * Copyright (C) 2017 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.asyncsim;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Reads and writes the links of networks in files, which are memory-mapped and
+ * parsed in parallel.
+ * <p>
+ * Edge lists have one link per line, given by source id, destination id and
+ * non-negative delay separated by whitespace, where lines starting with
+ * {@code #} are ignored. Lines may be at most 1 MB long. The binary form of an
+ * edge list (see {@link #convertEdgeList(Path, Path)}) has a header (magic
+ * number, version and number of links) followed by the links as (int, int,
+ * long). All links with the same delay share a {@link Link} with that fixed
+ * delay.
+ * <p>
+ * A built network can be saved in its frozen layout (see
+ * {@link Network#freeze()}) with {@link #save(Network, Path)} and loaded with
+ * {@link #load(Network, Path)} without any parsing or sorting. Tasks are not
+ * part of the files.
+ *
+ * @author Felix Wiemuth
+ */
+public final class TopologyFiles {
+
+    private static final int EDGES_MAGIC = 0x4153454c; // "ASEL"
+    private static final int NETWORK_MAGIC = 0x41534e57; // "ASNW"
+    private static final int VERSION = 1;
+    private static final int EDGES_HEADER = 16;
+    private static final int EDGE_BYTES = 16;
+    private static final int CHUNK_SIZE = 8 << 20; // bytes parsed by one task
+    private static final int MAX_MAPPED = 1 << 30;
+    private static final int MAX_LINE = 1 << 20; // bytes of a line in an edge list
+
+    private TopologyFiles() {
+    }
+
+    /**
+     * Links read from a part of a file, with delays indexing the distinct
+     * delays of that part.
+     */
+    private static class Edges {
+
+        int[] srcs = new int[1024];
+        int[] dests = new int[1024];
+        int[] delayIndices = new int[1024];
+        int count;
+        final DelayTable delays = new DelayTable();
+
+        void add(int src, int dest, long delay) {
+            if (count == srcs.length) {
+                srcs = Arrays.copyOf(srcs, 2 * count);
+                dests = Arrays.copyOf(dests, 2 * count);
+                delayIndices = Arrays.copyOf(delayIndices, 2 * count);
+            }
+            srcs[count] = src;
+            dests[count] = dest;
+            delayIndices[count] = delays.indexOf(delay);
+            count++;
+        }
+    }
+
+    /**
+     * Assigns consecutive indices to distinct delays (open addressing).
+     */
+    private static class DelayTable {
+
+        private long[] keys = new long[16];
+        private int[] values = new int[16];
+        private boolean[] used = new boolean[16];
+        private long[] delays = new long[8];
+        private int size;
+        private long last = Long.MIN_VALUE; // cache for runs of equal delays
+        private int lastIndex = -1;
+
+        int indexOf(long delay) {
+            if (delay == last && lastIndex >= 0) {
+                return lastIndex;
+            }
+            if (2 * size >= keys.length) {
+                rehash();
+            }
+            int mask = keys.length - 1;
+            int i = (int) (delay * 0x9E3779B97F4A7C15L >>> 32) & mask;
+            while (used[i] && keys[i] != delay) {
+                i = (i + 1) & mask;
+            }
+            if (!used[i]) {
+                used[i] = true;
+                keys[i] = delay;
+                values[i] = size;
+                if (size == delays.length) {
+                    delays = Arrays.copyOf(delays, 2 * size);
+                }
+                delays[size++] = delay;
+            }
+            last = delay;
+            lastIndex = values[i];
+            return lastIndex;
+        }
+
+        private void rehash() {
+            long[] oldDelays = Arrays.copyOf(delays, size);
+            keys = new long[2 * keys.length];
+            values = new int[keys.length];
+            used = new boolean[keys.length];
+            size = 0;
+            lastIndex = -1;
+            for (long delay : oldDelays) {
+                indexOf(delay);
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        long get(int index) {
+            return delays[index];
+        }
+    }
+
+    /**
+     * Add the links of an edge list (text or binary) to a network.
+     *
+     * @param network
+     * @param file
+     * @param twoWay whether to add each link in both directions
+     * @throws IOException if the file cannot be read or is malformed
+     */
+    public static void loadEdgeList(Network network, Path file, boolean twoWay) throws IOException {
+        List<Edges> parts = readEdgeList(file);
+        // Create one link per distinct delay
+        DelayTable delays = new DelayTable();
+        List<int[]> indexOfs = new ArrayList<>();
+        for (Edges part : parts) {
+            int[] indexOf = new int[part.delays.size()];
+            for (int d = 0; d < indexOf.length; d++) {
+                indexOf[d] = delays.indexOf(part.delays.get(d));
+            }
+            indexOfs.add(indexOf);
+        }
+        Link[] links = new Link[delays.size()];
+        for (int d = 0; d < links.length; d++) {
+            links[d] = new Link(delays.get(d));
+        }
+        int first = network.addLinkObjects(links);
+        for (int p = 0; p < parts.size(); p++) {
+            int[] indexOf = indexOfs.get(p);
+            for (int d = 0; d < indexOf.length; d++) {
+                indexOf[d] += first;
+            }
+            Edges part = parts.get(p);
+            network.addLinks(part.srcs, part.dests, part.delayIndices, part.count, indexOf, twoWay);
+            parts.set(p, null);
+        }
+        network.freeze();
+    }
+
+    /**
+     * Write an edge list in binary form, which is read faster.
+     *
+     * @param text
+     * @param binary
+     * @throws IOException
+     */
+    public static void convertEdgeList(Path text, Path binary) throws IOException {
+        List<Edges> parts = readEdgeList(text);
+        long count = 0;
+        for (Edges part : parts) {
+            count += part.count;
+        }
+        try (FileChannel out = FileChannel.open(binary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+            buffer.putInt(EDGES_MAGIC).putInt(VERSION).putLong(count);
+            for (Edges part : parts) {
+                for (int i = 0; i < part.count; i++) {
+                    if (buffer.remaining() < EDGE_BYTES) {
+                        flush(out, buffer);
+                    }
+                    buffer.putInt(part.srcs[i]).putInt(part.dests[i]).putLong(part.delays.get(part.delayIndices[i]));
+                }
+            }
+            flush(out, buffer);
+        }
+    }
+
+    private static void flush(FileChannel out, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Parse an edge list in parallel chunks.
+     */
+    private static List<Edges> readEdgeList(Path file) throws IOException {
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            boolean binary = false;
+            if (size >= EDGES_HEADER) {
+                ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, EDGES_HEADER);
+                if (header.getInt() == EDGES_MAGIC) {
+                    int version = header.getInt();
+                    if (version != VERSION) {
+                        throw new IOException("Unsupported edge list version " + version);
+                    }
+                    long count = header.getLong();
+                    if (size != EDGES_HEADER + count * EDGE_BYTES) {
+                        throw new IOException("Truncated edge list");
+                    }
+                    binary = true;
+                }
+            }
+            List<Callable<Edges>> chunks = new ArrayList<>();
+            if (binary) {
+                long perChunk = CHUNK_SIZE / EDGE_BYTES;
+                long count = (size - EDGES_HEADER) / EDGE_BYTES;
+                for (long from = 0; from < count; from += perChunk) {
+                    final long first = from;
+                    final long start = EDGES_HEADER + from * EDGE_BYTES;
+                    final int n = (int) Math.min(perChunk, count - from);
+                    chunks.add(new Callable<Edges>() {
+                        @Override
+                        public Edges call() throws IOException {
+                            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, (long) n * EDGE_BYTES);
+                            Edges edges = new Edges();
+                            for (int i = 0; i < n; i++) {
+                                int src = buffer.getInt();
+                                int dest = buffer.getInt();
+                                long delay = buffer.getLong();
+                                if (delay < 0) {
+                                    throw new IOException("Negative delay in edge list at link " + (first + i));
+                                }
+                                edges.add(src, dest, delay);
+                            }
+                            return edges;
+                        }
+                    });
+                }
+            } else {
+                for (long from = 0; from < size; from += CHUNK_SIZE) {
+                    final long start = from;
+                    final long end = Math.min(size, from + CHUNK_SIZE);
+                    chunks.add(new Callable<Edges>() {
+                        @Override
+                        public Edges call() throws IOException {
+                            return parseChunk(channel, size, start, end);
+                        }
+                    });
+                }
+            }
+            List<Future<Edges>> futures = new ArrayList<>();
+            for (Callable<Edges> chunk : chunks) {
+                futures.add(ForkJoinPool.commonPool().submit(chunk));
+            }
+            List<Edges> parts = new ArrayList<>();
+            for (Future<Edges> future : futures) {
+                try {
+                    parts.add(future.get());
+                } catch (ExecutionException ex) {
+                    // The pool wraps the exceptions of callables in a RuntimeException
+                    for (Throwable cause = ex.getCause(); cause != null; cause = cause.getCause()) {
+                        if (cause instanceof IOException) {
+                            throw (IOException) cause;
+                        }
+                    }
+                    throw new IllegalStateException(ex.getCause());
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while reading " + file, ex);
+                }
+            }
+            return parts;
+        }
+    }
+
+    /**
+     * Parse the lines of a text edge list which start in {@code [start, end)}.
+     * Only these lines (and the end of the line before) are mapped.
+     */
+    private static Edges parseChunk(FileChannel channel, long size, long start, long end) throws IOException {
+        long base = Math.max(0, start - 1);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, base, Math.min(size, end + MAX_LINE) - base);
+        int limit = buffer.limit();
+        boolean truncated = base + limit < size;
+        int pos = (int) (start - base);
+        int stop = (int) (end - base);
+        // Skip the line started in the previous chunk
+        if (start > 0 && buffer.get(0) != '\n') {
+            while (pos < limit && buffer.get(pos) != '\n') {
+                pos++;
+            }
+            if (pos == limit && truncated) {
+                throw new IOException("Line too long in edge list before byte " + (base + pos));
+            }
+            pos++;
+        }
+        Edges edges = new Edges();
+        long[] values = new long[3];
+        while (pos < stop) {
+            int n = 0;
+            boolean ended = false;
+            while (pos < limit) {
+                byte b = buffer.get(pos);
+                if (b == '\n') {
+                    pos++;
+                    ended = true;
+                    break;
+                } else if (b == ' ' || b == '\t' || b == '\r' || b == ',') {
+                    pos++;
+                } else if (b == '#' && n == 0) {
+                    while (pos < limit && buffer.get(pos) != '\n') {
+                        pos++;
+                    }
+                } else {
+                    if (n == 3) {
+                        throw new IOException("Too many values in edge list at byte " + (base + pos));
+                    }
+                    boolean negative = b == '-';
+                    if (negative) {
+                        pos++;
+                    }
+                    long value = 0;
+                    int digits = 0;
+                    while (pos < limit && (b = buffer.get(pos)) >= '0' && b <= '9') {
+                        value = 10 * value + (b - '0');
+                        pos++;
+                        digits++;
+                    }
+                    if (digits == 0 || digits > 18) {
+                        throw new IOException("Invalid number in edge list at byte " + (base + pos));
+                    }
+                    values[n++] = negative ? -value : value;
+                }
+            }
+            if (!ended && truncated) {
+                throw new IOException("Line too long in edge list before byte " + (base + pos));
+            }
+            if (n == 3) {
+                if (values[0] != (int) values[0] || values[1] != (int) values[1]) {
+                    throw new IOException("Invalid task id in edge list before byte " + (base + pos));
+                }
+                if (values[2] < 0) {
+                    throw new IOException("Negative delay in edge list before byte " + (base + pos));
+                }
+                edges.add((int) values[0], (int) values[1], values[2]);
+            } else if (n != 0) {
+                throw new IOException("Incomplete link in edge list before byte " + (base + pos));
+            }
+        }
+        return edges;
+    }
+
+    /**
+     * Save the links of a network in its frozen layout.
+     *
+     * @param network
+     * @param file
+     * @throws IOException
+     * @throws IllegalStateException if the network has an implicit topology
+     */
+    public static void save(Network network, Path file) throws IOException {
+        if (network.getTopology() != null) {
+            throw new IllegalStateException("Cannot save an implicit topology");
+        }
+        int[] sources = network.getSources();
+        int[] offsets = network.getOffsets();
+        int[] targets = network.getTargets();
+        int[] linkIndices = network.getLinkIndices();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(network.getLinkObjects());
+        }
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+            buffer.putInt(NETWORK_MAGIC).putInt(VERSION).putInt(sources.length).putInt(targets.length).putInt(bytes.size());
+            for (int[] a : new int[][]{sources, offsets, targets, linkIndices}) {
+                for (int from = 0; from < a.length;) {
+                    if (buffer.remaining() < 4) {
+                        flush(out, buffer);
+                    }
+                    int n = Math.min(a.length - from, buffer.remaining() / 4);
+                    buffer.asIntBuffer().put(a, from, n);
+                    buffer.position(buffer.position() + 4 * n);
+                    from += n;
+                }
+            }
+            flush(out, buffer);
+            ByteBuffer links = ByteBuffer.wrap(bytes.toByteArray());
+            while (links.hasRemaining()) {
+                out.write(links);
+            }
+        }
+    }
+
+    /**
+     * Load the links saved with {@link #save(Network, Path)} into a network
+     * without links.
+     *
+     * @param network
+     * @param file
+     * @throws IOException if the file cannot be read or is malformed
+     * @throws IllegalStateException if the network already has links
+     */
+    public static void load(Network network, Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), 20));
+            if (header.remaining() < 20 || header.getInt() != NETWORK_MAGIC) {
+                throw new IOException("Not a saved network");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported network version " + version);
+            }
+            int rows = header.getInt();
+            int entries = header.getInt();
+            int linkBytes = header.getInt();
+            if (rows < 0 || entries < 0 || linkBytes < 0) {
+                throw new IOException("Invalid network sizes");
+            }
+            if (channel.size() != 20 + 4 * (2L * rows + 1 + 2L * entries) + linkBytes) {
+                throw new IOException("Truncated network");
+            }
+            long position = 20;
+            int[] sources = new int[rows];
+            position = readInts(channel, position, sources);
+            int[] offsets = new int[rows + 1];
+            position = readInts(channel, position, offsets);
+            int[] targets = new int[entries];
+            position = readInts(channel, position, targets);
+            int[] linkIndices = new int[entries];
+            position = readInts(channel, position, linkIndices);
+            byte[] bytes = new byte[linkBytes];
+            channel.map(FileChannel.MapMode.READ_ONLY, position, linkBytes).get(bytes);
+            Link[] links;
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                links = (Link[]) in.readObject();
+            } catch (ClassNotFoundException ex) {
+                throw new IOException("Could not read links", ex);
+            }
+            checkLayout(sources, offsets, linkIndices, links);
+            network.setLayout(sources, offsets, targets, linkIndices, links);
+        }
+    }
+
+    private static void checkLayout(int[] sources, int[] offsets, int[] linkIndices, Link[] links) throws IOException {
+        if (links == null || offsets[0] != 0 || offsets[sources.length] != linkIndices.length) {
+            throw new IOException("Invalid offsets in network");
+        }
+        for (int i = 0; i < sources.length; i++) {
+            if (offsets[i] > offsets[i + 1] || i > 0 && sources[i - 1] >= sources[i]) {
+                throw new IOException("Invalid row " + i + " in network");
+            }
+        }
+        for (int i = 0; i < linkIndices.length; i++) {
+            if (linkIndices[i] < 0 || linkIndices[i] >= links.length || links[linkIndices[i]] == null) {
+                throw new IOException("Invalid link index at entry " + i + " in network");
+            }
+        }
+    }
+
+    private static long readInts(FileChannel channel, long position, int[] a) throws IOException {
+        for (int from = 0; from < a.length;) {
+            int n = Math.min(a.length - from, MAX_MAPPED / 4);
+            IntBuffer ints = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * n).asIntBuffer();
+            ints.get(a, from, n);
+            from += n;
+            position += 4L * n;
+        }
+        return position;
+    }
+}
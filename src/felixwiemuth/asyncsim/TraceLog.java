@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2017 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.asyncsim;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A log which writes entries as binary records of fixed size to a file,
+ * without formatting them: time, category, level, the task and the source and
+ * destination of a message, and the hash code of the data of a message or of
+ * the text of another entry (the text itself is not recorded). The records are
+ * collected in a direct buffer and written in large blocks. Read a trace with
+ * {@link TraceReader}. The log must be closed to write the last records.
+ *
+ * @author Felix Wiemuth
+ */
+public class TraceLog implements Log, Closeable {
+
+    static final int MAGIC = 0x41535452; // "ASTR"
+    static final int VERSION = 1;
+    static final int HEADER = 16;
+    static final int RECORD_BYTES = 28;
+    private static final int BUFFER_RECORDS = 1 << 15;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(RECORD_BYTES * BUFFER_RECORDS);
+    private long records = 0;
+
+    /**
+     * Create a trace file, replacing an existing file.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public TraceLog(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(RECORD_BYTES).putInt(0);
+    }
+
+    @Override
+    public void log(long time, String msg) {
+        record(time, Level.INFO, Category.SIMULATOR, Simulator.NO_TASK, Simulator.NO_TASK, Simulator.NO_TASK, msg.hashCode());
+    }
+
+    @Override
+    public void log(long time, Level level, Category category, String msg) {
+        record(time, level, category, Simulator.NO_TASK, Simulator.NO_TASK, Simulator.NO_TASK, msg.hashCode());
+    }
+
+    @Override
+    public void logTask(long time, Level level, int task, String msg) {
+        record(time, level, Category.TASK, task, Simulator.NO_TASK, Simulator.NO_TASK, msg.hashCode());
+    }
+
+    @Override
+    public void logMsg(long time, Level level, Category category, Message msg) {
+        int task = category == Category.MSG_SENT ? msg.getSrc() : msg.getDest();
+        Object data = msg.getData();
+        record(time, level, category, task, msg.getSrc(), msg.getDest(), data == null ? 0 : data.hashCode());
+    }
+
+    private synchronized void record(long time, Level level, Category category, int task, int src, int dest, int payload) {
+        if (buffer.remaining() < RECORD_BYTES) {
+            flushBuffer();
+        }
+        buffer.putLong(time).putInt(payload).putInt(task).putInt(src).putInt(dest)
+                .put((byte) category.ordinal()).put((byte) level.ordinal()).putShort((short) 0);
+        records++;
+    }
+
+    /**
+     * Get the number of records written so far.
+     *
+     * @return
+     */
+    public synchronized long getRecordCount() {
+        return records;
+    }
+
+    /**
+     * Write the records collected so far to the file.
+     */
+    public synchronized void flush() {
+        flushBuffer();
+    }
+
+    private void flushBuffer() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException ex) {
+            throw new IllegalStateException("Could not write trace", ex);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel.isOpen()) {
+            flushBuffer();
+            channel.close();
+        }
+    }
+}
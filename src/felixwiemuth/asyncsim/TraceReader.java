@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2017 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.asyncsim;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the records of a trace written by {@link TraceLog} one after the
+ * other, mapping the file into memory in large parts. The fields of the
+ * current record are available after {@link #next()} returned true; the task,
+ * source and destination are {@link #NONE} if they do not apply.
+ *
+ * @author Felix Wiemuth
+ */
+public class TraceReader implements Closeable {
+
+    public static final int NONE = Simulator.NO_TASK;
+
+    private static final Log.Level[] LEVELS = Log.Level.values();
+    private static final Log.Category[] CATEGORIES = Log.Category.values();
+    private static final int MAPPED_RECORDS = (1 << 30) / TraceLog.RECORD_BYTES;
+
+    private final FileChannel channel;
+    private final long count;
+    private long index = -1; // of the current record
+    private MappedByteBuffer mapped;
+    private long mappedStart; // index of the first record mapped
+    private int offset; // of the current record in the mapped part
+
+    /**
+     * Open a trace.
+     *
+     * @param file
+     * @throws IOException if the file cannot be read or is not a trace
+     */
+    public TraceReader(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), TraceLog.HEADER));
+            if (header.remaining() < TraceLog.HEADER || header.getInt() != TraceLog.MAGIC) {
+                throw new IOException("Not a trace");
+            }
+            int version = header.getInt();
+            if (version != TraceLog.VERSION || header.getInt() != TraceLog.RECORD_BYTES) {
+                throw new IOException("Unsupported trace version " + version);
+            }
+            count = (channel.size() - TraceLog.HEADER) / TraceLog.RECORD_BYTES; // ignores an incomplete last record
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Get the number of records in the trace.
+     *
+     * @return
+     */
+    public long getRecordCount() {
+        return count;
+    }
+
+    /**
+     * Move to the next record.
+     *
+     * @return false if there are no more records
+     * @throws IOException
+     */
+    public boolean next() throws IOException {
+        if (index + 1 >= count) {
+            index = count;
+            return false;
+        }
+        index++;
+        if (mapped == null || index - mappedStart >= MAPPED_RECORDS) {
+            mappedStart = index;
+            long records = Math.min(count - index, MAPPED_RECORDS);
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, TraceLog.HEADER + index * TraceLog.RECORD_BYTES, records * TraceLog.RECORD_BYTES);
+        }
+        offset = (int) (index - mappedStart) * TraceLog.RECORD_BYTES;
+        return true;
+    }
+
+    public long getTime() {
+        return mapped.getLong(offset);
+    }
+
+    /**
+     * Get the hash code of the data of a message or of the text of another
+     * entry.
+     *
+     * @return
+     */
+    public int getPayload() {
+        return mapped.getInt(offset + 8);
+    }
+
+    /**
+     * Get the task which sent or received a message or wrote an entry.
+     *
+     * @return
+     */
+    public int getTask() {
+        return mapped.getInt(offset + 12);
+    }
+
+    public int getSrc() {
+        return mapped.getInt(offset + 16);
+    }
+
+    public int getDest() {
+        return mapped.getInt(offset + 20);
+    }
+
+    public Log.Category getCategory() {
+        return CATEGORIES[mapped.get(offset + 24)];
+    }
+
+    public Log.Level getLevel() {
+        return LEVELS[mapped.get(offset + 25)];
+    }
+
+    /**
+     * Format the current record as a line of text (without line separator).
+     *
+     * @param line the builder to append the line to
+     * @return the builder
+     */
+    public StringBuilder format(StringBuilder line) {
+        String time = Long.toString(getTime());
+        for (int i = time.length(); i < 5; i++) {
+            line.append(' ');
+        }
+        line.append(time).append(' ').append(getLevel()).append(' ').append(getCategory());
+        if (getSrc() != NONE) {
+            line.append(" [").append(getSrc()).append("->").append(getDest()).append(']');
+        } else if (getTask() != NONE) {
+            line.append(' ').append(getTask());
+        }
+        return line.append(" #").append(Integer.toHexString(getPayload()));
+    }
+
+    @Override
+    public void close() throws IOException {
+        mapped = null;
+        channel.close();
+    }
+
+    /**
+     * Convert a trace to text, one line per record (see
+     * {@link #format(StringBuilder)}).
+     *
+     * @param trace
+     * @param text
+     * @throws IOException
+     */
+    public static void toText(Path trace, Path text) throws IOException {
+        try (TraceReader reader = new TraceReader(trace);
+                Writer out = Files.newBufferedWriter(text, StandardCharsets.UTF_8)) {
+            StringBuilder line = new StringBuilder();
+            while (reader.next()) {
+                line.setLength(0);
+                reader.format(line).append(System.lineSeparator());
+                out.append(line);
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2017 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.asyncsim;
+
+import java.util.Arrays;
+
+/**
+ * Records the changes made to the message queues and waiting actions of tasks
+ * and cancelled events so that they can be undone in reverse order. Used by
+ * {@link TimeWarpProcess} to save the state of tasks incrementally.
+ *
+ * @author Felix Wiemuth
+ */
+final class UndoLog {
+
+    /**
+     * A message has been appended to the message queue.
+     */
+    static final int MSG_ADDED = 0;
+    /**
+     * A message has been appended to the queue of messages received while
+     * busy.
+     */
+    static final int BUSY_MSG_ADDED = 1;
+    /**
+     * The first message (ref) has been removed from the message queue.
+     */
+    static final int MSG_POLLED = 2;
+    /**
+     * The given number (arg) of messages received while busy has been moved to
+     * the message queue.
+     */
+    static final int MSGS_RELEASED = 3;
+    /**
+     * An action has been appended to the waiting actions.
+     */
+    static final int ACTION_ADDED = 4;
+    /**
+     * An action (ref) has been removed from the waiting actions at the given
+     * index (arg).
+     */
+    static final int ACTION_REMOVED = 5;
+    /**
+     * The event of a handle (ref) has been cancelled. Not related to a task.
+     */
+    static final int EVENT_CANCELLED = 6;
+    /**
+     * A message (ref, a node of a {@link SelectiveMailbox}) has been removed
+     * from the message queue, not necessarily the first one.
+     */
+    static final int MSG_REMOVED = 7;
+
+    private Task[] tasks = new Task[64];
+    private int[] ops = new int[64];
+    private int[] args = new int[64];
+    private Object[] refs = new Object[64];
+    private int size = 0;
+    private boolean recording = false;
+
+    void setRecording(boolean recording) {
+        this.recording = recording;
+    }
+
+    /**
+     * Record a change if recording.
+     *
+     * @param task
+     * @param op
+     * @param arg
+     * @param ref
+     */
+    void add(Task task, int op, int arg, Object ref) {
+        if (!recording) {
+            return;
+        }
+        if (size == ops.length) {
+            tasks = Arrays.copyOf(tasks, 2 * size);
+            ops = Arrays.copyOf(ops, 2 * size);
+            args = Arrays.copyOf(args, 2 * size);
+            refs = Arrays.copyOf(refs, 2 * size);
+        }
+        tasks[size] = task;
+        ops[size] = op;
+        args[size] = arg;
+        refs[size] = ref;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Undo the changes recorded since the log had the given size.
+     *
+     * @param position
+     */
+    void undo(int position) {
+        while (size > position) {
+            size--;
+            if (ops[size] == EVENT_CANCELLED) {
+                ((EventHandle) refs[size]).cancelled = false;
+            } else {
+                tasks[size].undo(ops[size], args[size], refs[size]);
+            }
+            tasks[size] = null;
+            refs[size] = null;
+        }
+    }
+
+    /**
+     * Forget the first {@code n} changes, which will not be undone anymore.
+     *
+     * @param n
+     */
+    void discard(int n) {
+        int rest = size - n;
+        System.arraycopy(tasks, n, tasks, 0, rest);
+        System.arraycopy(ops, n, ops, 0, rest);
+        System.arraycopy(args, n, args, 0, rest);
+        System.arraycopy(refs, n, refs, 0, rest);
+        Arrays.fill(tasks, rest, size, null);
+        Arrays.fill(refs, rest, size, null);
+        size = rest;
+    }
+}
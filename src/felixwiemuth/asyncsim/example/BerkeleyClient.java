@@ -18,6 +18,7 @@
 package felixwiemuth.asyncsim.example;
 
 import felixwiemuth.asyncsim.FixedDuration;
+import felixwiemuth.asyncsim.Log;
 import felixwiemuth.asyncsim.Message;
 import felixwiemuth.asyncsim.Network;
 import felixwiemuth.asyncsim.RandomDuration;
@@ -31,13 +32,15 @@ import felixwiemuth.asyncsim.Task.Action;
  */
 public class BerkeleyClient extends Task {
 
+    private static final long serialVersionUID = 1L;
+
     private int localTime = 0;
 
     private final Action incrementLocalTime = new Task.Action() {
         @Override
         public void run() {
             localTime += 1000;
-            scheduleAction(this, new RandomDuration(getRandom(), 10, 2));
+            scheduleAction(this, new RandomDuration(10, 2));
         }
     };
 
@@ -47,24 +50,19 @@ public class BerkeleyClient extends Task {
         /*
          * Reply to time request from server.
          */
-        addCmd(new Command(new Guard() {
-            @Override
-            public boolean check() {
-                return nextMsgEquals("getTime");
-            }
-        }, new Action() {
+        addCmd("getTime", new Action() {
             @Override
             public void run() {
                 Message msg = pollMsg();
                 sendMsg(msg.getSrc(), localTime);
-                log("Sent local time " + localTime);
+                log(Log.Level.INFO, "Sent local time %s", localTime);
             }
-        }));
+        });
 
         /*
          * Update local time when receiving diff from server.
          */
-        addCmd(new Command(new Guard() {
+        addCmd(new Command(new TrackedGuard(MAILBOX) {
             @Override
             public boolean check() {
                 return nextMsgNotEquals("getTime");
@@ -74,7 +72,7 @@ public class BerkeleyClient extends Task {
             public void run() {
                 int diff = (int) pollMsg().getData();
                 localTime += diff;
-                log("Updated local time by " + diff + " to " + localTime);
+                log(Log.Level.INFO, "Updated local time by %s to %s", diff, localTime);
             }
         }));
     }
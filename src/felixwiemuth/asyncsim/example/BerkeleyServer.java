@@ -18,6 +18,7 @@
 package felixwiemuth.asyncsim.example;
 
 import felixwiemuth.asyncsim.FixedDuration;
+import felixwiemuth.asyncsim.Log;
 import felixwiemuth.asyncsim.Message;
 import felixwiemuth.asyncsim.Network;
 import felixwiemuth.asyncsim.RandomDuration;
@@ -36,6 +37,8 @@ import java.util.Map;
  */
 public class BerkeleyServer extends Task {
 
+    private static final long serialVersionUID = 1L;
+
     private Map<Integer, Integer> collectedTimes; // client -> local time
 
     /**
@@ -47,9 +50,7 @@ public class BerkeleyServer extends Task {
         public void run() {
             log("Beginning sync...");
             collectedTimes = new HashMap<>(); // reset collect times
-            for (int client : getNeighbors()) {
-                sendMsg(client, "getTime"); // request local time from 'client'
-            }
+            broadcast("getTime"); // request local time from all clients
             // After a fixed amount of time, stop collecting answers from clients
             scheduleAction(terminateSync, new FixedDuration(50));
         }
@@ -67,13 +68,13 @@ public class BerkeleyServer extends Task {
                 sum += localTime;
             }
             int mean = sum / collectedTimes.values().size();
-            log("Mean is " + mean);
+            log(Log.Level.INFO, "Mean is %s", mean);
             for (int client : getNeighbors()) {
                 sendMsg(client, mean - collectedTimes.get(client)); // request local times from clients
             }
             log("Sync completed.");
             // Schedule next sync
-            scheduleAction(initiateSync, new RandomDuration(getRandom(), 1000, 500));
+            scheduleAction(initiateSync, new RandomDuration(1000, 500));
         }
     };
 
@@ -81,7 +82,7 @@ public class BerkeleyServer extends Task {
         super(id, simulator, network);
 
         // Every message received is interpreted as a time report from a client.
-        addCmd(new Command(new Guard() {
+        addCmd(new Command(new TrackedGuard(MAILBOX) {
             @Override
             public boolean check() {
                 return hasMsg();
@@ -99,4 +100,15 @@ public class BerkeleyServer extends Task {
     protected void onInit() {
         scheduleAction(initiateSync, new FixedDuration(0));
     }
+
+    @Override
+    protected Object saveState() {
+        return collectedTimes == null ? null : new HashMap<>(collectedTimes);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void restoreState(Object state) {
+        collectedTimes = state == null ? null : new HashMap<>((Map<Integer, Integer>) state);
+    }
 }
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2017 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.asyncsim.example;
+
+import felixwiemuth.asyncsim.CalendarEventQueue;
+import felixwiemuth.asyncsim.EventQueue;
+import felixwiemuth.asyncsim.FixedDuration;
+import felixwiemuth.asyncsim.HeapEventQueue;
+import felixwiemuth.asyncsim.Link;
+import felixwiemuth.asyncsim.Log;
+import felixwiemuth.asyncsim.Message;
+import felixwiemuth.asyncsim.Network;
+import felixwiemuth.asyncsim.Simulator;
+import felixwiemuth.asyncsim.TimerWheelEventQueue;
+
+/**
+ * Compares the {@link EventQueue} implementations on the workload of
+ * {@link FloodingSystem}: every node is linked to every other node and each
+ * message received is forwarded to two random neighbors, so the number of
+ * pending events grows quickly.
+ *
+ * @author Felix Wiemuth
+ */
+public class EventQueueBenchmark {
+
+    public interface QueueFactory {
+
+        EventQueue create();
+    }
+
+    /**
+     * Run the flooding workload once.
+     *
+     * @param queueFactory
+     * @param n number of nodes
+     * @param steps number of events to execute
+     * @return the time needed in nanoseconds
+     */
+    public static long run(QueueFactory queueFactory, int n, int steps) {
+        Simulator simulator = new Simulator(Log.NONE, new FixedDuration(0), queueFactory.create());
+        Network network = new Network(simulator);
+        for (int i = 1; i <= n; i++) {
+            network.addNode(new FloodingTask(i, simulator, network, i));
+        }
+        for (int i = 1; i <= n; i++) {
+            for (int j = 1; j <= n; j++) {
+                network.addLink(i, j, new Link(i * j));
+            }
+        }
+        // Start a flood at every node
+        for (int i = 1; i <= n; i++) {
+            network.sendMsg(new Message(i, i, "0"));
+        }
+        long start = System.nanoTime();
+        simulator.step(steps);
+        return System.nanoTime() - start;
+    }
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int steps = args.length > 1 ? Integer.parseInt(args[1]) : 2000000;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        QueueFactory heap = new QueueFactory() {
+            @Override
+            public EventQueue create() {
+                return new HeapEventQueue();
+            }
+        };
+        QueueFactory calendar = new QueueFactory() {
+            @Override
+            public EventQueue create() {
+                return new CalendarEventQueue();
+            }
+        };
+        QueueFactory wheel = new QueueFactory() {
+            @Override
+            public EventQueue create() {
+                return new TimerWheelEventQueue();
+            }
+        };
+        for (int round = 1; round <= rounds; round++) {
+            long heapTime = run(heap, n, steps);
+            long calendarTime = run(calendar, n, steps);
+            long wheelTime = run(wheel, n, steps);
+            System.out.println(String.format("round %d: heap %6d ms, calendar %6d ms, timer wheel %6d ms", round, heapTime / 1000000, calendarTime / 1000000, wheelTime / 1000000));
+        }
+    }
+}
@@ -37,11 +37,13 @@ public class FloodingSystem {
             network.addNode(t);
             tasks.add(t);
         }
-        for (int i = 1; i <= 9; i++) {
-            for (int j = 1; j <= 9; j++) {
-                network.addLink(i, j, new Link(i * j));
+        // Link each pair of tasks i, j with delay i * j, computed when needed
+        network.setTopology(Topology.fullMesh(9, true, new Topology.LinkFactory() {
+            @Override
+            public Link create(int src, int dest) {
+                return new Link(src * dest);
             }
-        }
+        }));
 
         tasks.get(0).addMsg(new Message(0, 1, "0"));
         tasks.get(0).schedule();
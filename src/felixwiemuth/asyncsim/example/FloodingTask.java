@@ -18,13 +18,11 @@
 package felixwiemuth.asyncsim.example;
 
 import felixwiemuth.asyncsim.FixedDuration;
+import felixwiemuth.asyncsim.Log;
 import felixwiemuth.asyncsim.Message;
 import felixwiemuth.asyncsim.Network;
 import felixwiemuth.asyncsim.Simulator;
 import felixwiemuth.asyncsim.Task;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
 
 /**
  *
@@ -32,11 +30,13 @@ import java.util.List;
  */
 public class FloodingTask extends Task {
 
+    private static final long serialVersionUID = 1L;
+
     public FloodingTask(int id, Simulator simulator, Network network, long delay) {
         super(id, simulator, network);
 
         addCmd(new Command(
-                new Guard() {
+                new TrackedGuard(MAILBOX) {
             @Override
             public boolean check() {
                 return peekMsg() != null;
@@ -46,16 +46,17 @@ public class FloodingTask extends Task {
             @Override
             public void run() {
                 Message msg = pollMsg();
-                String logmsg = "  " + id + ": Received " + ((String) msg.getData()) + ", sent to: ";
-                List<Integer> neighbors = new ArrayList(network.getNeighbors(id));
-                Collections.shuffle(neighbors, simulator.getRandom());
                 String s = (String) msg.getData();
                 s += id;
-                for (int i = 0; i < 2; i++) {
-                    sendMsg(neighbors.get(i), s);
-                    logmsg += neighbors.get(i) + " ";
+                int[] dests = getNeighborList().sample(2, simulator.getRandom());
+                multicast(dests, s);
+                if (isLogEnabled(Log.Level.INFO)) {
+                    StringBuilder logmsg = new StringBuilder("  ").append(id).append(": Received ").append((String) msg.getData()).append(", sent to: ");
+                    for (int dest : dests) {
+                        logmsg.append(dest).append(' ');
+                    }
+                    log(logmsg.toString());
                 }
-                log(logmsg);
             }
         }));
     }
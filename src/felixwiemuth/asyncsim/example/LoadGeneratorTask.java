@@ -18,7 +18,7 @@
 package felixwiemuth.asyncsim.example;
 
 import felixwiemuth.asyncsim.FixedDuration;
-import felixwiemuth.asyncsim.Message;
+import felixwiemuth.asyncsim.Log;
 import felixwiemuth.asyncsim.Network;
 import felixwiemuth.asyncsim.Simulator;
 import felixwiemuth.asyncsim.Task;
@@ -32,26 +32,19 @@ import felixwiemuth.asyncsim.Task;
  */
 public class LoadGeneratorTask extends Task {
 
+    private static final long serialVersionUID = 1L;
+
     public LoadGeneratorTask(int id, Simulator simulator, Network network, int delay) {
         super(id, simulator, network);
-        addCmd(new Task.Command(
-                new Guard() {
-            @Override
-            public boolean check() {
-                Message m = peekMsg();
-                return m != null && m.getData().equals("genLoad");
-            }
-        },
-                new Action(new FixedDuration(delay)) {
+        addCmd("genLoad", new Action(new FixedDuration(delay)) {
             @Override
             public void run() {
                 pollMsg();
                 int loadReceiver = simulator.getRandom().nextInt(getNeighbors().size() - 1) + 1;
-                log("Sending load to " + loadReceiver);
+                log(Log.Level.INFO, "Sending load to %s", loadReceiver);
                 sendMsg(loadReceiver, "load");
                 sendMsg(getId(), "genLoad"); // generate load again after a while
             }
-        }
-        ));
+        });
     }
 }
@@ -31,6 +31,8 @@ import java.util.Set;
  */
 public class Sandbox extends Task {
 
+    private static final long serialVersionUID = 1L;
+
     /**
      *
      * @param id
@@ -45,7 +47,7 @@ public class Sandbox extends Task {
          * When receiving a message, reply with the number of dirty children the
          * sender can see.
          */
-        addCmd(new Command(new Guard() {
+        addCmd(new Command(new TrackedGuard(MAILBOX) {
             @Override
             public boolean check() {
                 return peekMsg() != null;
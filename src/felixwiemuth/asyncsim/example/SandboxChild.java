@@ -29,6 +29,8 @@ import felixwiemuth.asyncsim.Task;
  */
 public class SandboxChild extends Task {
 
+    private static final long serialVersionUID = 1L;
+
     private int count = 0; // counting how many times the parent has asked without us answering
     private int dirtiesSeen;
 
@@ -38,23 +40,18 @@ public class SandboxChild extends Task {
         /*
          * When the parent says "get ready" look how many dirty children we see.
          */
-        addCmd(new Command(new Guard() {
-            @Override
-            public boolean check() {
-                return nextMsgEquals("Get ready");
-            }
-        }, new Action() {
+        addCmd("Get ready", new Action() {
             @Override
             public void run() {
                 pollMsg();
                 sendMsg(sandbox, "How many dirties can I see?");
             }
-        }));
+        });
 
         /*
          * Handle answer of sandbox.
          */
-        addCmd(new Command(new Guard() {
+        addCmd(new Command(new TrackedGuard(MAILBOX) {
             @Override
             public boolean check() {
                 return nextMsgSrcIs(sandbox);
@@ -70,12 +67,7 @@ public class SandboxChild extends Task {
          * Receive the parent's question and answer if knowing how many children
          * are dirty.
          */
-        addCmd(new Command(new Guard() {
-            @Override
-            public boolean check() {
-                return nextMsgEquals("How many dirties?");
-            }
-        }, new Action() {
+        addCmd("How many dirties?", new Action() {
             @Override
             public void run() {
                 Message msg = pollMsg();
@@ -84,7 +76,7 @@ public class SandboxChild extends Task {
                 }
                 count++;
             }
-        }));
+        });
     }
 
 }
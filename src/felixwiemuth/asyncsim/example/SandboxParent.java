@@ -31,6 +31,8 @@ import felixwiemuth.asyncsim.Task;
  */
 public class SandboxParent extends Task {
 
+    private static final long serialVersionUID = 1L;
+
     private static final Duration interval = new FixedDuration(100);
     private boolean waitingForAnswer = true;
     private int answer = -1;
@@ -54,7 +56,7 @@ public class SandboxParent extends Task {
         /*
          * Receive the answer of a child.
          */
-        addCmd(new Command(new Guard() {
+        addCmd(new Command(new TrackedGuard(MAILBOX) {
             @Override
             public boolean check() {
                 return hasMsg();
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2017 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.asyncsim.example;
+
+import felixwiemuth.asyncsim.Ensemble;
+import felixwiemuth.asyncsim.Log;
+import felixwiemuth.asyncsim.Simulator;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Solves the sandbox problem for all sets of dirty children of up to a given
+ * number of children and several seeds with an {@link Ensemble}.
+ *
+ * @author Felix Wiemuth
+ */
+public class SandboxSweep {
+
+    /**
+     * A parameter point: the number of children and the dirty children.
+     */
+    public static class Point {
+
+        private final int n;
+        private final Set<Integer> dirties;
+
+        public Point(int n, Set<Integer> dirties) {
+            this.n = n;
+            this.dirties = dirties;
+        }
+
+        @Override
+        public String toString() {
+            return "n=" + n + " dirties=" + dirties;
+        }
+    }
+
+    public static final Ensemble.Scenario<Point, Integer> SCENARIO = new Ensemble.Scenario<Point, Integer>() {
+        @Override
+        public Ensemble.Instance<Integer> create(Point point, long seed, Log log) {
+            final Simulator simulator = new Simulator(seed, log);
+            final SandboxParent parent = SandboxSystem.create(point.n, point.dirties, simulator);
+            return new Ensemble.Instance<Integer>() {
+                @Override
+                public Simulator getSimulator() {
+                    return simulator;
+                }
+
+                @Override
+                public boolean isDone() {
+                    return !parent.isWaitingForAnswer();
+                }
+
+                @Override
+                public Integer getResult() {
+                    return parent.getAnswer();
+                }
+            };
+        }
+    };
+
+    /**
+     * Usage: SandboxSweep [maxN] [seeds]
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+        int maxN = args.length > 0 ? Integer.parseInt(args[0]) : 6;
+        int seeds = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+
+        List<Point> points = new ArrayList<>();
+        for (int n = 1; n <= maxN; n++) {
+            for (int mask = 1; mask < 1 << n; mask++) {
+                Set<Integer> dirties = new HashSet<>();
+                for (int i = 0; i < n; i++) {
+                    if ((mask & 1 << i) != 0) {
+                        dirties.add(i + 1);
+                    }
+                }
+                points.add(new Point(n, dirties));
+            }
+        }
+        long[] seedValues = new long[seeds];
+        for (int k = 0; k < seeds; k++) {
+            seedValues[k] = k;
+        }
+
+        Ensemble<Point, Integer> ensemble = new Ensemble<>(SCENARIO);
+        ensemble.setOutput(false);
+        ensemble.setEventBudget(1000000);
+        final long start = System.nanoTime();
+        ensemble.run(points, seedValues, new Ensemble.Collector<Point, Integer>() {
+            private int runs = 0;
+
+            @Override
+            public void collect(Ensemble.Run<Point, Integer> run) {
+                runs++;
+                if (run.isFailed()) {
+                    System.out.println(run.getPoint() + " seed=" + run.getSeed() + ": " + run.getError());
+                } else if (!run.getResult().equals(run.getPoint().dirties.size())) {
+                    System.out.println(run.getPoint() + " seed=" + run.getSeed() + ": answer " + run.getResult());
+                }
+                if (runs % 100 == 0) {
+                    System.out.println(runs + " runs after " + (System.nanoTime() - start) / 1000000 + " ms");
+                }
+            }
+        });
+        System.out.println("Done after " + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+}
@@ -25,6 +25,7 @@ import felixwiemuth.asyncsim.StdOutLog;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.function.BooleanSupplier;
 
 /**
  * Models the sandbox problem.
@@ -43,7 +44,29 @@ public class SandboxSystem {
      * @return
      */
     public int run(int n, Set<Integer> dirties) {
+        Simulator simulator = new Simulator(new StdOutLog());
+        simulator.setLogMsgReceived(true);
+        final SandboxParent parent = create(n, dirties, simulator);
 
+        simulator.runUntil(new BooleanSupplier() {
+            @Override
+            public boolean getAsBoolean() {
+                return !parent.isWaitingForAnswer();
+            }
+        }, parent);
+
+        return parent.getAnswer();
+    }
+
+    /**
+     * Create and initialize the distributed system for the sandbox problem.
+     *
+     * @param n number of children
+     * @param dirties the dirty children (ids between 1 and n)
+     * @param simulator
+     * @return the parent, which provides the answer
+     */
+    public static SandboxParent create(int n, Set<Integer> dirties, Simulator simulator) {
         if (n < 1) {
             throw new IllegalArgumentException("n must be at least 1");
         }
@@ -61,8 +84,6 @@ public class SandboxSystem {
         int sandboxId = 0;
         int parentId = n + 1;
 
-        Simulator simulator = new Simulator(new StdOutLog());
-        simulator.setLogMsgReceived(true);
         Network network = new Network(simulator);
 
         Link defaultLink = new Link(new FixedDuration(10));
@@ -81,12 +102,7 @@ public class SandboxSystem {
         }
 
         network.initTasks();
-
-        while (parent.isWaitingForAnswer()) {
-            simulator.step(50);
-        }
-
-        return parent.getAnswer();
+        return parent;
     }
 
     public static void main(String[] args) {
@@ -18,6 +18,7 @@
 package felixwiemuth.asyncsim.example;
 
 import felixwiemuth.asyncsim.FixedDuration;
+import felixwiemuth.asyncsim.Log;
 import felixwiemuth.asyncsim.Message;
 import felixwiemuth.asyncsim.Network;
 import felixwiemuth.asyncsim.Simulator;
@@ -32,32 +33,26 @@ import felixwiemuth.asyncsim.Task;
  */
 public class TokenRingTask extends Task {
 
+    private static final long serialVersionUID = 1L;
+
     private final int LOAD_GENERATOR; // id of load generator
     private boolean crNeeded = false; // critical region needed
 
     public TokenRingTask(int id, int loadGenerator, Simulator simulator, Network network, long delay) {
         super(id, simulator, network);
         this.LOAD_GENERATOR = loadGenerator;
-        addCmd(new Task.Command(
-                new Guard() {
-            @Override
-            public boolean check() {
-                Message m = peekMsg();
-                return m != null && m.getSrc() == LOAD_GENERATOR && m.getData().equals("load");
-            }
-        },
-                new Action(new FixedDuration(delay)) {
+        addCmd("load", LOAD_GENERATOR, new Action(new FixedDuration(delay)) {
             @Override
             public void run() {
                 pollMsg();
                 log("Received load");
                 crNeeded = true;
+                changed("crNeeded");
             }
-        }
-        ));
+        });
 
         addCmd(new Task.Command(
-                new Guard() {
+                new TrackedGuard(MAILBOX, "crNeeded") {
             @Override
             public boolean check() {
                 Message m = peekMsg();
@@ -71,16 +66,17 @@ public class TokenRingTask extends Task {
                 log("Received token");
                 log("Doing something in critical region");
                 crNeeded = false;
+                changed("crNeeded");
                 // Send token to first neighbor
-                int tokenReceiver = getNeighbors().iterator().next();
-                log("Sending token to " + tokenReceiver);
+                int tokenReceiver = getNeighborList().get(0);
+                log(Log.Level.INFO, "Sending token to %s", tokenReceiver);
                 sendMsg(tokenReceiver, "token");
             }
         }
         ));
 
         addCmd(new Task.Command(
-                new Guard() {
+                new TrackedGuard(MAILBOX, "crNeeded") {
             @Override
             public boolean check() {
                 Message m = peekMsg();
@@ -93,8 +89,8 @@ public class TokenRingTask extends Task {
                 pollMsg();
                 log("Received token");
                 // Send token to first neighbor
-                int tokenReceiver = getNeighbors().iterator().next();
-                log("Sending token to " + tokenReceiver);
+                int tokenReceiver = getNeighborList().get(0);
+                log(Log.Level.INFO, "Sending token to %s", tokenReceiver);
                 sendMsg(tokenReceiver, "token");
             }
         }
@@ -105,9 +101,9 @@ public class TokenRingTask extends Task {
     protected void onInit() {
         if (getId() == 1) {
             for (int dest : getNeighbors()) {
-                log("Sending initial token to " + dest);
-                sendMsg(dest, "token");
+                log(Log.Level.INFO, "Sending initial token to %s", dest);
             }
+            broadcast("token");
         }
     }
 }
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2017 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.asyncsim;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.IntPredicate;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Felix Wiemuth
+ */
+public class CalendarEventQueueNGTest {
+
+    private long[] times;
+    private long seq;
+    private int nextId;
+
+    private void add(long time, EventQueue heap, EventQueue queue) {
+        int event = nextId++;
+        if (event == times.length) {
+            times = Arrays.copyOf(times, 2 * event);
+        }
+        times[event] = time;
+        heap.add(event, time, seq);
+        queue.add(event, time, seq);
+        seq++;
+    }
+
+    /**
+     * Simulates a queue in operation: events are removed and new events are
+     * added at or after the time of the removed event. From time to time, a
+     * part of the events is removed by a filter. The queue must return the
+     * same events as the heap.
+     *
+     * @param queue
+     */
+    private void assertSameOrderAsHeap(EventQueue queue) {
+        Random random = new Random(42);
+        times = new long[64];
+        seq = 0;
+        nextId = 0;
+        EventQueue heap = new HeapEventQueue();
+        for (int i = 0; i < 100; i++) {
+            add(random.nextInt(1000), heap, queue);
+        }
+        IntPredicate filter = new IntPredicate() {
+            @Override
+            public boolean test(int event) {
+                return event % 3 == 0;
+            }
+        };
+        for (int i = 0; i < 100000; i++) {
+            assertEquals(queue.size(), heap.size());
+            if (i % 7000 == 6999) {
+                assertEquals(queue.removeIf(filter), heap.removeIf(filter));
+                if (heap.isEmpty()) {
+                    add(times[nextId - 1], heap, queue);
+                }
+            }
+            int event = heap.poll();
+            assertEquals(queue.peek(), event);
+            assertEquals(queue.poll(), event);
+            // Vary the number of added events so that the queue grows and shrinks
+            int add = i % 20000 < 10000 ? random.nextInt(3) : random.nextInt(2);
+            for (int k = 0; k < add || heap.isEmpty(); k++) {
+                int r = random.nextInt(100);
+                long delay = r == 0 ? random.nextInt(1 << 30) : r < 10 ? random.nextInt(100000) : random.nextInt(50);
+                add(times[event] + delay, heap, queue);
+            }
+        }
+        while (!heap.isEmpty()) {
+            assertEquals(queue.poll(), heap.poll());
+        }
+        assertTrue(queue.isEmpty());
+        assertEquals(queue.poll(), -1);
+    }
+
+    @Test
+    public void testSameOrderAsHeap() {
+        assertSameOrderAsHeap(new CalendarEventQueue());
+    }
+
+    @Test
+    public void testTimerWheelSameOrderAsHeap() {
+        assertSameOrderAsHeap(new TimerWheelEventQueue());
+    }
+
+    /**
+     * Taking all events with the same due time at once must give the same
+     * events in the same order as polling them one by one, also if the buffer
+     * is full before.
+     */
+    @Test
+    public void testHeapPollAt() {
+        Random random = new Random(42);
+        times = new long[64];
+        nextId = 0;
+        HeapEventQueue heap = new HeapEventQueue();
+        HeapEventQueue expected = new HeapEventQueue();
+        int[] buffer = new int[12];
+        long time = 0;
+        for (int i = 0; i < 20000; i++) {
+            for (int k = random.nextInt(8); k >= 0 || heap.isEmpty(); k--) {
+                seq = random.nextLong(); // as with random tie-breaking
+                add(time + random.nextInt(5), heap, expected);
+            }
+            time = times[expected.peek()];
+            int offset = random.nextInt(8);
+            int end = heap.pollAt(time, buffer, offset);
+            int n = 0;
+            while (offset + n < buffer.length && !expected.isEmpty() && times[expected.peek()] == time) {
+                assertEquals(buffer[offset + n], expected.poll());
+                n++;
+            }
+            assertEquals(end, offset + n);
+            assertEquals(heap.size(), expected.size());
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2017 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.asyncsim;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Felix Wiemuth
+ */
+public class DurationNGTest {
+
+    @Test
+    public void testRandomDuration() {
+        RandomDuration duration = new RandomDuration(new Random(1), 100, 30);
+        long sum = 0;
+        for (int i = 0; i < 10000; i++) {
+            long d = duration.getDuration();
+            assertTrue(d >= 0 && d <= 200, "duration " + d);
+            sum += d;
+        }
+        assertTrue(Math.abs(sum / 10000.0 - 100) < 2, "mean " + sum / 10000.0);
+        try {
+            new RandomDuration(100, 30).getDuration();
+            fail("expected an exception without random generator");
+        } catch (IllegalStateException ex) {
+        }
+    }
+
+    @Test
+    public void testMeans() {
+        assertMean(new ExponentialDuration(5, 100), 105, 3);
+        assertMean(new LogNormalDuration(Math.log(100), 0.5), 100 * Math.exp(0.125), 3);
+        assertMean(new ParetoDuration(100, 3), 150, 5);
+        assertMean(new BimodalDuration(0.9, new FixedDuration(10), new FixedDuration(1000)), 109, 3);
+        assertEquals(new ExponentialDuration(5, 100).getMinDuration(), 5);
+        assertEquals(new BimodalDuration(0.9, new FixedDuration(10), new FixedDuration(1000)).getMinDuration(), 10);
+    }
+
+    private void assertMean(Duration duration, double mean, double tolerance) {
+        Random random = StreamRandom.create(Simulator.Generator.SPLITMIX, 7);
+        double sum = 0;
+        int n = 100000;
+        for (int i = 0; i < n; i++) {
+            long d = duration.getDuration(random);
+            assertTrue(d >= duration.getMinDuration(), "duration " + d);
+            sum += d;
+        }
+        assertTrue(Math.abs(sum / n - mean) < tolerance, "mean " + sum / n + " instead of " + mean);
+    }
+
+    @Test
+    public void testMaximum() {
+        Random random = StreamRandom.create(Simulator.Generator.SPLITMIX, 7);
+        Duration[] durations = {new ExponentialDuration(5, 1e30), new LogNormalDuration(5, 100, 10),
+            new ExponentialDuration(5, 1000, 20), new LogNormalDuration(5, 10, 1, 20)};
+        long[] max = {Long.MAX_VALUE / 2, Long.MAX_VALUE / 2, 20, 20};
+        for (int k = 0; k < durations.length; k++) {
+            for (int i = 0; i < 1000; i++) {
+                long d = durations[k].getDuration(random);
+                assertTrue(d >= 5 && d <= max[k], "duration " + d);
+            }
+        }
+    }
+
+    @Test
+    public void testEmpirical() {
+        double[] weights = {1, 0, 6, 3};
+        EmpiricalDuration duration = new EmpiricalDuration(new long[]{10, 11, 20, 30, 40}, weights);
+        assertEquals(duration.getMinDuration(), 10);
+        Random random = new Random(3);
+        int n = 100000;
+        int[] counts = new int[4];
+        for (int i = 0; i < n; i++) {
+            long d = duration.getDuration(random);
+            if (d == 10) {
+                counts[0]++;
+            } else if (d >= 20 && d < 30) {
+                counts[2]++;
+            } else if (d >= 30 && d < 40) {
+                counts[3]++;
+            } else {
+                fail("duration " + d + " outside of bins");
+            }
+        }
+        for (int i = 0; i < 4; i++) {
+            assertTrue(Math.abs(counts[i] / (double) n - weights[i] / 10) < 0.01, Arrays.toString(counts));
+        }
+    }
+
+    /**
+     * Drawing durations at once must give the same durations as drawing them
+     * one by one.
+     */
+    @Test
+    public void testBatch() {
+        Duration[] durations = {
+            new FixedDuration(3),
+            new ExponentialDuration(50),
+            new BimodalDuration(0.5, new FixedDuration(1), new ExponentialDuration(10)),
+            new EmpiricalDuration(new long[]{0, 5, 100}, new double[]{2, 1})
+        };
+        for (Duration duration : durations) {
+            Random a = StreamRandom.create(Simulator.Generator.SPLITMIX, 5);
+            Random b = StreamRandom.create(Simulator.Generator.SPLITMIX, 5);
+            long[] batch = new long[100];
+            duration.getDurations(a, batch, 10, 90);
+            long[] single = new long[100];
+            for (int i = 10; i < 90; i++) {
+                single[i] = duration.getDuration(b);
+            }
+            assertEquals(batch, single);
+            assertEquals(a.nextLong(), b.nextLong());
+        }
+    }
+
+    @Test
+    public void testLoad() throws IOException {
+        Path file = Files.createTempFile("histogram", ".txt");
+        try {
+            Files.write(file, Arrays.asList("# latency histogram", "5 2", "", "10, 20, 6"), StandardCharsets.UTF_8);
+            EmpiricalDuration duration = EmpiricalDuration.load(file);
+            assertEquals(duration.getMinDuration(), 5);
+            Random random = new Random(9);
+            for (int i = 0; i < 1000; i++) {
+                long d = duration.getDuration(random);
+                assertTrue(d == 5 || d >= 10 && d < 20, "duration " + d);
+            }
+            Files.write(file, Arrays.asList("5 x"), StandardCharsets.UTF_8);
+            try {
+                EmpiricalDuration.load(file);
+                fail("expected an exception for a malformed histogram");
+            } catch (IOException ex) {
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2017 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.asyncsim;
+
+import felixwiemuth.asyncsim.example.SandboxSweep;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Felix Wiemuth
+ */
+public class EnsembleNGTest {
+
+    @Test
+    public void testRun() {
+        List<SandboxSweep.Point> points = new ArrayList<>();
+        for (int n = 1; n <= 4; n++) {
+            points.add(new SandboxSweep.Point(n, new HashSet<>(Arrays.asList(1, n))));
+        }
+        final Ensemble<SandboxSweep.Point, Integer> ensemble = new Ensemble<>(SandboxSweep.SCENARIO);
+        ensemble.setParallelism(3);
+        final Map<String, Ensemble.Run<SandboxSweep.Point, Integer>> runs = new HashMap<>();
+        ensemble.run(points, new long[]{1, 2, 3}, new Ensemble.Collector<SandboxSweep.Point, Integer>() {
+            @Override
+            public void collect(Ensemble.Run<SandboxSweep.Point, Integer> run) {
+                runs.put(run.getPoint() + " " + run.getSeed(), run);
+            }
+        });
+        assertEquals(runs.size(), 12);
+        for (Ensemble.Run<SandboxSweep.Point, Integer> run : runs.values()) {
+            assertFalse(run.isFailed());
+            // The output of a run is the same as when run alone
+            Ensemble.Run<SandboxSweep.Point, Integer> single = ensemble.run(run.getPoint(), run.getSeed());
+            assertEquals(run.getOutput(), single.getOutput());
+            assertEquals(run.getResult(), single.getResult());
+            assertEquals(run.getRunResult().getEvents(), single.getRunResult().getEvents());
+        }
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2017 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.asyncsim;
+
+import felixwiemuth.asyncsim.example.FloodingTask;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Felix Wiemuth
+ */
+public class NetworkNGTest {
+
+    @Test
+    public void testFrozenLinks() {
+        Network network = new Network(new Simulator(1, null));
+        Link shared = new Link(1);
+        Link other = new Link(2);
+        network.addLink(3, 7, shared);
+        network.addLink(3, 5, shared);
+        network.addLink(1, 3, shared);
+        network.addLink(3, 5, other); // replaces the first link from 3 to 5
+        assertEquals(new ArrayList<>(network.getNeighbors(3)), Arrays.asList(5, 7));
+        assertSame(network.getLink(3, 5), other);
+        assertSame(network.getLink(3, 7), shared);
+        assertNull(network.getLink(7, 3));
+        assertTrue(network.getNeighbors(2).isEmpty());
+        assertEquals(network.getLinkCount(), 3);
+
+        // Links added after freezing are merged
+        network.addLink(100, 3, other);
+        network.addLink(3, 4, other);
+        assertEquals(new ArrayList<>(network.getNeighbors(3)), Arrays.asList(4, 5, 7));
+        assertSame(network.getLink(100, 3), other);
+        assertSame(network.getLink(1, 3), shared);
+        assertEquals(network.getLinkObjects().length, 2);
+    }
+
+    @Test
+    public void testNeighborList() {
+        Network network = new Network(new Simulator(1, null));
+        Link link = new Link(1);
+        for (int j = 40; j >= 1; j--) {
+            network.addLink(0, j, link);
+        }
+        IntList neighbors = network.getNeighborList(0);
+        assertEquals(neighbors.size(), 40);
+        assertEquals(neighbors.get(0), 1);
+        assertEquals(neighbors.get(39), 40);
+        assertTrue(network.getNeighborList(1).isEmpty());
+        for (int k : new int[]{3, 30}) {
+            int[] sample = neighbors.sample(k, new Random(k));
+            assertEquals(sample, neighbors.sample(k, new Random(k)));
+            Set<Integer> distinct = new HashSet<>();
+            for (int dest : sample) {
+                assertTrue(neighbors.contains(dest));
+                distinct.add(dest);
+            }
+            assertEquals(distinct.size(), k);
+        }
+    }
+
+    private static void assertRegular(Network network, int n, int degree) {
+        for (int i = 1; i <= n; i++) {
+            IntList neighbors = network.getNeighborList(i);
+            assertEquals(neighbors.size(), degree);
+            for (int k = 0; k < degree; k++) {
+                assertTrue(neighbors.get(k) != i);
+                assertTrue(network.getNeighborList(neighbors.get(k)).contains(i));
+            }
+        }
+    }
+
+    @Test
+    public void testTopologies() {
+        Topology.LinkFactory links = Topology.shared(new Link(1));
+        Network network = new Network(new Simulator(1, null));
+        Topology.randomRegular(network, 200, 5, new Random(3), links);
+        assertRegular(network, 200, 5);
+        assertEquals(network.getLinkObjects().length, 1);
+        Network same = new Network(new Simulator(1, null));
+        Topology.randomRegular(same, 200, 5, new Random(3), links);
+        for (int i = 1; i <= 200; i++) {
+            assertEquals(same.getNeighborList(i).toArray(), network.getNeighborList(i).toArray());
+        }
+        try {
+            // n * d overflows an int
+            Topology.randomRegular(new Network(new Simulator(1, null)), 100000000, 22, new Random(3), links);
+            fail("expected an exception for too many links");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+        try {
+            Topology.barabasiAlbert(new Network(new Simulator(1, null)), 100000000, 50, new Random(3), links);
+            fail("expected an exception for too many links");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+
+        network = new Network(new Simulator(1, null));
+        Topology.hypercube(network, 5, links);
+        assertRegular(network, 32, 5);
+        network = new Network(new Simulator(1, null));
+        Topology.torus(network, 4, 6, links);
+        assertRegular(network, 24, 4);
+        network = new Network(new Simulator(1, null));
+        Topology.barabasiAlbert(network, 100, 2, new Random(3), links);
+        assertEquals(network.getLinkCount(), 2 * 2 * 98);
+    }
+
+    private static List<String> runFlooding(boolean implicit) {
+        final List<String> entries = new ArrayList<>();
+        Simulator simulator = new Simulator(9, new Log() {
+            @Override
+            public void log(long time, String msg) {
+                entries.add(time + " " + msg);
+            }
+        });
+        simulator.setLogMsgReceived(true);
+        Network network = new Network(simulator);
+        for (int i = 1; i <= 6; i++) {
+            network.addNode(new FloodingTask(i, simulator, network, i % 3));
+        }
+        if (implicit) {
+            network.setTopology(Topology.fullMesh(6, false, new Topology.LinkFactory() {
+                @Override
+                public Link create(int src, int dest) {
+                    return new Link(src * dest % 4 + 1);
+                }
+            }));
+        } else {
+            for (int i = 1; i <= 6; i++) {
+                for (int j = 1; j <= 6; j++) {
+                    if (i != j) {
+                        network.addLink(i, j, new Link(i * j % 4 + 1));
+                    }
+                }
+            }
+        }
+        network.sendMsg(new Message(1, 2, "0"));
+        simulator.runBefore(30);
+        return entries;
+    }
+
+    @Test
+    public void testImplicitTopology() {
+        ImplicitTopology ring = Topology.ring(5, Topology.shared(new Link(2)));
+        assertEquals(ring.getNeighbors(1).toArray(), new int[]{2, 5});
+        assertNull(ring.getLink(1, 3));
+        assertEquals(ring.getMinDelay(), 2);
+        ImplicitTopology mesh = Topology.fullMesh(4, false, new Link(3));
+        assertEquals(mesh.getNeighbors(3).toArray(), new int[]{1, 2, 4});
+        assertNull(mesh.getLink(3, 3));
+
+        List<String> stored = runFlooding(false);
+        assertTrue(stored.size() > 50);
+        assertEquals(runFlooding(true), stored);
+    }
+
+    private static void assertSameLinks(Network a, Network b, int n) {
+        assertEquals(a.getLinkCount(), b.getLinkCount());
+        for (int i = 1; i <= n; i++) {
+            IntList neighbors = a.getNeighborList(i);
+            assertEquals(b.getNeighborList(i).toArray(), neighbors.toArray());
+            for (int k = 0; k < neighbors.size(); k++) {
+                assertEquals(b.getLink(i, neighbors.get(k)).getMinDelay(), a.getLink(i, neighbors.get(k)).getMinDelay());
+            }
+        }
+    }
+
+    @Test
+    public void testTopologyFiles() throws IOException {
+        Path dir = Files.createTempDirectory("topology");
+        try {
+            Path text = dir.resolve("edges.txt");
+            Files.write(text, Arrays.asList("# src dest delay", "1 2 5", "2 3 7", "", "3 1 5", "1 3 4", "1 3 9"), StandardCharsets.US_ASCII);
+            Network network = new Network(new Simulator(1, null));
+            TopologyFiles.loadEdgeList(network, text, true);
+            assertEquals(network.getLinkCount(), 6);
+            assertEquals(network.getLink(1, 3).getMinDelay(), 9);
+            assertSame(network.getLink(2, 1), network.getLink(1, 2));
+            assertSame(network.getLink(3, 1), network.getLink(1, 3)); // replaced by the last link
+
+            Path binary = dir.resolve("edges.bin");
+            TopologyFiles.convertEdgeList(text, binary);
+            Network fromBinary = new Network(new Simulator(1, null));
+            TopologyFiles.loadEdgeList(fromBinary, binary, true);
+            assertSameLinks(network, fromBinary, 3);
+
+            Path saved = dir.resolve("network.bin");
+            TopologyFiles.save(network, saved);
+            Network loaded = new Network(new Simulator(1, null));
+            TopologyFiles.load(loaded, saved);
+            assertSameLinks(network, loaded, 3);
+
+            // Negative delays must be rejected
+            Path negative = dir.resolve("negative.txt");
+            Files.write(negative, Arrays.asList("1 2 5", "2 3 -5"), StandardCharsets.US_ASCII);
+            assertEdgeListFails(negative);
+            Path negativeBinary = dir.resolve("negative.bin");
+            TopologyFiles.convertEdgeList(text, negativeBinary);
+            byte[] edgeBytes = Files.readAllBytes(negativeBinary);
+            ByteBuffer.wrap(edgeBytes).putLong(16 + 16 + 8, -5); // delay of the second link
+            Files.write(negativeBinary, edgeBytes);
+            assertEdgeListFails(negativeBinary);
+
+            // Corrupt offsets and link indices must be rejected
+            byte[] bytes = Files.readAllBytes(saved);
+            ByteBuffer header = ByteBuffer.wrap(bytes);
+            int rows = header.getInt(8);
+            int entries = header.getInt(12);
+            Path corrupt = dir.resolve("corrupt.bin");
+            ByteBuffer.wrap(bytes).putInt(20 + 4 * (rows + 1), entries + 1);
+            Files.write(corrupt, bytes);
+            assertLoadFails(corrupt);
+            bytes = Files.readAllBytes(saved);
+            ByteBuffer.wrap(bytes).putInt(20 + 4 * (2 * rows + 1 + entries), 99);
+            Files.write(corrupt, bytes);
+            assertLoadFails(corrupt);
+        } finally {
+            for (Path file : Files.newDirectoryStream(dir)) {
+                Files.delete(file);
+            }
+            Files.delete(dir);
+        }
+    }
+
+    private void assertEdgeListFails(Path file) {
+        try {
+            TopologyFiles.loadEdgeList(new Network(new Simulator(1, null)), file, true);
+            fail("Loaded an edge list with a negative delay");
+        } catch (IOException ex) {
+            // expected
+        }
+    }
+
+    private void assertLoadFails(Path file) {
+        try {
+            TopologyFiles.load(new Network(new Simulator(1, null)), file);
+            fail("Loaded a corrupt network");
+        } catch (IOException ex) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2017 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.asyncsim;
+
+import felixwiemuth.asyncsim.example.FloodingTask;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Felix Wiemuth
+ */
+public class ParallelSimulatorNGTest {
+
+    private static class ListLog implements Log {
+
+        private final List<String> entries = new ArrayList<>();
+
+        @Override
+        public void log(long time, String msg) {
+            entries.add(String.format("%6d %s", time, msg));
+        }
+
+        /**
+         * Get the entries sorted, as entries of different partitions at the
+         * same time may be logged in any order.
+         *
+         * @return
+         */
+        List<String> getSorted() {
+            List<String> sorted = new ArrayList<>(entries);
+            Collections.sort(sorted);
+            return sorted;
+        }
+    }
+
+    /**
+     * A flooding task which logs the number of messages received so far and
+     * when it has not received a message for some time. Messages sent to
+     * itself are taken out of order and forwarded to a random neighbor.
+     */
+    private static class CountingTask extends FloodingTask {
+
+        private static final long serialVersionUID = 1L;
+
+        private int received = 0;
+        private EventHandle timeout;
+
+        CountingTask(int id, Simulator simulator, Network network, long delay) {
+            super(id, simulator, network, delay);
+            addCmd(new Command(new TrackedGuard(MAILBOX) {
+                @Override
+                public boolean check() {
+                    return peekMsgFrom(getId()) != null;
+                }
+            }, new Action() {
+                @Override
+                public void run() {
+                    Object data = pollMsgFrom(getId()).getData();
+                    log("Received own " + data);
+                    sendMsg(getNeighborList().sample(getRandom()), data + "-");
+                }
+            }));
+        }
+
+        @Override
+        public void addMsg(Message msg) {
+            received++;
+            if (received % 10 == 0) {
+                log("Received " + received);
+            }
+            super.addMsg(msg);
+            if (timeout != null) {
+                timeout.cancel();
+            }
+            timeout = scheduleCancellableAction(new Action() {
+                @Override
+                public void run() {
+                    log("Timeout");
+                }
+            }, new FixedDuration(6));
+        }
+    }
+
+    /**
+     * A random delay of up to two more than a minimum.
+     */
+    private static class JitterDuration implements Duration {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long min;
+
+        JitterDuration(long min) {
+            this.min = min;
+        }
+
+        @Override
+        public long getDuration() {
+            return min;
+        }
+
+        @Override
+        public long getDuration(Random random) {
+            return min + random.nextInt(3);
+        }
+
+        @Override
+        public long getMinDuration() {
+            return min;
+        }
+    }
+
+    /**
+     * Creates a flooding system where the link from i to j has delay
+     * {@code (i * j) % mod + min}, plus a random jitter shared by all links
+     * if {@code jitter} is set.
+     */
+    private static Network createFlooding(Log log, int n, int mod, int min, boolean jitter) {
+        Simulator simulator = new Simulator(7, log);
+        simulator.setTieBreak(Simulator.TieBreak.TASK);
+        simulator.setLogMsgReceived(true);
+        Network network = new Network(simulator);
+        for (int i = 1; i <= n; i++) {
+            network.addNode(new CountingTask(i, simulator, network, i % 3));
+        }
+        for (int i = 1; i <= n; i++) {
+            for (int j = 1; j <= n; j++) {
+                network.addLink(i, j, jitter ? new Link(new JitterDuration(min)) : new Link((i * j) % mod + min));
+            }
+        }
+        network.sendMsg(new Message(1, 1, "0"));
+        network.sendMsg(new Message(n, n, "0"));
+        return network;
+    }
+
+    private static ParallelSimulator assertSameAsSequential(int n, int mod, int min, long until, int partitions, ParallelSimulator.Mode mode, int batchSize) {
+        return assertSameAsSequential(n, mod, min, false, until, partitions, mode, batchSize);
+    }
+
+    private static ParallelSimulator assertSameAsSequential(int n, int mod, int min, boolean jitter, long until, int partitions, ParallelSimulator.Mode mode, int batchSize) {
+        ListLog sequentialLog = new ListLog();
+        Network sequential = createFlooding(sequentialLog, n, mod, min, jitter);
+        sequential.getSimulator().runBefore(until + 1);
+
+        ListLog parallelLog = new ListLog();
+        Network network = createFlooding(parallelLog, n, mod, min, jitter);
+        ParallelSimulator parallel = new ParallelSimulator(network, partitions, mode);
+        parallel.setBatchSize(batchSize);
+        parallel.runUntil(until / 2);
+        parallel.runUntil(until);
+        parallel.shutdown();
+
+        assertTrue(sequentialLog.entries.size() > 1000);
+        assertEquals(parallel.getTime(), sequential.getSimulator().getTime());
+        assertEquals(parallelLog.getSorted(), sequentialLog.getSorted());
+        return parallel;
+    }
+
+    @Test
+    public void testSameAsSequential() {
+        assertSameAsSequential(12, 7, 3, 150, 4, ParallelSimulator.Mode.CONSERVATIVE, 1);
+    }
+
+    @Test
+    public void testZeroLookahead() {
+        assertSameAsSequential(12, 5, 0, 40, 3, ParallelSimulator.Mode.CONSERVATIVE, 1);
+    }
+
+    @Test
+    public void testOptimisticSameAsSequential() {
+        ParallelSimulator parallel = assertSameAsSequential(12, 7, 3, 150, 4, ParallelSimulator.Mode.OPTIMISTIC, 16);
+        assertTrue(parallel.getRollbackCount() > 0);
+    }
+
+    @Test
+    public void testOptimisticZeroLookahead() {
+        assertSameAsSequential(12, 5, 0, 40, 3, ParallelSimulator.Mode.OPTIMISTIC, 1024);
+    }
+
+    @Test
+    public void testRandomDelays() {
+        assertSameAsSequential(12, 7, 2, true, 150, 4, ParallelSimulator.Mode.CONSERVATIVE, 1);
+        assertSameAsSequential(12, 7, 2, true, 150, 4, ParallelSimulator.Mode.OPTIMISTIC, 16);
+    }
+}
@@ -0,0 +1,494 @@
+/*
+ * Copyright (C) 2017 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.asyncsim;
+
+import felixwiemuth.asyncsim.example.FloodingTask;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+import java.util.function.BooleanSupplier;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Felix Wiemuth
+ */
+public class SimulatorNGTest {
+
+    private static class ListLog implements Log {
+
+        private final List<String> entries = new ArrayList<>();
+
+        @Override
+        public void log(long time, String msg) {
+            entries.add(time + " " + msg);
+        }
+    }
+
+    /**
+     * Runs a flooding system with 9 nodes for a fixed number of steps.
+     *
+     * @param seed
+     * @param tieBreak
+     * @return the log of the run
+     */
+    private static List<String> runFlooding(long seed, Simulator.TieBreak tieBreak) {
+        ListLog log = new ListLog();
+        Simulator simulator = new Simulator(seed, log);
+        simulator.setTieBreak(tieBreak);
+        simulator.setLogMsgReceived(true);
+        flood(simulator);
+        return log.entries;
+    }
+
+    /**
+     * Runs the flooding system of {@link #runFlooding(long, Simulator.TieBreak)}
+     * with the given batching and event queue.
+     */
+    private static List<String> runFlooding(long seed, Simulator.TieBreak tieBreak, Simulator.Batching batching, EventQueue queue) {
+        ListLog log = new ListLog();
+        runFlooding(seed, tieBreak, batching, queue, log);
+        return log.entries;
+    }
+
+    private static void runFlooding(long seed, Simulator.TieBreak tieBreak, Simulator.Batching batching, EventQueue queue, Log log) {
+        Simulator simulator = new Simulator(seed, log, new FixedDuration(1), queue);
+        simulator.setTieBreak(tieBreak);
+        simulator.setBatching(batching);
+        simulator.setLogMsgReceived(true);
+        flood(simulator);
+    }
+
+    private static void flood(Simulator simulator) {
+        Network network = new Network(simulator);
+        for (int i = 1; i <= 9; i++) {
+            network.addNode(new FloodingTask(i, simulator, network, i));
+        }
+        for (int i = 1; i <= 9; i++) {
+            for (int j = 1; j <= 9; j++) {
+                network.addLink(i, j, new Link(i * j % 4));
+            }
+        }
+        network.sendMsg(new Message(1, 1, "0"));
+        simulator.step(5000);
+    }
+
+    /**
+     * Forwards every message to two random neighbors.
+     */
+    private static class RelayTask extends Task {
+
+        private static final long serialVersionUID = 1L;
+
+        RelayTask(int id, Simulator simulator, Network network) {
+            super(id, simulator, network);
+            addCmd(new Command(new TrackedGuard(MAILBOX) {
+                @Override
+                public boolean check() {
+                    return hasMsg();
+                }
+            }, new Action() {
+                @Override
+                public void run() {
+                    Message msg = pollMsg();
+                    IntList neighbors = getNeighborList();
+                    for (int i = 0; i < 2; i++) {
+                        sendMsg(neighbors.sample(getRandom()), msg.getData());
+                    }
+                }
+            }));
+        }
+    }
+
+    /**
+     * Runs a relay system with 9 nodes for a fixed number of steps, where
+     * the links deliver as given.
+     */
+    private static List<String> runRelay(Simulator.TieBreak tieBreak, Simulator.Batching batching, Link.Delivery delivery) {
+        ListLog log = new ListLog();
+        Simulator simulator = new Simulator(5, log);
+        simulator.setTieBreak(tieBreak);
+        simulator.setBatching(batching);
+        simulator.setLogMsgReceived(true);
+        Network network = new Network(simulator);
+        for (int i = 1; i <= 9; i++) {
+            network.addNode(new RelayTask(i, simulator, network));
+        }
+        for (int i = 1; i <= 9; i++) {
+            for (int j = 1; j <= 9; j++) {
+                Link link = new Link(i * j % 4);
+                link.setDelivery(delivery);
+                network.addLink(i, j, link);
+            }
+        }
+        network.sendMsg(new Message(1, 1, "x"));
+        network.sendMsg(new Message(9, 9, "y"));
+        simulator.step(5000);
+        return log.entries;
+    }
+
+    @Test
+    public void testReproducible() {
+        assertEquals(runFlooding(1, Simulator.TieBreak.FIFO), runFlooding(1, Simulator.TieBreak.FIFO));
+        assertEquals(runFlooding(1, Simulator.TieBreak.RANDOM), runFlooding(1, Simulator.TieBreak.RANDOM));
+    }
+
+    @Test
+    public void testSeedMatters() {
+        assertNotEquals(runFlooding(1, Simulator.TieBreak.FIFO), runFlooding(2, Simulator.TieBreak.FIFO));
+        assertNotEquals(runFlooding(1, Simulator.TieBreak.FIFO), runFlooding(1, Simulator.TieBreak.RANDOM));
+    }
+
+    @Test
+    public void testBatching() {
+        for (Simulator.TieBreak tieBreak : Simulator.TieBreak.values()) {
+            List<String> expected = runFlooding(3, tieBreak, Simulator.Batching.NONE, new HeapEventQueue());
+            assertEquals(runFlooding(3, tieBreak, Simulator.Batching.ORDERED, new HeapEventQueue()), expected);
+            assertEquals(runFlooding(3, tieBreak, Simulator.Batching.ORDERED, new CalendarEventQueue()), expected);
+            assertEquals(runFlooding(3, tieBreak, Simulator.Batching.NONE, new TimerWheelEventQueue()), expected);
+        }
+        List<String> shuffled = runFlooding(3, Simulator.TieBreak.FIFO, Simulator.Batching.SHUFFLED, new CalendarEventQueue());
+        assertEquals(runFlooding(3, Simulator.TieBreak.FIFO, Simulator.Batching.SHUFFLED, new HeapEventQueue()), shuffled);
+        assertNotEquals(shuffled, runFlooding(3, Simulator.TieBreak.FIFO, Simulator.Batching.NONE, new HeapEventQueue()));
+    }
+
+    @Test
+    public void testQueuedLinks() {
+        for (Simulator.TieBreak tieBreak : Simulator.TieBreak.values()) {
+            List<String> expected = runRelay(tieBreak, Simulator.Batching.NONE, Link.Delivery.SEPARATE);
+            assertEquals(runRelay(tieBreak, Simulator.Batching.NONE, Link.Delivery.QUEUED), expected);
+            assertEquals(runRelay(tieBreak, Simulator.Batching.ORDERED, Link.Delivery.QUEUED), expected);
+        }
+    }
+
+    @Test
+    public void testFifoLink() {
+        ListLog log = new ListLog();
+        Simulator simulator = new Simulator(1, log);
+        simulator.setLogMsgReceived(true);
+        Network network = new Network(simulator);
+        network.addNode(new Task(1, simulator, network));
+        network.addNode(new Task(2, simulator, network));
+        final Random random = new Random(1);
+        Link link = new Link(new Duration() {
+            @Override
+            public long getDuration() {
+                return random.nextInt(100);
+            }
+        });
+        link.setDelivery(Link.Delivery.FIFO);
+        network.addTwoWayLink(1, 2, link);
+        for (int i = 0; i < 100; i++) {
+            network.sendMsg(new Message(1, 2, i));
+        }
+        simulator.runToQuiescence();
+        assertEquals(log.entries.size(), 100);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(log.entries.get(i).endsWith("[1->2]: " + i));
+        }
+    }
+
+    /**
+     * A FIFO link shared by several pairs of tasks must only keep the order
+     * of the messages of each pair.
+     */
+    @Test
+    public void testSharedFifoLink() {
+        ListLog log = new ListLog();
+        Simulator simulator = new Simulator(1, log);
+        simulator.setLogMsgReceived(true);
+        Network network = new Network(simulator);
+        for (int i = 1; i <= 3; i++) {
+            network.addNode(new Task(i, simulator, network));
+        }
+        final long[] delays = {100, 1, 1, 1};
+        Link link = new Link(new Duration() {
+            private int next = 0;
+
+            @Override
+            public long getDuration() {
+                return delays[next++];
+            }
+        });
+        link.setDelivery(Link.Delivery.FIFO);
+        network.addTwoWayLink(1, 2, link);
+        network.addLink(3, 2, link);
+        network.sendMsg(new Message(1, 2, "a"));
+        network.sendMsg(new Message(2, 1, "b"));
+        network.sendMsg(new Message(3, 2, "c"));
+        network.sendMsg(new Message(1, 2, "d"));
+        simulator.runToQuiescence();
+        assertEquals(log.entries.size(), 4);
+        assertTrue(log.entries.get(0).startsWith("1 ") && log.entries.get(0).endsWith("[2->1]: b"), log.entries.get(0));
+        assertTrue(log.entries.get(1).startsWith("1 ") && log.entries.get(1).endsWith("[3->2]: c"), log.entries.get(1));
+        assertTrue(log.entries.get(2).startsWith("100 ") && log.entries.get(2).endsWith("[1->2]: a"), log.entries.get(2));
+        assertTrue(log.entries.get(3).startsWith("100 ") && log.entries.get(3).endsWith("[1->2]: d"), log.entries.get(3));
+    }
+
+    /**
+     * A FIFO link must keep the order of the messages of a pair of tasks if
+     * ties are broken randomly.
+     */
+    @Test
+    public void testFifoLinkRandomTieBreak() {
+        for (long seed = 1; seed <= 20; seed++) {
+            ListLog log = new ListLog();
+            Simulator simulator = new Simulator(seed, log);
+            simulator.setTieBreak(Simulator.TieBreak.RANDOM);
+            simulator.setLogMsgReceived(true);
+            Network network = new Network(simulator);
+            network.addNode(new Task(1, simulator, network));
+            network.addNode(new Task(2, simulator, network));
+            Link link = new Link(new Duration() {
+                private boolean first = true;
+
+                @Override
+                public long getDuration() {
+                    long delay = first ? 100 : 1;
+                    first = false;
+                    return delay;
+                }
+            });
+            link.setDelivery(Link.Delivery.FIFO);
+            network.addLink(1, 2, link);
+            for (int i = 0; i < 8; i++) {
+                network.sendMsg(new Message(1, 2, i));
+            }
+            simulator.runToQuiescence();
+            assertEquals(log.entries.size(), 8);
+            for (int i = 0; i < 8; i++) {
+                assertTrue(log.entries.get(i).endsWith("[1->2]: " + i), "seed " + seed + ": " + log.entries);
+            }
+        }
+    }
+
+    @Test
+    public void testRunUntil() {
+        Simulator simulator = new Simulator(1, new ListLog());
+        final int[] count = new int[1];
+        for (int i = 1; i <= 10; i++) {
+            simulator.addEvent(10 * i, new Runnable() {
+                @Override
+                public void run() {
+                    count[0]++;
+                }
+            });
+        }
+        RunResult result = simulator.runUntil(30);
+        assertEquals(result.getEvents(), 3);
+        assertEquals(result.getTime(), 30);
+        result = simulator.runFor(25);
+        assertEquals(result.getEvents(), 2);
+        assertEquals(result.getTime(), 55);
+        result = simulator.runUntil(new BooleanSupplier() {
+            @Override
+            public boolean getAsBoolean() {
+                return count[0] == 8;
+            }
+        });
+        assertEquals(result.getEvents(), 3);
+        assertEquals(result.getTime(), 80);
+        result = simulator.runToQuiescence();
+        assertEquals(result.getEvents(), 2);
+        assertTrue(result.isFinished());
+    }
+
+    /**
+     * Running for a duration must move the time forward also if no event is
+     * due within the duration.
+     */
+    @Test
+    public void testRunForIdle() {
+        Simulator simulator = new Simulator(1, new ListLog());
+        final int[] count = new int[1];
+        for (long time : new long[]{30, 100}) {
+            simulator.addEvent(time, new Runnable() {
+                @Override
+                public void run() {
+                    count[0]++;
+                }
+            });
+        }
+        long[] events = new long[4];
+        for (int i = 0; i < 4; i++) {
+            RunResult result = simulator.runFor(25);
+            assertEquals(result.getTime(), 25 * (i + 1));
+            events[i] = result.getEvents();
+        }
+        assertEquals(events, new long[]{0, 1, 0, 1});
+        assertEquals(count[0], 2);
+        assertTrue(simulator.runFor(25).isFinished());
+        assertEquals(simulator.getTime(), 125);
+    }
+
+    @Test
+    public void testCancel() {
+        Simulator simulator = new Simulator(1, new ListLog());
+        final int[] count = new int[1];
+        Runnable runnable = new Runnable() {
+            @Override
+            public void run() {
+                count[0]++;
+            }
+        };
+        EventHandle[] handles = new EventHandle[1000];
+        for (int i = 0; i < handles.length; i++) {
+            handles[i] = simulator.addCancellableEvent(i, runnable);
+        }
+        simulator.runUntil(99);
+        for (int i = 0; i < handles.length; i++) {
+            if (i < 100) {
+                assertFalse(handles[i].cancel());
+            } else if (i % 4 != 0) {
+                assertTrue(handles[i].cancel());
+            }
+        }
+        assertFalse(handles[101].cancel());
+        assertTrue(handles[101].isCancelled());
+        assertTrue(handles[200].isPending());
+        RunResult result = simulator.runToQuiescence();
+        assertEquals(result.getEvents(), 225);
+        assertEquals(count[0], 325);
+        assertFalse(handles[200].isPending());
+    }
+
+    @Test
+    public void testMulticast() {
+        ListLog log = new ListLog();
+        Simulator simulator = new Simulator(1, log);
+        simulator.setLogMsgReceived(true);
+        Network network = new Network(simulator);
+        network.addNode(new Task(0, simulator, network));
+        for (int i = 1; i <= 20; i++) {
+            network.addNode(new Task(i, simulator, network));
+            network.addLink(i, 0, new Link(1));
+            network.addLink(0, i, new Link(i % 2 + 1));
+        }
+        network.broadcast(0, "x");
+        RunResult result = simulator.runToQuiescence();
+        assertEquals(result.getEvents(), 2); // one event for each delay
+        assertEquals(log.entries.size(), 20);
+        assertEquals(log.entries.get(0), "1 MSG RCV [0->2]: x");
+        assertEquals(log.entries.get(19), "2 MSG RCV [0->19]: x");
+
+        // Groups of messages by delay keep the order of the destinations
+        log.entries.clear();
+        int[] dests = new int[100];
+        for (int i = 1; i <= 100; i++) {
+            network.addNode(new Task(100 + i, simulator, network));
+            network.addLink(0, 100 + i, new Link(i % 7 + 1));
+            dests[100 - i] = 100 + i;
+        }
+        network.multicast(0, dests, "y");
+        result = simulator.runToQuiescence();
+        assertEquals(result.getEvents(), 7);
+        assertEquals(log.entries.size(), 100);
+        for (int i = 1; i < 100; i++) {
+            String[] prev = log.entries.get(i - 1).split(" ");
+            String[] entry = log.entries.get(i).split(" ");
+            int prevDest = Integer.parseInt(prev[3].substring(4, prev[3].length() - 2));
+            int dest = Integer.parseInt(entry[3].substring(4, entry[3].length() - 2));
+            assertTrue(Long.parseLong(prev[0]) < Long.parseLong(entry[0]) || prev[0].equals(entry[0]) && prevDest > dest, log.entries.get(i));
+        }
+    }
+
+    @Test
+    public void testGenerators() {
+        Simulator simulator = new Simulator(3, null);
+        simulator.setGenerator(Simulator.Generator.LCG);
+        StreamRandom lcg = simulator.newRandom(5);
+        long[] saved = new long[StreamRandom.STATE_SIZE];
+        lcg.save(saved);
+        Random expected = new Random(saved[0]);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(lcg.nextInt(100), expected.nextInt(100));
+        }
+        try {
+            simulator.setGenerator(Simulator.Generator.SPLITMIX);
+            fail("generator changed after use");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+
+        StreamRandom splitMix = new Simulator(3, null).newRandom(5);
+        splitMix.nextGaussian();
+        splitMix.save(saved);
+        double[] values = {splitMix.nextGaussian(), splitMix.nextDouble(), splitMix.nextInt(7)};
+        splitMix.restore(saved);
+        assertEquals(splitMix.nextGaussian(), values[0]);
+        assertEquals(splitMix.nextDouble(), values[1]);
+        assertEquals((double) splitMix.nextInt(7), values[2]);
+    }
+
+    /**
+     * A trace must contain a record for each entry of the text log.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testTrace() throws IOException {
+        List<String> entries = runFlooding(1, Simulator.TieBreak.FIFO, Simulator.Batching.NONE, new HeapEventQueue());
+        Path file = Files.createTempFile("trace", ".bin");
+        Path text = Files.createTempFile("trace", ".txt");
+        try {
+            try (TraceLog trace = new TraceLog(file)) {
+                runFlooding(1, Simulator.TieBreak.FIFO, Simulator.Batching.NONE, new HeapEventQueue(), trace);
+                assertEquals(trace.getRecordCount(), entries.size());
+            }
+            try (TraceReader reader = new TraceReader(file)) {
+                assertEquals(reader.getRecordCount(), entries.size());
+                for (String entry : entries) {
+                    assertTrue(reader.next());
+                    int space = entry.indexOf(' ');
+                    String msg = entry.substring(space + 1);
+                    assertEquals(reader.getTime(), Long.parseLong(entry.substring(0, space)));
+                    if (msg.startsWith("MSG RCV [")) {
+                        int arrow = msg.indexOf("->");
+                        int end = msg.indexOf("]: ");
+                        assertEquals(reader.getCategory(), Log.Category.MSG_RECEIVED);
+                        assertEquals(reader.getSrc(), Integer.parseInt(msg.substring(9, arrow)));
+                        assertEquals(reader.getDest(), Integer.parseInt(msg.substring(arrow + 2, end)));
+                        assertEquals(reader.getTask(), reader.getDest());
+                        assertEquals(reader.getPayload(), msg.substring(end + 3).hashCode());
+                    } else {
+                        int colon = msg.indexOf(": ");
+                        assertEquals(reader.getCategory(), Log.Category.TASK);
+                        assertEquals(reader.getTask(), Integer.parseInt(msg.substring(0, colon).trim()));
+                        assertEquals(reader.getSrc(), TraceReader.NONE);
+                        assertEquals(reader.getPayload(), msg.substring(colon + 2).hashCode());
+                    }
+                }
+                assertFalse(reader.next());
+            }
+            TraceReader.toText(file, text);
+            assertEquals(Files.readAllLines(text, StandardCharsets.UTF_8).size(), entries.size());
+        } finally {
+            Files.delete(file);
+            Files.delete(text);
+        }
+    }
+}
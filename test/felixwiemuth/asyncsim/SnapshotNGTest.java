@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2017 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.asyncsim;
+
+import felixwiemuth.asyncsim.example.FloodingTask;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Felix Wiemuth
+ */
+public class SnapshotNGTest {
+
+    private static class ListLog implements Log {
+
+        private final List<String> entries = new ArrayList<>();
+
+        @Override
+        public void log(long time, String msg) {
+            entries.add(time + " " + msg);
+        }
+    }
+
+    private static Network createFlooding(Log log) {
+        Simulator simulator = new Simulator(5, log);
+        simulator.setTieBreak(Simulator.TieBreak.RANDOM);
+        simulator.setLogMsgReceived(true);
+        Network network = new Network(simulator);
+        for (int i = 1; i <= 8; i++) {
+            network.addNode(new FloodingTask(i, simulator, network, i % 3));
+        }
+        for (int i = 1; i <= 8; i++) {
+            for (int j = 1; j <= 8; j++) {
+                network.addLink(i, j, new Link((i * j) % 5 + 1));
+            }
+        }
+        network.sendMsg(new Message(1, 1, "0"));
+        return network;
+    }
+
+    @Test
+    public void testRestore() throws IOException {
+        Network network = createFlooding(new ListLog());
+        network.getSimulator().runUntil(50);
+        Snapshot snapshot = Snapshot.take(network);
+
+        ListLog original = new ListLog();
+        network.getSimulator().setLog(original);
+        network.getSimulator().runUntil(100);
+        assertTrue(original.entries.size() > 100);
+
+        ListLog restored = new ListLog();
+        snapshot.restore(restored).getSimulator().runUntil(100);
+        assertEquals(restored.entries, original.entries);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        snapshot.save(out);
+        assertTrue(out.size() < snapshot.size());
+        ListLog loaded = new ListLog();
+        Snapshot.load(new ByteArrayInputStream(out.toByteArray())).restore(loaded).getSimulator().runUntil(100);
+        assertEquals(loaded.entries, original.entries);
+
+        // A branch where a task dies
+        ListLog branch = new ListLog();
+        Network killed = snapshot.restore(branch);
+        killed.getTask(1).setState(Task.State.DEAD);
+        killed.getSimulator().runUntil(100);
+        assertNotEquals(branch.entries, original.entries);
+    }
+}
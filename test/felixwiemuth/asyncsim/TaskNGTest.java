@@ -0,0 +1,380 @@
+/*
+ * Copyright (C) 2017 Felix Wiemuth
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package felixwiemuth.asyncsim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author Felix Wiemuth
+ */
+public class TaskNGTest {
+
+    private static class ListLog implements Log {
+
+        private final List<String> entries = new ArrayList<>();
+
+        @Override
+        public void log(long time, String msg) {
+            entries.add(time + " " + msg);
+        }
+    }
+
+    /**
+     * A task with a command which forwards messages, increasing a counter with
+     * every 20th message, and 100 commands which run once the counter reaches
+     * a certain value.
+     */
+    private static class ModuloTask extends Task {
+
+        private static final long serialVersionUID = 1L;
+
+        private int counter = 0;
+        private int forwarded = 0;
+        private int checks = 0;
+
+        ModuloTask(int id, Simulator simulator, Network network, final int next, boolean tracked) {
+            super(id, simulator, network);
+            for (int k = 0; k < 100; k++) {
+                final int value = k;
+                Guard guard = new Guard() {
+                    @Override
+                    public boolean check() {
+                        checks++;
+                        return counter == 3 * value + 1;
+                    }
+                };
+                if (tracked) {
+                    guard = new TrackedGuard("counter") {
+                        @Override
+                        public boolean check() {
+                            checks++;
+                            return counter == 3 * value + 1;
+                        }
+                    };
+                }
+                addCmd(new Command(guard, new Action() {
+                    @Override
+                    public void run() {
+                        log("Reached " + counter);
+                        counter++;
+                        changed("counter");
+                    }
+                }));
+            }
+            Guard hasMsg = new Guard() {
+                @Override
+                public boolean check() {
+                    checks++;
+                    return hasMsg();
+                }
+            };
+            if (tracked) {
+                hasMsg = new TrackedGuard(MAILBOX) {
+                    @Override
+                    public boolean check() {
+                        checks++;
+                        return hasMsg();
+                    }
+                };
+            }
+            addCmd(new Command(hasMsg, new Action() {
+                @Override
+                public void run() {
+                    Message msg = pollMsg();
+                    sendMsg(next, msg.getData());
+                    if (++forwarded % 20 == 0) {
+                        counter++;
+                        changed("counter");
+                    }
+                }
+            }));
+        }
+    }
+
+    private static int run(boolean tracked, List<String> entries) {
+        ListLog log = new ListLog();
+        Simulator simulator = new Simulator(3, log);
+        Network network = new Network(simulator);
+        ModuloTask[] tasks = new ModuloTask[4];
+        for (int i = 1; i <= tasks.length; i++) {
+            tasks[i - 1] = new ModuloTask(i, simulator, network, i % tasks.length + 1, tracked);
+            network.addNode(tasks[i - 1]);
+        }
+        for (int i = 1; i <= tasks.length; i++) {
+            network.addLink(i, i, new Link(1));
+            network.addLink(i, i % tasks.length + 1, new Link(2));
+        }
+        network.sendMsg(new Message(1, 1, "a"));
+        network.sendMsg(new Message(3, 3, "b"));
+        simulator.runUntil(2000);
+        entries.addAll(log.entries);
+        int checks = 0;
+        for (ModuloTask task : tasks) {
+            checks += task.checks;
+        }
+        return checks;
+    }
+
+    /**
+     * Guards with declared inputs must behave like guards checked every time,
+     * while being checked less often.
+     */
+    @Test
+    public void testTrackedGuards() {
+        List<String> expected = new ArrayList<>();
+        int checks = run(false, expected);
+        List<String> entries = new ArrayList<>();
+        int trackedChecks = run(true, entries);
+        assertTrue(expected.size() > 40);
+        assertEquals(entries, expected);
+        assertTrue(trackedChecks < checks / 5);
+    }
+
+    private static enum Kind {
+        PING, PONG
+    }
+
+    /**
+     * A task forwarding messages depending on their data and source, with
+     * commands registered against tags or equivalent plain guards.
+     */
+    private static class TagTask extends Task {
+
+        private static final long serialVersionUID = 1L;
+
+        TagTask(int id, Simulator simulator, Network network, final int next, boolean tagged) {
+            super(id, simulator, network);
+            final Object[] tags = {Kind.PING, Kind.PONG, 7, String.class};
+            for (int k = 0; k < tags.length; k++) {
+                final Object tag = tags[k];
+                final int src = k == 1 ? next : -1;
+                Action action = new Action() {
+                    @Override
+                    public void run() {
+                        Message msg = pollMsg();
+                        log("Tag " + tag + " from " + msg.getSrc());
+                        Object[] replies = {Kind.PONG, 7, "x", Kind.PING};
+                        sendMsg(getRandom().nextBoolean() ? next : msg.getSrc(), replies[getRandom().nextInt(replies.length)]);
+                    }
+                };
+                if (tagged) {
+                    addCmd(tag, src, action);
+                } else {
+                    addCmd(new Command(new Guard() {
+                        @Override
+                        public boolean check() {
+                            Message msg = peekMsg();
+                            return msg != null && (src < 0 || msg.getSrc() == src)
+                                    && (tag instanceof Class ? ((Class) tag).isInstance(msg.getData()) : tag.equals(msg.getData()));
+                        }
+                    }, action));
+                }
+            }
+            // Messages not matching any tag
+            addCmd(new Command(new Guard() {
+                @Override
+                public boolean check() {
+                    Message msg = peekMsg();
+                    return msg != null && msg.getData() == Kind.PONG && msg.getSrc() != next;
+                }
+            }, new Action() {
+                @Override
+                public void run() {
+                    log("Redirected " + pollMsg().getData());
+                    sendMsg(next, Kind.PING);
+                }
+            }));
+        }
+    }
+
+    private static List<String> runTags(boolean tagged) {
+        ListLog log = new ListLog();
+        Simulator simulator = new Simulator(5, log);
+        Network network = new Network(simulator);
+        int n = 5;
+        for (int i = 1; i <= n; i++) {
+            network.addNode(new TagTask(i, simulator, network, i % n + 1, tagged));
+        }
+        for (int i = 1; i <= n; i++) {
+            for (int j = 1; j <= n; j++) {
+                network.addLink(i, j, new Link(i + j));
+            }
+        }
+        for (int i = 1; i <= n; i++) {
+            network.sendMsg(new Message(i, i, Kind.PING));
+            network.sendMsg(new Message(i, i, 7));
+        }
+        simulator.runUntil(3000);
+        return log.entries;
+    }
+
+    @Test
+    public void testTaggedCommands() {
+        List<String> expected = runTags(false);
+        assertTrue(expected.size() > 1000);
+        assertEquals(runTags(true), expected);
+    }
+
+    /**
+     * A task which takes messages out of its message queue by source and tag,
+     * a different script in every action.
+     */
+    private static class SelectiveTask extends Task {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> results = new ArrayList<>();
+        private int step = 0;
+
+        SelectiveTask(int id, Simulator simulator, Network network) {
+            super(id, simulator, network);
+            addCmd(new Command(new Guard() {
+                @Override
+                public boolean check() {
+                    return hasMsg();
+                }
+            }, new Action(new FixedDuration(10)) {
+                @Override
+                public void run() {
+                    switch (step++) {
+                        case 0:
+                            // Messages received while busy are held and not yet visible
+                            add(peekMsgFrom(3));
+                            add(peekMsgFrom(2));
+                            add(pollMsgWithTag(7));
+                            add(pollMsg());
+                            break;
+                        case 1:
+                            add(pollMsgFrom(4));
+                            add(peekMsgWithTag(7));
+                            add(pollMsgWithTag(String.class));
+                            add(pollMsgFrom(2));
+                            add(peekMsg());
+                            break;
+                        default:
+                            add(pollMsgWithTag(String.class));
+                            add(pollMsgFrom(3));
+                            add(pollMsg());
+                            add(pollMsg());
+                    }
+                }
+            }));
+        }
+
+        private void add(Message msg) {
+            results.add(msg == null ? "-" : msg.getSrc() + " " + msg.getData());
+        }
+    }
+
+    @Test
+    public void testSelectiveReceive() {
+        Simulator simulator = new Simulator(6, null);
+        Network network = new Network(simulator);
+        SelectiveTask task = new SelectiveTask(1, simulator, network);
+        network.addNode(task);
+        network.addLink(2, 1, new Link(1));
+        network.addLink(3, 1, new Link(2));
+        network.addLink(4, 1, new Link(5));
+        network.sendMsg(new Message(2, 1, "a"));
+        network.sendMsg(new Message(2, 1, 7));
+        network.sendMsg(new Message(3, 1, Kind.PING));
+        network.sendMsg(new Message(3, 1, "b"));
+        network.sendMsg(new Message(4, 1, 7));
+        network.sendMsg(new Message(4, 1, Kind.PONG));
+        simulator.runBefore(12);
+        assertEquals(task.results, Arrays.asList("-", "2 a", "-", "2 a"));
+        network.sendMsg(new Message(2, 1, "c")); // held during the second action
+        simulator.runBefore(22);
+        assertEquals(task.results.subList(4, 9), Arrays.asList("4 7", "2 7", "3 b", "2 7", "3 PING"));
+        simulator.runBefore(100);
+        assertEquals(task.results.subList(9, task.results.size()), Arrays.asList("2 c", "3 PING", "4 PONG", "-"));
+        assertEquals(task.step, 3);
+    }
+
+    /**
+     * A task which logs every message it receives with all levels.
+     */
+    private static class LoggingTask extends Task {
+
+        private static final long serialVersionUID = 1L;
+
+        private int created = 0; // entries created by a supplier
+
+        LoggingTask(int id, Simulator simulator, Network network) {
+            super(id, simulator, network);
+            addCmd(new Command(new TrackedGuard(MAILBOX) {
+                @Override
+                public boolean check() {
+                    return hasMsg();
+                }
+            }, new Action() {
+                @Override
+                public void run() {
+                    final Message msg = pollMsg();
+                    log(Log.Level.DEBUG, new Supplier<String>() {
+                        @Override
+                        public String get() {
+                            created++;
+                            return "Details of " + msg.getData();
+                        }
+                    });
+                    log(Log.Level.INFO, "Received %s from %s", msg.getData(), msg.getSrc());
+                    log(Log.Level.WARN, "Warning");
+                }
+            }));
+        }
+    }
+
+    @Test
+    public void testLogLevels() {
+        ListLog entries = new ListLog();
+        FilterLog log = new FilterLog(entries, Log.Level.INFO).setEnabled(Log.Category.MSG_SENT, false);
+        Simulator simulator = new Simulator(4, log);
+        simulator.setLogMsgSent(true);
+        simulator.setLogMsgReceived(true);
+        Network network = new Network(simulator);
+        LoggingTask task = new LoggingTask(1, simulator, network);
+        network.addNode(task);
+        network.addLink(2, 1, new Link(5));
+        network.sendMsg(new Message(2, 1, "a"));
+        simulator.runBefore(100);
+        assertEquals(entries.entries.size(), 3);
+        assertTrue(entries.entries.get(0).startsWith("5 MSG RCV"), entries.entries.get(0));
+        assertEquals(entries.entries.subList(1, 3), Arrays.asList("5  1: Received a from 2", "5  1: Warning"));
+        assertEquals(task.created, 0);
+
+        log.setLevel(Log.Level.DEBUG);
+        log.setEnabled(Log.Category.TASK, false);
+        network.sendMsg(new Message(2, 1, "b"));
+        simulator.runBefore(200);
+        assertEquals(entries.entries.size(), 4);
+        assertEquals(task.created, 0);
+        log.setEnabled(Log.Category.TASK, true);
+        network.sendMsg(new Message(2, 1, "c"));
+        simulator.runBefore(300);
+        assertEquals(entries.entries.size(), 8);
+        assertEquals(task.created, 1);
+    }
+}